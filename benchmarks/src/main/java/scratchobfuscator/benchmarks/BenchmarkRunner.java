@@ -0,0 +1,35 @@
+package scratchobfuscator.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Benchmark entry point. Accepts the regular JMH command-line options, but
+ * always attaches the GC profiler so that allocation rates are reported.
+ */
+public class BenchmarkRunner
+{
+    /**
+     * Entry point.
+     *
+     * @param args JMH command-line arguments.
+     *
+     * @throws CommandLineOptionException If the arguments are invalid.
+     * @throws RunnerException If running the benchmarks fails.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException
+    {
+        final Options opts = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,76 @@
+package scratchobfuscator.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+import scratchobfuscator.generator.ProjectGenerator;
+import scratchobfuscator.manipulators.Manipulation;
+
+
+/**
+ * Measures the traversal cost of {@link Manipulation#run()} and
+ * {@link Manipulation#runParallel()}, and of matching block selectors through
+ * string comparisons versus {@link Manipulation#onSelector(String,
+ * java.util.function.Consumer)}.
+ */
+@State(Scope.Benchmark)
+public class ManipulationBenchmark
+{
+    @Param({ "1", "10", "100" })
+    public int spriteCount;
+
+    private ScratchObjectStageMorph stage;
+
+    @Setup
+    public void setup()
+    {
+        stage = new ProjectGenerator().setSpriteCount(spriteCount).setWatcherCount(10).generate().getStage();
+    }
+
+    @Benchmark
+    public void visitMorphs(Blackhole bh)
+    {
+        new Manipulation(stage).forEachMorph(bh::consume).run();
+    }
+
+    @Benchmark
+    public void visitBlocks(Blackhole bh)
+    {
+        new Manipulation(stage).forEachBlock(bh::consume).run();
+    }
+
+    @Benchmark
+    public void visitBlocksParallel(Blackhole bh)
+    {
+        new Manipulation(stage).forEachBlock(bh::consume).runParallel();
+    }
+
+    @Benchmark
+    public void matchSelectorsByComparison(Blackhole bh)
+    {
+        new Manipulation(stage).forEachBlock(block -> {
+            if (block.size() >= 2 && (block.stringEquals(0, "readVariable") || block.stringEquals(0, "changeVariable")
+                    || block.stringEquals(0, "showVariable:") || block.stringEquals(0, "hideVariable:"))) {
+                bh.consume(block);
+            }
+        }).run();
+    }
+
+    @Benchmark
+    public void matchSelectorsByDispatch(Blackhole bh)
+    {
+        new Manipulation(stage).onSelector("readVariable", bh::consume).onSelector("changeVariable", bh::consume)
+                .onSelector("showVariable:", bh::consume).onSelector("hideVariable:", bh::consume).run();
+    }
+
+    @Benchmark
+    public void visitWatchers(Blackhole bh)
+    {
+        new Manipulation(stage).forEachWatcher(bh::consume).run();
+    }
+}
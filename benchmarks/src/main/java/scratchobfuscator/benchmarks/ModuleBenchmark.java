@@ -0,0 +1,74 @@
+package scratchobfuscator.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import scratchlib.project.ScratchProject;
+import scratchobfuscator.ScratchObfuscator;
+import scratchobfuscator.generator.ProjectGenerator;
+import scratchobfuscator.modules.GlobalVariablesModule;
+import scratchobfuscator.modules.RelabelCustomBlocksModule;
+
+
+/**
+ * Measures the individual obfuscation modules as well as the full default
+ * pipeline. Since processing modifies the project, a fresh one is created
+ * before every invocation (outside of the measurement).
+ */
+@State(Scope.Benchmark)
+public class ModuleBenchmark
+{
+    @Param({ "1", "10", "100" })
+    public int spriteCount;
+
+    private final GlobalVariablesModule globalVariablesModule = new GlobalVariablesModule();
+    private final RelabelCustomBlocksModule relabelCustomBlocksModule = new RelabelCustomBlocksModule();
+    private final ScratchObfuscator obfuscator = new ScratchObfuscator();
+    private final ScratchObfuscator fusedObfuscator = new ScratchObfuscator();
+
+    private ScratchProject project;
+
+    @Setup(Level.Trial)
+    public void setupTrial()
+    {
+        fusedObfuscator.setFused(true);
+    }
+
+    @Setup(Level.Invocation)
+    public void setup()
+    {
+        project = new ProjectGenerator().setSpriteCount(spriteCount).setWatcherCount(10).generate();
+    }
+
+    @Benchmark
+    public ScratchProject globalVariables()
+    {
+        globalVariablesModule.process(project);
+        return project;
+    }
+
+    @Benchmark
+    public ScratchProject relabelCustomBlocks()
+    {
+        relabelCustomBlocksModule.process(project);
+        return project;
+    }
+
+    @Benchmark
+    public ScratchProject fullPipeline()
+    {
+        obfuscator.process(project);
+        return project;
+    }
+
+    @Benchmark
+    public ScratchProject fusedPipeline()
+    {
+        fusedObfuscator.process(project);
+        return project;
+    }
+}
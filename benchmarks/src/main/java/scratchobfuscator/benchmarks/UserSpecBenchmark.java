@@ -0,0 +1,55 @@
+package scratchobfuscator.benchmarks;
+
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import scratchobfuscator.blocks.UserSpec;
+import scratchobfuscator.blocks.UserSpecParser;
+
+
+/**
+ * Measures parsing, formatting and comparison of custom block specs.
+ */
+@State(Scope.Benchmark)
+public class UserSpecBenchmark
+{
+    private static final String SPEC = "move %sprite to \"%target position\" and say \"hello world\" for %secs seconds";
+
+    private UserSpec spec;
+    private UserSpec similarSpec;
+
+    @Setup
+    public void setup()
+    {
+        spec = UserSpecParser.parse(SPEC);
+        similarSpec = UserSpecParser.parse(SPEC.replace("%sprite", "%other"));
+    }
+
+    @Benchmark
+    public UserSpec parse()
+    {
+        return UserSpecParser.parse(SPEC);
+    }
+
+    @Benchmark
+    public List<String> split()
+    {
+        return UserSpecParser.split(SPEC);
+    }
+
+    @Benchmark
+    public boolean isSimilar()
+    {
+        return spec.isSimilar(similarSpec);
+    }
+
+    @Benchmark
+    public String convertToString()
+    {
+        return spec.toString();
+    }
+}
@@ -0,0 +1,233 @@
+package scratchobfuscator;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import scratchlib.project.ScratchProject;
+
+
+/**
+ * Processes projects asynchronously with a shared {@link ScratchObfuscator},
+ * on a bounded pool of worker threads. Every submission immediately returns a
+ * {@link CompletableFuture} that completes with the result, or exceptionally
+ * with the failure that occurred while processing.
+ *
+ * <p>
+ * At most {@code threadCount} projects are processed at the same time. Up to
+ * {@code queueCapacity} further submissions wait for a worker. What happens to
+ * submissions beyond that is decided by the {@link OverflowPolicy}.
+ *
+ * <p>
+ * All methods may be called from any thread.
+ */
+public class AsyncObfuscator implements AutoCloseable
+{
+    /**
+     * Decides how submissions are treated while the queue is full.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * The returned future fails immediately with a
+         * {@link RejectedExecutionException}.
+         */
+        REJECT,
+
+        /**
+         * The submitting thread blocks until there is room in the queue.
+         */
+        BLOCK,
+    }
+
+    private final ScratchObfuscator obfuscator;
+    private final int threadCount;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ExecutorService executor;
+    private final Semaphore admission;
+
+    /**
+     * @param obfuscator The obfuscator to process projects with.
+     * @param threadCount The number of projects processed concurrently.
+     * @param queueCapacity The number of submissions that may wait for a
+     *            worker.
+     * @param overflowPolicy How to treat submissions while the queue is full.
+     */
+    public AsyncObfuscator(ScratchObfuscator obfuscator, int threadCount, int queueCapacity,
+            OverflowPolicy overflowPolicy)
+    {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("thread count must be positive");
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queue capacity must not be negative");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflow policy must not be null");
+        }
+
+        this.obfuscator = obfuscator;
+        this.threadCount = threadCount;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.admission = new Semaphore(threadCount + queueCapacity, overflowPolicy == OverflowPolicy.BLOCK);
+        this.executor = Executors.newFixedThreadPool(threadCount);
+    }
+
+    /**
+     * @return The obfuscator projects are processed with.
+     */
+    public ScratchObfuscator getObfuscator()
+    {
+        return obfuscator;
+    }
+
+    /**
+     * @return The number of projects processed concurrently.
+     */
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+
+    /**
+     * @return The number of submissions that may wait for a worker.
+     */
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    /**
+     * @return How submissions are treated while the queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+    /**
+     * Submits the project encoded in the given bytes for processing.
+     *
+     * @param data The project file contents. Must not be modified until the
+     *            returned future has completed.
+     * @return A future for the processed project file contents.
+     *
+     * @see ScratchObfuscator#processBytes(byte[])
+     */
+    public CompletableFuture<byte[]> submit(byte[] data)
+    {
+        return submit(() -> obfuscator.processBytes(data));
+    }
+
+    /**
+     * Submits the given project file for processing.
+     *
+     * @param in The input file.
+     * @param out The output file.
+     * @return A future that completes once the output file has been written.
+     *
+     * @see ScratchObfuscator#process(File, File)
+     */
+    public CompletableFuture<Void> submit(File in, File out)
+    {
+        return submit(() -> {
+            obfuscator.process(in, out);
+            return null;
+        });
+    }
+
+    /**
+     * Submits the given project for processing. It is obfuscated in-place, so
+     * it must not be accessed until the returned future has completed.
+     *
+     * @param project The project.
+     * @return A future for the same project, once processed.
+     *
+     * @see ScratchObfuscator#process(ScratchProject)
+     */
+    public CompletableFuture<ScratchProject> submit(ScratchProject project)
+    {
+        return submit(() -> {
+            obfuscator.process(project);
+            return project;
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> task)
+    {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                admission.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return future;
+            }
+        } else if (!admission.tryAcquire()) {
+            future.completeExceptionally(new RejectedExecutionException("too many projects queued"));
+            return future;
+        }
+
+        try {
+            executor.execute(() -> {
+                T result = null;
+                Throwable failure = null;
+                try {
+                    result = task.call();
+                } catch (Exception | Error e) {
+                    failure = e;
+                } finally {
+                    // make room before completing, so that dependent actions can submit again
+                    admission.release();
+                }
+                if (failure != null) {
+                    future.completeExceptionally(failure);
+                } else {
+                    future.complete(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the executor has been shut down
+            admission.release();
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Stops accepting submissions. Projects already submitted are still
+     * processed; later submissions fail with a
+     * {@link RejectedExecutionException}.
+     */
+    @Override
+    public void close()
+    {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for all submitted projects to be processed after {@link #close()}
+     * has been called.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return {@code true} if all projects were processed, {@code false} if the
+     *         timeout elapsed first.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
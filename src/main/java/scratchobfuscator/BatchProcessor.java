@@ -0,0 +1,371 @@
+package scratchobfuscator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import scratchobfuscator.io.ProjectFiles;
+
+
+/**
+ * Runs a {@link ScratchObfuscator} over every project file contained in some
+ * directory tree, using a bounded pool of worker threads. The directory
+ * structure is mirrored into the output directory.
+ *
+ * <p>
+ * By default, each worker reads, processes and writes one project after
+ * another. In {@link #setPipelined(boolean) pipelined} mode, file I/O is moved
+ * into separate reader and writer stages that are connected to the workers
+ * through bounded queues, so that reading and writing other projects overlaps
+ * with processing.
+ *
+ * <p>
+ * Failure to process one project does not abort the batch; instead, all
+ * failures are collected and reported through the returned {@link Result}.
+ */
+public class BatchProcessor
+{
+    private static final String[] PROJECT_EXTENSIONS = { ".sb", ".ypr" };
+    private static final int DEFAULT_IO_THREAD_COUNT = 4;
+
+    private final ScratchObfuscator obfuscator;
+    private final int threadCount;
+    private boolean pipelined = false;
+    private int ioThreadCount = DEFAULT_IO_THREAD_COUNT;
+
+    /**
+     * Constructs a new batch processor with one worker thread per available
+     * processor.
+     *
+     * @param obfuscator The obfuscator to apply to each project.
+     */
+    public BatchProcessor(ScratchObfuscator obfuscator)
+    {
+        this(obfuscator, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param obfuscator The obfuscator to apply to each project.
+     * @param threadCount The number of worker threads.
+     */
+    public BatchProcessor(ScratchObfuscator obfuscator, int threadCount)
+    {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("thread count must be positive");
+        }
+        this.obfuscator = obfuscator;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return Whether file I/O runs in stages separate from processing.
+     */
+    public boolean isPipelined()
+    {
+        return pipelined;
+    }
+
+    /**
+     * Sets whether file I/O should run in stages separate from processing.
+     * When enabled, reader threads load the input files, the worker threads
+     * only decode, process and encode projects, and writer threads store the
+     * results. Each of the two queues between the stages holds at most one
+     * project per worker thread, which bounds the memory used by projects in
+     * flight.
+     *
+     * <p>
+     * This pays off when storage latency is high, since the workers no longer
+     * wait for the disk.
+     *
+     * @param pipelined Whether to pipeline file I/O.
+     *
+     * @see #setIoThreadCount(int)
+     */
+    public void setPipelined(boolean pipelined)
+    {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * @return The number of reader threads, and of writer threads, in
+     *         pipelined mode.
+     */
+    public int getIoThreadCount()
+    {
+        return ioThreadCount;
+    }
+
+    /**
+     * Sets how many reader threads, and how many writer threads, are used in
+     * pipelined mode. More than one request in flight lets the storage device
+     * reorder and overlap them, which matters most on network and cloud
+     * volumes. Defaults to {@value #DEFAULT_IO_THREAD_COUNT}.
+     *
+     * @param ioThreadCount The number of threads per I/O stage.
+     */
+    public void setIoThreadCount(int ioThreadCount)
+    {
+        if (ioThreadCount < 1) {
+            throw new IllegalArgumentException("I/O thread count must be positive");
+        }
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    /**
+     * Processes all project files found in {@code inDir} or any of its
+     * subdirectories, writing each result to the same relative path inside
+     * {@code outDir}.
+     *
+     * @param inDir The input directory.
+     * @param outDir The output directory.
+     * @return The batch result.
+     *
+     * @throws IOException If the input directory cannot be listed.
+     * @throws InterruptedException If interrupted while waiting for workers.
+     */
+    public Result process(File inDir, File outDir) throws IOException, InterruptedException
+    {
+        final Path inRoot = inDir.toPath().toAbsolutePath();
+        final Path outRoot = outDir.toPath().toAbsolutePath();
+
+        final List<Path> inputs = findProjectFiles(inRoot);
+        if (pipelined) {
+            return processPipelined(inputs, inRoot, outRoot);
+        }
+
+        final Map<File, Future<?>> tasks = new LinkedHashMap<>();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (Path in : inputs) {
+                final Path out = outRoot.resolve(inRoot.relativize(in));
+                tasks.put(in.toFile(), executor.submit(() -> {
+                    Files.createDirectories(out.getParent());
+                    obfuscator.process(in.toFile(), out.toFile());
+                    return null;
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int succeeded = 0;
+        final Map<File, Throwable> failures = new LinkedHashMap<>();
+        for (Map.Entry<File, Future<?>> task : tasks.entrySet()) {
+            try {
+                task.getValue().get();
+                ++succeeded;
+            } catch (ExecutionException e) {
+                failures.put(task.getKey(), e.getCause());
+            }
+        }
+
+        return new Result(succeeded, failures);
+    }
+
+    private Result processPipelined(List<Path> inputs, Path inRoot, Path outRoot) throws InterruptedException
+    {
+        final int count = inputs.size();
+        final BlockingQueue<Task> readQueue = new ArrayBlockingQueue<>(threadCount);
+        final BlockingQueue<Task> writeQueue = new ArrayBlockingQueue<>(threadCount);
+        // every slot is written by one stage only, and read after all stages have finished
+        final Throwable[] failures = new Throwable[count];
+
+        final AtomicInteger nextInput = new AtomicInteger();
+        final AtomicInteger activeReaders = new AtomicInteger(ioThreadCount);
+        final AtomicInteger activeWorkers = new AtomicInteger(threadCount);
+
+        final int stageCount = threadCount + 2 * ioThreadCount;
+        final ExecutorService executor = Executors.newFixedThreadPool(stageCount);
+        try {
+            final CompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+
+            for (int i = 0; i < ioThreadCount; ++i) {
+                stages.submit(() -> {
+                    int index;
+                    while ((index = nextInput.getAndIncrement()) < count) {
+                        final Path in = inputs.get(index);
+                        final Task task;
+                        try {
+                            task = new Task(index, outRoot.resolve(inRoot.relativize(in)), ProjectFiles.read(in));
+                        } catch (Exception | Error e) {
+                            failures[index] = e;
+                            continue;
+                        }
+                        readQueue.put(task);
+                    }
+                    if (activeReaders.decrementAndGet() == 0) {
+                        readQueue.put(Task.END);
+                    }
+                    return null;
+                });
+            }
+
+            for (int i = 0; i < threadCount; ++i) {
+                stages.submit(() -> {
+                    Task task;
+                    while ((task = readQueue.take()) != Task.END) {
+                        try {
+                            task.data = obfuscator.processBytes(task.data);
+                        } catch (Exception | Error e) {
+                            failures[task.index] = e;
+                            continue;
+                        }
+                        writeQueue.put(task);
+                    }
+                    // let the other workers see the end marker as well
+                    readQueue.put(Task.END);
+                    if (activeWorkers.decrementAndGet() == 0) {
+                        writeQueue.put(Task.END);
+                    }
+                    return null;
+                });
+            }
+
+            for (int i = 0; i < ioThreadCount; ++i) {
+                stages.submit(() -> {
+                    Task task;
+                    while ((task = writeQueue.take()) != Task.END) {
+                        try {
+                            Files.createDirectories(task.out.getParent());
+                            ProjectFiles.writeAtomically(task.out, task.data, obfuscator.isSyncWrites());
+                        } catch (Exception | Error e) {
+                            failures[task.index] = e;
+                        }
+                    }
+                    // let the other writers see the end marker as well
+                    writeQueue.put(Task.END);
+                    return null;
+                });
+            }
+
+            // stages finish in any order; one that dies would leave the others blocked on their queues, so
+            // the first failure aborts the whole pipeline
+            for (int i = 0; i < stageCount; ++i) {
+                awaitStage(stages.take());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int succeeded = 0;
+        final Map<File, Throwable> failureMap = new LinkedHashMap<>();
+        for (int i = 0; i < count; ++i) {
+            if (failures[i] == null) {
+                ++succeeded;
+            } else {
+                failureMap.put(inputs.get(i).toFile(), failures[i]);
+            }
+        }
+
+        return new Result(succeeded, failureMap);
+    }
+
+    private static void awaitStage(Future<?> stage) throws InterruptedException
+    {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            // stages handle project failures themselves, so this is a bug
+            throw new IllegalStateException("pipeline stage failed", e.getCause());
+        }
+    }
+
+    static List<Path> findProjectFiles(Path root) throws IOException
+    {
+        try (Stream<Path> stream = Files.walk(root)) {
+            return stream.filter(Files::isRegularFile).filter(BatchProcessor::isProjectFile).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    static boolean isProjectFile(Path path)
+    {
+        final String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String ext : PROJECT_EXTENSIONS) {
+            if (name.endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A project travelling through the pipeline, holding the file contents of
+     * the current stage.
+     */
+    private static class Task
+    {
+        private static final Task END = new Task(-1, null, null);
+
+        private final int index;
+        private final Path out;
+        private ByteBuffer data;
+
+        private Task(int index, Path out, ByteBuffer data)
+        {
+            this.index = index;
+            this.out = out;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Summary of a finished batch run.
+     */
+    public static class Result
+    {
+        private final int succeeded;
+        private final Map<File, Throwable> failures;
+
+        private Result(int succeeded, Map<File, Throwable> failures)
+        {
+            this.succeeded = succeeded;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return The number of projects that were processed successfully.
+         */
+        public int getSucceededCount()
+        {
+            return succeeded;
+        }
+
+        /**
+         * @return The number of projects that could not be processed.
+         */
+        public int getFailedCount()
+        {
+            return failures.size();
+        }
+
+        /**
+         * @return A map of input files that could not be processed to the
+         *         respective cause, in input order.
+         */
+        public Map<File, Throwable> getFailures()
+        {
+            return failures;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package scratchobfuscator;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import scratchobfuscator.cache.ResultCache;
+import scratchobfuscator.io.ProjectFiles;
+import scratchobfuscator.io.ReusableByteArrayOutputStream;
+
+
+/**
+ * Watches a directory tree for new or changed project files and runs a
+ * {@link ScratchObfuscator} over each of them, writing the results to the same
+ * relative path inside an output directory.
+ *
+ * <p>
+ * A file is processed only once it has not been modified for the debounce
+ * delay, so that projects still being written are not picked up. Inputs whose
+ * content is identical to the one processed last are skipped, as long as
+ * their output still exists. The content hashes are kept in an
+ * {@link #INDEX_FILE_NAME index file} inside the output directory, so this
+ * holds across restarts as well, unless the obfuscator's
+ * {@link ScratchObfuscator#getFingerprint() configuration} has changed in the
+ * meantime. Directories created while watching are watched as well.
+ *
+ * <p>
+ * Projects are processed one at a time, on the thread calling {@link #run()}.
+ * Except for {@link #close()}, instances must not be used by multiple threads
+ * at once.
+ */
+public class FolderWatcher implements AutoCloseable
+{
+    /**
+     * Receives notifications about processed projects.
+     */
+    public interface Listener
+    {
+        /**
+         * Called after a project has been processed and its output written.
+         *
+         * @param in The input file.
+         * @param out The output file.
+         */
+        void projectProcessed(File in, File out);
+
+        /**
+         * Called when a project could not be processed. Errors of the virtual
+         * machine itself, such as {@link OutOfMemoryError}, are not reported
+         * here, but end the watcher.
+         *
+         * @param in The input file.
+         * @param cause The failure.
+         */
+        void projectFailed(File in, Throwable cause);
+    }
+
+    private static final Listener NO_LISTENER = new Listener()
+    {
+        @Override
+        public void projectProcessed(File in, File out)
+        {
+        }
+
+        @Override
+        public void projectFailed(File in, Throwable cause)
+        {
+        }
+    };
+
+    /**
+     * The name of the file inside the output directory that records the
+     * content hash of every processed input.
+     */
+    public static final String INDEX_FILE_NAME = ".scratch-obfuscator-index";
+
+    private static final int INDEX_MAGIC = 0x534F5749; // "SOWI"
+    private static final int INDEX_FORMAT_VERSION = 1;
+
+    // the configuration is recorded once for the whole index instead
+    private static final String CONTENT_FINGERPRINT = "";
+
+    private final ScratchObfuscator obfuscator;
+    private final Path inRoot, outRoot;
+    private final long debounceNanos;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, Long> pending = new LinkedHashMap<>();
+    private final Map<Path, String> hashes = new HashMap<>();
+    private final Path indexFile;
+    private boolean indexDirty = false;
+    private volatile Listener listener = NO_LISTENER;
+
+    /**
+     * Constructs a new watcher, loads the index left by a previous watcher on
+     * the same output directory with the same configuration, if any, and
+     * registers the input directory tree. Changes are recorded from now on, but only processed by
+     * {@link #run()}.
+     *
+     * @param obfuscator The obfuscator to apply to each project.
+     * @param inDir The input directory.
+     * @param outDir The output directory (must not be inside the input
+     *            directory).
+     * @param debounceMillis The time a file must remain unmodified before it
+     *            is processed, in milliseconds.
+     *
+     * @throws IOException If the input directory cannot be watched.
+     */
+    public FolderWatcher(ScratchObfuscator obfuscator, File inDir, File outDir, long debounceMillis)
+            throws IOException
+    {
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("debounce delay must not be negative");
+        }
+
+        this.obfuscator = obfuscator;
+        this.inRoot = inDir.toPath().toAbsolutePath().normalize();
+        this.outRoot = outDir.toPath().toAbsolutePath().normalize();
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+
+        if (outRoot.startsWith(inRoot)) {
+            throw new IllegalArgumentException("output directory must not be inside the input directory");
+        }
+
+        this.indexFile = outRoot.resolve(INDEX_FILE_NAME);
+        loadIndex();
+
+        this.watchService = inRoot.getFileSystem().newWatchService();
+        try {
+            registerAll(inRoot);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param listener The listener to notify about processed projects, or
+     *            {@code null} for none.
+     */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener != null ? listener : NO_LISTENER;
+    }
+
+    /**
+     * Processes every project file currently found in the input directory
+     * tree whose content has changed since it was last processed.
+     *
+     * @return The number of projects processed.
+     *
+     * @throws IOException If the input directory cannot be listed.
+     */
+    public int scan() throws IOException
+    {
+        int processed = 0;
+        for (Path in : BatchProcessor.findProjectFiles(inRoot)) {
+            if (process(in)) {
+                ++processed;
+            }
+        }
+        saveIndex();
+        return processed;
+    }
+
+    /**
+     * Performs an initial {@link #scan()}, then processes changed project files
+     * as they settle. Blocks until the watcher is closed.
+     *
+     * @throws IOException If the input directory cannot be listed.
+     * @throws InterruptedException If interrupted while waiting for changes.
+     */
+    public void run() throws IOException, InterruptedException
+    {
+        scan();
+
+        try {
+            while (true) {
+                final WatchKey key = pending.isEmpty() ? watchService.take() : pollUntilNextDeadline();
+                if (key != null) {
+                    handle(key);
+                }
+                processDue();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed; stop watching
+        }
+    }
+
+    /**
+     * Stops watching. A {@link #run()} in progress returns after finishing the
+     * current project.
+     */
+    @Override
+    public void close()
+    {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+
+    private WatchKey pollUntilNextDeadline() throws InterruptedException
+    {
+        long next = Long.MAX_VALUE;
+        for (long deadline : pending.values()) {
+            next = Math.min(next, deadline);
+        }
+        final long wait = next - System.nanoTime();
+        return wait > 0 ? watchService.poll(wait, TimeUnit.NANOSECONDS) : watchService.poll();
+    }
+
+    private void handle(WatchKey key) throws IOException
+    {
+        final Path dir = directories.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, so any file may have changed
+                scheduleAll(inRoot);
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+
+            final Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pending.keySet().removeIf(p -> p.startsWith(path));
+                indexDirty |= hashes.keySet().removeIf(p -> p.startsWith(path));
+            } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    // files may have been added before the directory was registered
+                    registerAll(path);
+                    scheduleAll(path);
+                }
+            } else if (BatchProcessor.isProjectFile(path)) {
+                schedule(path);
+            }
+        }
+
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private void schedule(Path path)
+    {
+        pending.put(path, System.nanoTime() + debounceNanos);
+    }
+
+    private void scheduleAll(Path dir) throws IOException
+    {
+        for (Path path : BatchProcessor.findProjectFiles(dir)) {
+            schedule(path);
+        }
+    }
+
+    private void processDue()
+    {
+        final long now = System.nanoTime();
+
+        final List<Path> due = new ArrayList<>();
+        for (Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<Path, Long> entry = it.next();
+            if (entry.getValue() - now <= 0) {
+                due.add(entry.getKey());
+                it.remove();
+            }
+        }
+
+        for (Path in : due) {
+            process(in);
+        }
+        saveIndex();
+    }
+
+    private boolean process(Path in)
+    {
+        if (!Files.isRegularFile(in)) {
+            // deleted or replaced before it settled
+            return false;
+        }
+
+        final Path out = outRoot.resolve(inRoot.relativize(in));
+        try {
+            // read onto the heap: a mapped file that is truncated while being
+            // decoded would fail with an InternalError instead
+            final ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(in));
+            final String hash = ResultCache.key(input, CONTENT_FINGERPRINT);
+            if (hash.equals(hashes.get(in)) && Files.isRegularFile(out)) {
+                return false;
+            }
+
+            final ByteBuffer output = obfuscator.processBytes(input);
+            Files.createDirectories(out.getParent());
+            ProjectFiles.writeAtomically(out, output, obfuscator.isSyncWrites());
+            hashes.put(in, hash);
+            indexDirty = true;
+        } catch (VirtualMachineError e) {
+            // the JVM itself is failing, not this project
+            throw e;
+        } catch (Exception | Error e) {
+            // a single project must never stop the watcher
+            listener.projectFailed(in.toFile(), e);
+            return false;
+        }
+
+        listener.projectProcessed(in.toFile(), out.toFile());
+        return true;
+    }
+
+    private void loadIndex()
+    {
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(indexFile)))) {
+            if (data.readInt() != INDEX_MAGIC || data.readInt() != INDEX_FORMAT_VERSION) {
+                return;
+            }
+            if (!data.readUTF().equals(obfuscator.getFingerprint())) {
+                // the outputs were produced differently, so all of them are stale
+                return;
+            }
+            for (int i = 0, n = data.readInt(); i < n; ++i) {
+                final Path in = inRoot.resolve(data.readUTF()).normalize();
+                hashes.put(in, data.readUTF());
+            }
+        } catch (IOException | RuntimeException e) {
+            // a damaged index only means that projects are processed again
+            hashes.clear();
+        }
+    }
+
+    private void saveIndex()
+    {
+        if (!indexDirty) {
+            return;
+        }
+
+        final ReusableByteArrayOutputStream out = new ReusableByteArrayOutputStream(1024);
+        try {
+            final DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(INDEX_MAGIC);
+            data.writeInt(INDEX_FORMAT_VERSION);
+            data.writeUTF(obfuscator.getFingerprint());
+            data.writeInt(hashes.size());
+            for (Map.Entry<Path, String> entry : hashes.entrySet()) {
+                data.writeUTF(inRoot.relativize(entry.getKey()).toString());
+                data.writeUTF(entry.getValue());
+            }
+            data.flush();
+
+            Files.createDirectories(outRoot);
+            ProjectFiles.writeAtomically(indexFile, out.asByteBuffer(), obfuscator.isSyncWrites());
+            indexDirty = false;
+        } catch (IOException e) {
+            // retried after the next change; until then, a restart merely
+            // processes more projects again
+        }
+    }
+
+    private void registerAll(Path root) throws IOException
+    {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                directories.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -1,6 +1,14 @@
 package scratchobfuscator;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+
+import scratchobfuscator.cache.ResultCache;
+import scratchobfuscator.mappings.ObfuscationMappings;
+import scratchobfuscator.metrics.ObfuscationMetrics;
 
 
 /**
@@ -8,7 +16,23 @@ import java.io.IOException;
  */
 public class Main
 {
-    private static final String USAGE = "Usage: java -jar scratch-obfuscator.jar <in-path> <out-path>";
+    private static final String USAGE = "Usage: java -jar scratch-obfuscator.jar <in-path> <out-path>\n"
+            + "       java -jar scratch-obfuscator.jar --batch <in-dir> <out-dir>\n"
+            + "       java -jar scratch-obfuscator.jar - - (read from stdin, write to stdout)\n"
+            + "       java -jar scratch-obfuscator.jar --watch <in-dir> <out-dir>\n"
+            + "       java -jar scratch-obfuscator.jar --serve <port>\n"
+            + "Options: --workers <n>, --queue <n> (server only), --warmup <n> (server only),\n"
+            + "         --fused (share one script traversal between all modules),\n"
+            + "         --parallel (rewrite the sprites of a project on all cores),\n"
+            + "         --indexed (index references in one pass, then rewrite them directly),\n"
+            + "         --pipelined (batch only; overlap reading and writing files with processing),\n"
+            + "         --io-threads <n> (pipelined only; read and write this many files at once),\n"
+            + "         --debounce <ms> (watch only; wait for files to stay unmodified this long),\n"
+            + "         --no-sync (don't flush each output file to disk before moving it into place),\n"
+            + "         --metrics (print timings and counts as JSON to stderr when done),\n"
+            + "         --short-params (rename custom block parameters to the shortest names),\n"
+            + "         --cache <dir> (reuse results for identical input), --cache-size <megabytes>,\n"
+            + "         --mappings <file> (reuse and record assigned names across runs)";
 
     /**
      * Entry point.
@@ -29,11 +53,173 @@ public class Main
             return;
         }
 
-        final ScratchObfuscator obf = new ScratchObfuscator();
+        final ScratchObfuscator obf = new ScratchObfuscator(
+                ScratchObfuscator.createDefaultModules(opts.isMinimizeParameters()));
+        obf.setFused(opts.isFused());
+        obf.setParallel(opts.isParallel());
+        obf.setIndexed(opts.isIndexed());
+        obf.setSyncWrites(opts.isSyncWrites());
+        if (opts.isMetricsEnabled()) {
+            obf.setMetrics(new ObfuscationMetrics());
+        }
+        if (opts.getCacheDirectory() != null) {
+            try {
+                obf.setCache(new ResultCache(opts.getCacheDirectory().toPath(),
+                        opts.getCacheSizeMegabytes() * 1024L * 1024L));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        if (opts.getMappingsFile() != null) {
+            try {
+                obf.setMappings(ObfuscationMappings.loadOrCreate(opts.getMappingsFile().toPath()));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        if (opts.getMode() == ProgramOptions.Mode.SERVER) {
+            runServer(obf, opts);
+            return;
+        }
+        if (opts.getMode() == ProgramOptions.Mode.WATCH) {
+            runWatch(obf, opts);
+            return;
+        }
+
+        boolean succeeded = true;
+        if (opts.getMode() == ProgramOptions.Mode.BATCH) {
+            succeeded = runBatch(obf, opts);
+        } else {
+            runSingle(obf, opts);
+        }
+        saveMappings(obf, opts);
+        printMetrics(obf);
+
+        if (!succeeded) {
+            // let scripts detect that some projects were not processed
+            System.exit(1);
+        }
+    }
+
+    private static void saveMappings(ScratchObfuscator obf, ProgramOptions opts)
+    {
+        if (obf.getMappings() == null) {
+            return;
+        }
+        try {
+            obf.getMappings().save(opts.getMappingsFile().toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void runSingle(ScratchObfuscator obf, ProgramOptions opts)
+    {
         try {
+            if (opts.getMode() == ProgramOptions.Mode.STREAM) {
+                obf.process(new BufferedInputStream(System.in), new BufferedOutputStream(System.out));
+                return;
+            }
             obf.process(opts.getInputFile(), opts.getOutputFile());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    private static void printMetrics(ScratchObfuscator obf)
+    {
+        if (obf.getMetrics().isEnabled()) {
+            System.err.println(obf.getMetrics().toJson());
+        }
+    }
+
+    /**
+     * @return Whether all projects were processed successfully.
+     */
+    private static boolean runBatch(ScratchObfuscator obf, ProgramOptions opts)
+    {
+        final BatchProcessor processor = new BatchProcessor(obf, opts.getWorkerCount());
+        processor.setPipelined(opts.isPipelined());
+        processor.setIoThreadCount(opts.getIoThreadCount());
+
+        final BatchProcessor.Result result;
+        try {
+            result = processor.process(opts.getInputFile(), opts.getOutputFile());
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        for (Map.Entry<File, Throwable> failure : result.getFailures().entrySet()) {
+            System.err.println("Failed: " + failure.getKey() + " (" + failure.getValue() + ")");
+        }
+        System.out.println("Processed " + (result.getSucceededCount() + result.getFailedCount()) + " projects: "
+                + result.getSucceededCount() + " succeeded, " + result.getFailedCount() + " failed.");
+
+        return result.getFailedCount() == 0;
+    }
+
+    private static void runServer(ScratchObfuscator obf, ProgramOptions opts)
+    {
+        final ObfuscationServer server;
+        try {
+            server = new ObfuscationServer(obf, opts.getServerPort(), opts.getWorkerCount(),
+                    opts.getQueueCapacity());
+            server.warmUp(opts.getWarmupIterations());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            saveMappings(obf, opts);
+            printMetrics(obf);
+        }));
+        server.start();
+
+        System.out.println("Listening on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + ObfuscationServer.ENDPOINT);
+    }
+
+    private static void runWatch(ScratchObfuscator obf, ProgramOptions opts)
+    {
+        final FolderWatcher watcher;
+        try {
+            watcher = new FolderWatcher(obf, opts.getInputFile(), opts.getOutputFile(), opts.getDebounceMillis());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        watcher.setListener(new FolderWatcher.Listener()
+        {
+            @Override
+            public void projectProcessed(File in, File out)
+            {
+                System.out.println("Processed: " + in);
+            }
+
+            @Override
+            public void projectFailed(File in, Throwable cause)
+            {
+                System.err.println("Failed: " + in + " (" + cause + ")");
+            }
+        });
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.close();
+            saveMappings(obf, opts);
+            printMetrics(obf);
+        }));
+
+        System.out.println("Watching " + opts.getInputFile());
+        try {
+            watcher.run();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
 }
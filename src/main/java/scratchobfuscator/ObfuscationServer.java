@@ -0,0 +1,199 @@
+package scratchobfuscator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import scratchobfuscator.generator.ProjectGenerator;
+
+
+/**
+ * Local HTTP server that keeps a single {@link ScratchObfuscator} loaded and
+ * processes projects posted to {@value #ENDPOINT}. The request body is the
+ * project file, the response body is the processed project file.
+ *
+ * <p>
+ * At most {@code workerCount} projects are processed at the same time. Up to
+ * {@code queueCapacity} further requests wait for a worker; requests beyond
+ * that are answered immediately with {@code 503 Service Unavailable}.
+ */
+public class ObfuscationServer implements AutoCloseable
+{
+    /**
+     * The path at which projects are accepted.
+     */
+    public static final String ENDPOINT = "/obfuscate";
+
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_METHOD_NOT_ALLOWED = 405;
+    private static final int STATUS_UNAVAILABLE = 503;
+
+    private final ScratchObfuscator obfuscator;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore admission;
+    private final Semaphore workers;
+
+    /**
+     * Constructs a new server bound to the loopback interface. The server is
+     * not started automatically.
+     *
+     * @param obfuscator The obfuscator to process projects with.
+     * @param port The port to listen on, or {@code 0} for an ephemeral port.
+     * @param workerCount The number of projects processed concurrently.
+     * @param queueCapacity The number of requests that may wait for a worker.
+     *
+     * @throws IOException If the server socket cannot be bound.
+     */
+    public ObfuscationServer(ScratchObfuscator obfuscator, int port, int workerCount, int queueCapacity)
+            throws IOException
+    {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("worker count must be positive");
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queue capacity must not be negative");
+        }
+
+        this.obfuscator = obfuscator;
+        this.admission = new Semaphore(workerCount + queueCapacity);
+        this.workers = new Semaphore(workerCount, true);
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext(ENDPOINT, this::handle);
+    }
+
+    /**
+     * @return The address the server is bound to.
+     */
+    public InetSocketAddress getAddress()
+    {
+        return server.getAddress();
+    }
+
+    /**
+     * Runs the obfuscator on a synthetic project the given number of times,
+     * including serialization and deserialization, so that the relevant code
+     * paths are compiled before the first real request arrives.
+     *
+     * @param iterations The number of warm-up runs.
+     *
+     * @throws IOException If the synthetic project cannot be processed.
+     */
+    public void warmUp(int iterations) throws IOException
+    {
+        if (iterations <= 0) {
+            return;
+        }
+
+        final byte[] sample = createWarmUpProject();
+        for (int i = 0; i < iterations; ++i) {
+            obfuscator.processBytes(sample);
+        }
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and shuts down the worker threads. Requests
+     * currently being processed are given a short amount of time to finish.
+     */
+    @Override
+    public void close()
+    {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, STATUS_METHOD_NOT_ALLOWED, "Only POST is supported.");
+                return;
+            }
+
+            if (!admission.tryAcquire()) {
+                respond(exchange, STATUS_UNAVAILABLE, "Too many requests queued.");
+                return;
+            }
+            try {
+                final byte[] input = readFully(exchange.getRequestBody());
+
+                byte[] output = null;
+                Exception failure = null;
+                workers.acquireUninterruptibly();
+                try {
+                    output = obfuscator.processBytes(input);
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                } finally {
+                    workers.release();
+                }
+
+                if (failure != null) {
+                    respond(exchange, STATUS_BAD_REQUEST, "The project could not be processed: " + failure);
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                respond(exchange, STATUS_OK, output);
+            } finally {
+                admission.release();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        respond(exchange, status, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException
+    {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] createWarmUpProject() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ProjectGenerator().setSpriteCount(4).setNestingDepth(2).setWatcherCount(4).write(out);
+        return out.toByteArray();
+    }
+}
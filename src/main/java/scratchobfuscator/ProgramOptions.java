@@ -1,6 +1,8 @@
 package scratchobfuscator;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -8,20 +10,109 @@ import java.io.File;
  */
 public class ProgramOptions
 {
+    /**
+     * The way in which the input and output paths are to be interpreted.
+     */
+    public enum Mode
+    {
+        /**
+         * A single project file is read and a single project file is written.
+         */
+        SINGLE,
+
+        /**
+         * All project files in the input directory (recursively) are processed,
+         * and the results are written to the output directory.
+         */
+        BATCH,
+
+        /**
+         * The input directory is watched, and each project file that is added
+         * or changed in it (recursively) is processed once it has settled. The
+         * results are written to the output directory.
+         */
+        WATCH,
+
+        /**
+         * A single project is read from standard input and the result is
+         * written to standard output. No files are involved.
+         */
+        STREAM,
+
+        /**
+         * No paths are given. Instead, a local HTTP server is started that
+         * accepts projects and responds with the processed results.
+         */
+        SERVER,
+    }
+
+    private static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final int DEFAULT_WARMUP_ITERATIONS = 100;
+    private static final int DEFAULT_CACHE_SIZE_MB = 1024;
+    private static final int DEFAULT_DEBOUNCE_MILLIS = 500;
+    private static final int DEFAULT_IO_THREADS = 4;
+    private static final int MAX_PORT = 65535;
+
+    /**
+     * The path argument denoting standard input or standard output.
+     */
+    public static final String STANDARD_STREAM = "-";
+
+    private final Mode mode;
     private final File input, output;
 
+    private int serverPort = -1;
+    private int workerCount = DEFAULT_WORKERS;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int warmupIterations = DEFAULT_WARMUP_ITERATIONS;
+    private boolean fused = false;
+    private boolean parallel = false;
+    private boolean indexed = false;
+    private boolean pipelined = false;
+    private int ioThreadCount = DEFAULT_IO_THREADS;
+    private boolean syncWrites = true;
+    private boolean metrics = false;
+    private boolean minimizeParameters = false;
+    private File cacheDirectory = null;
+    private File mappingsFile = null;
+    private int cacheSizeMegabytes = DEFAULT_CACHE_SIZE_MB;
+    private int debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+
     /**
      * @param input The file to read from.
      * @param output The file to write the program output to.
      */
     public ProgramOptions(File input, File output)
     {
-        this.input = input.getAbsoluteFile();
-        this.output = output.getAbsoluteFile();
+        this(Mode.SINGLE, input, output);
+    }
+
+    /**
+     * @param mode The processing mode.
+     * @param input The file or directory to read from ({@code null} for
+     *            {@link Mode#STREAM} and {@link Mode#SERVER}).
+     * @param output The file or directory to write the program output to
+     *            ({@code null} for {@link Mode#STREAM} and
+     *            {@link Mode#SERVER}).
+     */
+    public ProgramOptions(Mode mode, File input, File output)
+    {
+        this.mode = mode;
+        this.input = input != null ? input.getAbsoluteFile() : null;
+        this.output = output != null ? output.getAbsoluteFile() : null;
     }
 
     /**
-     * @return The file to read from.
+     * @return The processing mode.
+     */
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * @return The file to read from, or {@code null} if no files are used.
      */
     public File getInputFile()
     {
@@ -29,13 +120,151 @@ public class ProgramOptions
     }
 
     /**
-     * @return The file to write the program output to.
+     * @return The file to write the program output to, or {@code null} if no
+     *         files are used.
      */
     public File getOutputFile()
     {
         return output;
     }
 
+    /**
+     * @return The port the server should listen on ({@code 0} for an ephemeral
+     *         port), or {@code -1} if not in {@link Mode#SERVER}.
+     */
+    public int getServerPort()
+    {
+        return serverPort;
+    }
+
+    /**
+     * @return The number of worker threads to process projects with.
+     */
+    public int getWorkerCount()
+    {
+        return workerCount;
+    }
+
+    /**
+     * @return The maximum number of server requests waiting for a worker.
+     */
+    public int getQueueCapacity()
+    {
+        return queueCapacity;
+    }
+
+    /**
+     * @return The number of warm-up runs to perform before serving requests.
+     */
+    public int getWarmupIterations()
+    {
+        return warmupIterations;
+    }
+
+    /**
+     * @return Whether the module traversals should be fused into one.
+     */
+    public boolean isFused()
+    {
+        return fused;
+    }
+
+    /**
+     * @return Whether the sprites of each project should be rewritten in
+     *         parallel.
+     */
+    public boolean isParallel()
+    {
+        return parallel;
+    }
+
+    /**
+     * @return Whether rewrites should be applied through a project index.
+     */
+    public boolean isIndexed()
+    {
+        return indexed;
+    }
+
+    /**
+     * @return Whether batch runs should read and write files in stages
+     *         separate from processing.
+     */
+    public boolean isPipelined()
+    {
+        return pipelined;
+    }
+
+    /**
+     * @return The number of reader threads, and of writer threads, for
+     *         pipelined batch runs.
+     */
+    public int getIoThreadCount()
+    {
+        return ioThreadCount;
+    }
+
+    /**
+     * @return Whether output files should be flushed to the storage device
+     *         before they replace their target.
+     */
+    public boolean isSyncWrites()
+    {
+        return syncWrites;
+    }
+
+    /**
+     * @return Whether a metrics summary should be printed.
+     */
+    public boolean isMetricsEnabled()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return Whether custom block parameters should be renamed to the
+     *         shortest unique names.
+     */
+    public boolean isMinimizeParameters()
+    {
+        return minimizeParameters;
+    }
+
+    /**
+     * @return The directory to cache results in, or {@code null} if results
+     *         should not be cached.
+     */
+    public File getCacheDirectory()
+    {
+        return cacheDirectory;
+    }
+
+    /**
+     * @return The file to load obfuscation mappings from and save them to, or
+     *         {@code null} if mappings should not be persisted.
+     */
+    public File getMappingsFile()
+    {
+        return mappingsFile;
+    }
+
+    /**
+     * @return The maximum size of the result cache, in megabytes.
+     */
+    public int getCacheSizeMegabytes()
+    {
+        return cacheSizeMegabytes;
+    }
+
+    /**
+     * @return The time a watched file must remain unmodified before it is
+     *         processed, in milliseconds.
+     */
+    public int getDebounceMillis()
+    {
+        return debounceMillis;
+    }
+
     /**
      * Parses and validates the given program options.
      *
@@ -46,21 +275,193 @@ public class ProgramOptions
      */
     public static ProgramOptions parse(String[] args) throws ParseException
     {
-        if (args.length != 2) {
+        Mode mode = Mode.SINGLE;
+        int port = -1;
+        int workers = DEFAULT_WORKERS, queueCapacity = DEFAULT_QUEUE_CAPACITY, warmup = DEFAULT_WARMUP_ITERATIONS;
+        boolean fused = false, parallel = false, indexed = false, pipelined = false, metrics = false;
+        boolean minimizeParameters = false, syncWrites = true;
+        File cacheDirectory = null, mappingsFile = null;
+        int cacheSize = DEFAULT_CACHE_SIZE_MB, debounce = DEFAULT_DEBOUNCE_MILLIS, ioThreads = DEFAULT_IO_THREADS;
+        final List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; ++i) {
+            final String arg = args[i];
+            switch (arg) {
+                case "--batch":
+                    mode = selectMode(mode, Mode.BATCH);
+                    break;
+                case "--watch":
+                    mode = selectMode(mode, Mode.WATCH);
+                    break;
+                case "--debounce":
+                    debounce = parseInt(args, ++i, arg, 0);
+                    break;
+                case "--serve":
+                    mode = selectMode(mode, Mode.SERVER);
+                    port = parseInt(args, ++i, arg, 0, MAX_PORT);
+                    break;
+                case "--workers":
+                    workers = parseInt(args, ++i, arg, 1);
+                    break;
+                case "--queue":
+                    queueCapacity = parseInt(args, ++i, arg, 0);
+                    break;
+                case "--warmup":
+                    warmup = parseInt(args, ++i, arg, 0);
+                    break;
+                case "--fused":
+                    fused = true;
+                    break;
+                case "--parallel":
+                    parallel = true;
+                    break;
+                case "--indexed":
+                    indexed = true;
+                    break;
+                case "--pipelined":
+                    pipelined = true;
+                    break;
+                case "--io-threads":
+                    ioThreads = parseInt(args, ++i, arg, 1);
+                    break;
+                case "--no-sync":
+                    syncWrites = false;
+                    break;
+                case "--metrics":
+                    metrics = true;
+                    break;
+                case "--short-params":
+                    minimizeParameters = true;
+                    break;
+                case "--cache":
+                    cacheDirectory = new File(parseValue(args, ++i, arg));
+                    break;
+                case "--mappings":
+                    mappingsFile = new File(parseValue(args, ++i, arg));
+                    break;
+                case "--cache-size":
+                    cacheSize = parseInt(args, ++i, arg, 1);
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        throw new ParseException("Unknown option: " + arg);
+                    }
+                    paths.add(arg);
+                    break;
+            }
+        }
+
+        final ProgramOptions opts;
+        if (mode == Mode.SERVER) {
+            if (!paths.isEmpty()) {
+                throw new ParseException(null);
+            }
+            opts = new ProgramOptions(mode, null, null);
+        } else {
+            opts = parsePaths(mode, paths);
+        }
+
+        opts.serverPort = port;
+        opts.workerCount = workers;
+        opts.queueCapacity = queueCapacity;
+        opts.warmupIterations = warmup;
+        opts.fused = fused;
+        opts.parallel = parallel;
+        opts.indexed = indexed;
+        opts.pipelined = pipelined;
+        opts.ioThreadCount = ioThreads;
+        opts.syncWrites = syncWrites;
+        opts.metrics = metrics;
+        opts.minimizeParameters = minimizeParameters;
+        opts.cacheDirectory = cacheDirectory != null ? cacheDirectory.getAbsoluteFile() : null;
+        opts.cacheSizeMegabytes = cacheSize;
+        opts.debounceMillis = debounce;
+        opts.mappingsFile = mappingsFile != null ? mappingsFile.getAbsoluteFile() : null;
+
+        return opts;
+    }
+
+    private static ProgramOptions parsePaths(Mode mode, List<String> paths) throws ParseException
+    {
+        if (paths.size() != 2) {
             throw new ParseException(null);
         }
 
-        File in = new File(args[0]);
+        final boolean stdIn = paths.get(0).equals(STANDARD_STREAM);
+        final boolean stdOut = paths.get(1).equals(STANDARD_STREAM);
+        if (stdIn || stdOut) {
+            if (mode != Mode.SINGLE || stdIn != stdOut) {
+                throw new ParseException("Standard streams must be used for both input and output.");
+            }
+            return new ProgramOptions(Mode.STREAM, null, null);
+        }
+
+        File in = new File(paths.get(0));
+        File out = new File(paths.get(1));
+
+        if (mode == Mode.BATCH || mode == Mode.WATCH) {
+            if (!in.isDirectory()) {
+                throw new ParseException("The given input path does not denote a directory.");
+            }
+            if (out.isFile()) {
+                throw new ParseException("The given output path denotes a file.");
+            }
+            if (mode == Mode.WATCH && out.getAbsoluteFile().toPath().normalize()
+                    .startsWith(in.getAbsoluteFile().toPath().normalize())) {
+                throw new ParseException("The output directory must not be inside the watched directory.");
+            }
+            return new ProgramOptions(mode, in, out);
+        }
+
         if (!in.isFile()) {
             throw new ParseException("The given input path does not denote a file.");
         }
-
-        File out = new File(args[1]);
         if (out.isDirectory()) {
             throw new ParseException("The given output path denotes a directory.");
         }
 
-        return new ProgramOptions(in, out);
+        return new ProgramOptions(mode, in, out);
+    }
+
+    private static Mode selectMode(Mode current, Mode selected) throws ParseException
+    {
+        if (current != Mode.SINGLE && current != selected) {
+            throw new ParseException("Only one processing mode may be selected.");
+        }
+        return selected;
+    }
+
+    private static String parseValue(String[] args, int index, String option) throws ParseException
+    {
+        if (index >= args.length) {
+            throw new ParseException("Missing value for option: " + option);
+        }
+        return args[index];
+    }
+
+    private static int parseInt(String[] args, int index, String option, int min) throws ParseException
+    {
+        return parseInt(args, index, option, min, Integer.MAX_VALUE);
+    }
+
+    private static int parseInt(String[] args, int index, String option, int min, int max) throws ParseException
+    {
+        final String arg = parseValue(args, index, option);
+
+        final int value;
+        try {
+            value = Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid number for option " + option + ": " + arg);
+        }
+        if (value < min) {
+            throw new ParseException("Value for option " + option + " must be at least " + min + ".");
+        }
+        if (value > max) {
+            throw new ParseException("Value for option " + option + " must be at most " + max + ".");
+        }
+
+        return value;
     }
 
     /**
@@ -1,38 +1,82 @@
 package scratchobfuscator;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import scratchlib.project.ScratchProject;
 import scratchlib.reader.ScratchReader;
 import scratchlib.writer.ScratchWriter;
+import scratchobfuscator.cache.ResultCache;
+import scratchobfuscator.io.ByteBufferInputStream;
+import scratchobfuscator.io.CountingInputStream;
+import scratchobfuscator.io.CountingOutputStream;
+import scratchobfuscator.io.ProjectFiles;
+import scratchobfuscator.io.ReusableByteArrayOutputStream;
+import scratchobfuscator.manipulators.Manipulation;
+import scratchobfuscator.manipulators.ProjectIndex;
+import scratchobfuscator.mappings.ObfuscationMappings;
+import scratchobfuscator.metrics.ObfuscationMetrics;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
 import scratchobfuscator.modules.CleanInfoModule;
 import scratchobfuscator.modules.GlobalVariablesModule;
+import scratchobfuscator.modules.InternStringsModule;
 import scratchobfuscator.modules.Module;
 import scratchobfuscator.modules.RelabelCustomBlocksModule;
 
 
 /**
  * Performs obfuscation of {@link ScratchProject} instances by running a series
- * of modules. Can also operate on files directly.
+ * of modules. Can also operate on files, streams, or in-memory buffers
+ * directly.
+ *
+ * <p>
+ * Instances are thread-safe: any number of projects may be processed
+ * concurrently through one instance, provided that its modules honor the
+ * contract of {@link Module}, as the default modules do. This includes shared
+ * {@link #setMappings(ObfuscationMappings) mappings}, whose new replacements
+ * are assigned atomically. The module list is fixed at construction.
+ * Configuration changes take effect for projects whose processing starts
+ * afterwards. To process projects asynchronously on a bounded pool of
+ * threads, see {@link AsyncObfuscator}.
  *
  * @see Module
  */
 public class ScratchObfuscator
 {
-    private final List<Module> modules = new ArrayList<>();
+    private static final int OUTPUT_BUFFER_CAPACITY = 64 * 1024;
+    private static final int OUTPUT_BUFFER_MAX_POOLED_CAPACITY = 16 * 1024 * 1024;
+
+    /**
+     * Per-thread serialization buffers for file output, so that batch workers
+     * do not allocate (and grow) a new buffer for every project.
+     */
+    private static final ThreadLocal<ReusableByteArrayOutputStream> OUTPUT_BUFFERS = ThreadLocal
+            .withInitial(() -> new ReusableByteArrayOutputStream(OUTPUT_BUFFER_CAPACITY));
+
+    private final List<Module> modules;
+    private volatile boolean fused = false;
+    private volatile boolean parallel = false;
+    private volatile boolean indexed = false;
+    private volatile boolean syncWrites = true;
+    private volatile ObfuscationMetrics metrics = ObfuscationMetrics.DISABLED;
+    private volatile ResultCache cache;
+    private volatile ObfuscationMappings mappings;
 
     /**
      * Construct a new obfuscator with the default set of modules.
      */
     public ScratchObfuscator()
     {
-        modules.add(new CleanInfoModule());
-        modules.add(new RelabelCustomBlocksModule());
-        modules.add(new GlobalVariablesModule());
+        this(createDefaultModules(false));
     }
 
     /**
@@ -42,27 +86,374 @@ public class ScratchObfuscator
      */
     public ScratchObfuscator(Collection<? extends Module> modules)
     {
-        this.modules.addAll(modules);
+        this.modules = Collections.unmodifiableList(new ArrayList<>(modules));
+    }
+
+    /**
+     * Creates a new instance of each of the default modules, in the order they
+     * are run.
+     *
+     * @param minimizeParameters Whether custom block parameters should be
+     *            renamed to the shortest unique names.
+     * @return The list of default modules.
+     *
+     * @see RelabelCustomBlocksModule#RelabelCustomBlocksModule(boolean)
+     */
+    public static List<Module> createDefaultModules(boolean minimizeParameters)
+    {
+        final List<Module> modules = new ArrayList<>();
+        modules.add(new CleanInfoModule());
+        modules.add(new RelabelCustomBlocksModule(minimizeParameters));
+        modules.add(new GlobalVariablesModule());
+        modules.add(new InternStringsModule());
+        return modules;
+    }
+
+    /**
+     * @return Whether the script rewrites of all modules share one traversal.
+     */
+    public boolean isFused()
+    {
+        return fused;
+    }
+
+    /**
+     * Sets whether the script rewrites of all modules should share a single
+     * traversal of the project, instead of each module traversing it on its
+     * own. Every module still analyzes the project before any of the fused
+     * rewrites are applied, so this is only suitable for module sets whose
+     * rewrites are independent of one another (as is the case for the default
+     * modules).
+     *
+     * @param fused Whether to fuse the module traversals.
+     *
+     * @see Module#register(ScratchProject, Manipulation)
+     */
+    public void setFused(boolean fused)
+    {
+        this.fused = fused;
+    }
+
+    /**
+     * @return Whether the sprites of a project are rewritten in parallel.
+     */
+    public boolean isParallel()
+    {
+        return parallel;
+    }
+
+    /**
+     * Sets whether the rewrite traversals should process the stage and each
+     * sprite of a project as separate tasks in the common fork-join pool. This
+     * speeds up large projects, but only pays off when projects are not
+     * already being processed concurrently (e.g. in batch mode).
+     *
+     * @param parallel Whether to rewrite sprites in parallel.
+     *
+     * @see Manipulation#runParallel()
+     */
+    public void setParallel(boolean parallel)
+    {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return Whether modules apply their rewrites through a project index.
+     */
+    public boolean isIndexed()
+    {
+        return indexed;
+    }
+
+    /**
+     * Sets whether a {@link ProjectIndex} should be built for every project in
+     * one traversal, so that modules supporting it can apply their rewrites
+     * directly at the indexed locations instead of traversing the project.
+     * Modules that do not support the index are processed as usual.
+     *
+     * @param indexed Whether to build and use a project index.
+     *
+     * @see Module#apply(ScratchProject, ProjectIndex)
+     */
+    public void setIndexed(boolean indexed)
+    {
+        this.indexed = indexed;
+    }
+
+    /**
+     * @return Whether output files are flushed to the storage device before
+     *         they replace their target.
+     */
+    public boolean isSyncWrites()
+    {
+        return syncWrites;
+    }
+
+    /**
+     * Sets whether output files should be flushed to the storage device before
+     * they replace their target (enabled by default). Disabling this saves one
+     * round trip to the device per output file, at the risk of empty outputs
+     * after a crash.
+     *
+     * @param syncWrites Whether to sync output files.
+     *
+     * @see ProjectFiles#writeAtomically(java.nio.file.Path, ByteBuffer, boolean)
+     */
+    public void setSyncWrites(boolean syncWrites)
+    {
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * @return The metrics collector that all processing is reported to
+     *         ({@link ObfuscationMetrics#DISABLED} unless set).
+     */
+    public ObfuscationMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Sets the collector that processing times and counts are reported to. The
+     * collector aggregates over all projects processed by this instance,
+     * including concurrently processed ones.
+     *
+     * @param metrics The metrics collector, or {@code null} to disable metrics.
+     */
+    public void setMetrics(ObfuscationMetrics metrics)
+    {
+        this.metrics = metrics != null ? metrics : ObfuscationMetrics.DISABLED;
+    }
+
+    /**
+     * @return The result cache, or {@code null} if results are not cached.
+     */
+    public ResultCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Sets the cache to look up and store results in. When set, every input
+     * is hashed together with {@link #getFingerprint()} first, and on a hit,
+     * the cached result is returned without decoding anything.
+     *
+     * <p>
+     * Storing results is best effort: if the cache cannot be written, the
+     * result is still returned normally. The cache is not used while mappings
+     * are set, since those need to be updated by every run.
+     *
+     * @param cache The result cache, or {@code null} to disable caching.
+     */
+    public void setCache(ResultCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * @return The mappings given to the modules, or {@code null} if none.
+     */
+    public ObfuscationMappings getMappings()
+    {
+        return mappings;
+    }
+
+    /**
+     * Gives the given mappings to all modules, so that previously assigned
+     * replacement names are reused and new ones are recorded. Save the
+     * mappings after processing to keep names stable across project revisions.
+     *
+     * @param mappings The mappings, or {@code null} to assign all names from
+     *            scratch.
+     *
+     * @see Module#setMappings(ObfuscationMappings)
+     */
+    public void setMappings(ObfuscationMappings mappings)
+    {
+        this.mappings = mappings;
+        modules.forEach(m -> m.setMappings(mappings));
+    }
+
+    /**
+     * Describes the configured modules, such that two obfuscators with equal
+     * fingerprints produce equal results for equal input. Options that do not
+     * affect the result (fused or parallel traversal, metrics) are not
+     * included. Neither are the mappings, since the cache is not used while
+     * they are set.
+     *
+     * @return The configuration fingerprint.
+     *
+     * @see Module#getFingerprint()
+     */
+    public String getFingerprint()
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (Module m : modules) {
+            sb.append(m.getFingerprint()).append(';');
+        }
+        return sb.toString();
     }
 
     /**
      * Loads the given {@code in} file, processes the project, and writes it to
      * the {@code out} file.
      *
+     * <p>
+     * The input is read in bulk (memory-mapped, if large). The output is
+     * serialized into memory first and then written with a single write to a
+     * temporary file, which atomically replaces {@code out} once complete. If
+     * processing fails, {@code out} is not modified. Cached results are copied
+     * without being decoded.
+     *
      * @param in The input file.
      * @param out The output file.
      *
      * @throws IOException If an I/O error occurs.
+     *
+     * @see ProjectFiles
      */
     public void process(File in, File out) throws IOException
     {
+        final ObfuscationMetrics metrics = this.metrics;
+
+        long start = System.nanoTime();
+        final ByteBuffer input = ProjectFiles.read(in.toPath());
+        metrics.add(Counter.BYTES_READ, input.remaining());
+
+        final ResultCache cache = getEffectiveCache();
+        final String cacheKey = cache != null ? ResultCache.key(input, getFingerprint()) : null;
+        if (cacheKey != null) {
+            final byte[] cached = lookUp(cache, cacheKey);
+            if (cached != null) {
+                metrics.add(Counter.BYTES_WRITTEN, cached.length);
+                ProjectFiles.writeAtomically(out.toPath(), ByteBuffer.wrap(cached), syncWrites);
+                metrics.recordTime(ObfuscationMetrics.PHASE_CACHE_HIT, System.nanoTime() - start);
+                return;
+            }
+        }
+
+        final ScratchReader reader = new ScratchReader();
+        final ScratchProject project = reader.read(new ByteBufferInputStream(input));
+        metrics.recordTime(ObfuscationMetrics.PHASE_READ, System.nanoTime() - start);
+
+        process(project);
+
+        start = System.nanoTime();
+        final ReusableByteArrayOutputStream buffer = OUTPUT_BUFFERS.get();
+        buffer.reset();
+        try {
+            final ScratchWriter writer = new ScratchWriter(buffer);
+            writer.write(project);
+            metrics.add(Counter.BYTES_WRITTEN, buffer.size());
+            ProjectFiles.writeAtomically(out.toPath(), buffer.asByteBuffer(), syncWrites);
+            if (cacheKey != null) {
+                store(cache, cacheKey, buffer.asByteBuffer());
+            }
+        } finally {
+            if (buffer.capacity() > OUTPUT_BUFFER_MAX_POOLED_CAPACITY) {
+                // don't hold on to memory needed for exceptionally large projects
+                OUTPUT_BUFFERS.remove();
+            }
+        }
+        metrics.recordTime(ObfuscationMetrics.PHASE_WRITE, System.nanoTime() - start);
+    }
+
+    /**
+     * Reads a project from the given input stream, processes it, and writes it
+     * to the given output stream. Neither stream is closed. Cached results are
+     * copied without being decoded. When a cache is set, the input is read
+     * completely before anything is written.
+     *
+     * @param in The stream to read the project from.
+     * @param out The stream to write the processed project to.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void process(InputStream in, OutputStream out) throws IOException
+    {
+        final ResultCache cache = getEffectiveCache();
+        if (cache == null) {
+            processStream(in, out);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final ByteArrayOutputStream inputBuffer = new ByteArrayOutputStream();
+        copy(in, inputBuffer);
+        final byte[] input = inputBuffer.toByteArray();
+
+        final String cacheKey = ResultCache.key(ByteBuffer.wrap(input), getFingerprint());
+        final byte[] cached = lookUp(cache, cacheKey);
+        if (cached != null) {
+            out.write(cached);
+            out.flush();
+            metrics.add(Counter.BYTES_READ, input.length);
+            metrics.add(Counter.BYTES_WRITTEN, cached.length);
+            metrics.recordTime(ObfuscationMetrics.PHASE_CACHE_HIT, System.nanoTime() - start);
+            return;
+        }
+
+        final ReusableByteArrayOutputStream result = new ReusableByteArrayOutputStream(input.length);
+        processStream(new ByteArrayInputStream(input), result);
+        result.writeTo(out);
+        out.flush();
+        store(cache, cacheKey, result.asByteBuffer());
+    }
+
+    private void processStream(InputStream in, OutputStream out) throws IOException
+    {
+        final ObfuscationMetrics metrics = this.metrics;
+        final CountingInputStream countingIn = new CountingInputStream(in);
+        final CountingOutputStream countingOut = new CountingOutputStream(out);
+
+        long start = System.nanoTime();
         final ScratchReader reader = new ScratchReader();
-        final ScratchProject project = reader.read(in);
+        final ScratchProject project = reader.read(countingIn);
+        metrics.recordTime(ObfuscationMetrics.PHASE_READ, System.nanoTime() - start);
+        metrics.add(Counter.BYTES_READ, countingIn.getCount());
 
         process(project);
 
-        final ScratchWriter writer = new ScratchWriter(out);
+        start = System.nanoTime();
+        final ScratchWriter writer = new ScratchWriter(countingOut);
         writer.write(project);
+        countingOut.flush();
+        metrics.recordTime(ObfuscationMetrics.PHASE_WRITE, System.nanoTime() - start);
+        metrics.add(Counter.BYTES_WRITTEN, countingOut.getCount());
+    }
+
+    /**
+     * Processes the project encoded in the given bytes and returns the encoded
+     * result.
+     *
+     * @param data The project file contents.
+     * @return The processed project file contents.
+     *
+     * @throws IOException If the data cannot be decoded.
+     */
+    public byte[] processBytes(byte[] data) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        process(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Processes the project encoded in the remaining bytes of the given buffer
+     * and returns the encoded result as a new buffer. The input buffer's
+     * position is advanced to its limit.
+     *
+     * @param data The project file contents.
+     * @return The processed project file contents.
+     *
+     * @throws IOException If the data cannot be decoded.
+     */
+    public ByteBuffer processBytes(ByteBuffer data) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.remaining());
+        process(new ByteBufferInputStream(data), out);
+        data.position(data.limit());
+        return ByteBuffer.wrap(out.toByteArray());
     }
 
     /**
@@ -72,8 +463,88 @@ public class ScratchObfuscator
      */
     public void process(ScratchProject project)
     {
-        if (project != null) {
-            modules.forEach(m -> m.process(project));
+        if (project == null) {
+            return;
+        }
+
+        final ObfuscationMetrics metrics = this.metrics;
+
+        ProjectIndex index = null;
+        if (indexed) {
+            final long start = System.nanoTime();
+            index = ProjectIndex.build(project.getStage(), metrics);
+            metrics.recordTime(ObfuscationMetrics.PHASE_INDEX, System.nanoTime() - start);
+        }
+
+        if (fused) {
+            final Manipulation manipulation = new Manipulation(project.getStage()).withMetrics(metrics);
+            for (Module m : modules) {
+                final long start = System.nanoTime();
+                if (index == null || !m.apply(project, index)) {
+                    m.register(project, manipulation);
+                }
+                metrics.recordTime(getPhaseName(m), System.nanoTime() - start);
+            }
+            final long start = System.nanoTime();
+            run(manipulation);
+            metrics.recordTime(ObfuscationMetrics.PHASE_TRAVERSAL, System.nanoTime() - start);
+        } else {
+            for (Module m : modules) {
+                final long start = System.nanoTime();
+                if (index == null || !m.apply(project, index)) {
+                    final Manipulation manipulation = new Manipulation(project.getStage()).withMetrics(metrics);
+                    m.register(project, manipulation);
+                    run(manipulation);
+                }
+                metrics.recordTime(getPhaseName(m), System.nanoTime() - start);
+            }
+        }
+
+        metrics.increment(Counter.PROJECTS_PROCESSED);
+    }
+
+    private ResultCache getEffectiveCache()
+    {
+        // a cache hit would skip recording new replacements in the mappings
+        return mappings == null ? cache : null;
+    }
+
+    private byte[] lookUp(ResultCache cache, String key) throws IOException
+    {
+        final byte[] cached = cache.get(key);
+        metrics.increment(cached != null ? Counter.CACHE_HITS : Counter.CACHE_MISSES);
+        return cached;
+    }
+
+    private static void store(ResultCache cache, String key, ByteBuffer result)
+    {
+        try {
+            cache.put(key, result);
+        } catch (IOException e) {
+            // caching is best effort, the result itself is fine
         }
     }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException
+    {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private void run(Manipulation manipulation)
+    {
+        if (parallel) {
+            manipulation.runParallel();
+        } else {
+            manipulation.run();
+        }
+    }
+
+    private static String getPhaseName(Module module)
+    {
+        return ObfuscationMetrics.PHASE_MODULE_PREFIX + module.getClass().getSimpleName();
+    }
 }
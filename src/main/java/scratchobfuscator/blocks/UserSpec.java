@@ -1,25 +1,45 @@
 package scratchobfuscator.blocks;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.stream.Collectors;
 
 
 /**
  * Represents a part-wise assembly of a custom block's user spec string. This
- * facilitates changing labels and parameters. Further, the {@link #toString()}
- * method allows instances to be converted back to valid specs.
+ * facilitates inspecting labels and parameters. Further, the
+ * {@link #toString()} method allows instances to be converted back to valid
+ * specs.
+ *
+ * <p>
+ * Instances are immutable: the part texts are kept in a plain array, and which
+ * parts are parameters is kept in a bit set. New specs, including modified
+ * copies of existing ones, are assembled through a {@link Builder}. The string
+ * form and the similarity hash are computed at most once per instance.
  */
-public class UserSpec
+public final class UserSpec
 {
-    private final List<Part> parts = new ArrayList<>();
+    private final String[] texts;
+    private final BitSet parameters;
+    private final int similarityHash;
+
+    private String string;
+    private String similarityKey;
+
+    private UserSpec(String[] texts, BitSet parameters)
+    {
+        this.texts = texts;
+        this.parameters = parameters;
+        this.similarityHash = computeSimilarityHash(texts, parameters);
+    }
 
     /**
      * @return The number of parts (labels and parameters).
      */
     public int getPartCount()
     {
-        return parts.size();
+        return texts.length;
     }
 
     /**
@@ -28,7 +48,8 @@ public class UserSpec
      */
     public boolean isParameter(int index)
     {
-        return parts.get(index).isParam;
+        checkIndex(index, texts.length);
+        return parameters.get(index);
     }
 
     /**
@@ -37,51 +58,55 @@ public class UserSpec
      */
     public String getText(int index)
     {
-        return parts.get(index).text;
-    }
-
-    /**
-     * Updates the part's textual value (label string if the part is a label, or
-     * parameter name if it is a parameter).
-     *
-     * @param index The part index.
-     * @param text The new text value.
-     */
-    public void setText(int index, String text)
-    {
-        final Part p = parts.get(index);
-        parts.set(index, new Part(p.isParam, text));
+        return texts[index];
     }
 
     /**
-     * Adds a label part to the end of this spec.
+     * Creates a builder that starts out with all parts of this spec.
      *
-     * @param text The label string.
+     * @return A new builder.
      */
-    public void addLabel(String text)
+    public Builder toBuilder()
     {
-        parts.add(new Part(false, text));
+        return new Builder(this);
     }
 
     /**
-     * Adds a parameter part to the end of this spec.
-     *
-     * @param text The parameter name.
-     */
-    public void addParameter(String text)
-    {
-        parts.add(new Part(true, text));
-    }
-
-    /**
-     * Returns the user spec converted to its string form.
+     * Returns the user spec converted to its string form. The result is
+     * computed only once.
      *
      * @return The user spec, as a string.
      */
     @Override
     public String toString()
     {
-        return parts.stream().map(Part::toString).collect(Collectors.joining(" "));
+        String s = string;
+        if (s == null) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < texts.length; ++i) {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                appendPart(sb, parameters.get(i), texts[i]);
+            }
+            string = s = sb.toString();
+        }
+        return s;
+    }
+
+    private static void appendPart(StringBuilder sb, boolean isParam, String text)
+    {
+        final boolean quote = text.indexOf(' ') >= 0 || text.indexOf('"') >= 0;
+        if (quote) {
+            sb.append('"');
+        }
+        if (isParam) {
+            sb.append('%');
+        }
+        sb.append(text);
+        if (quote) {
+            sb.append('"');
+        }
     }
 
     /**
@@ -91,21 +116,21 @@ public class UserSpec
      *
      * <p>
      * The check is relevant since BYOB itself cannot tell apart matching specs.
+     * Specs with different {@link #getSimilarityHash() similarity hashes} are
+     * rejected without comparing any labels.
      *
      * @param other The spec to compare this with.
      * @return Whether the two specs are "similar".
      */
     public boolean isSimilar(UserSpec other)
     {
-        if (other == null || getPartCount() != other.getPartCount()) {
+        if (other == null || texts.length != other.texts.length || similarityHash != other.similarityHash
+                || !parameters.equals(other.parameters)) {
             return false;
         }
 
-        for (int i = 0, n = getPartCount(); i < n; ++i) {
-            if (isParameter(i) != other.isParameter(i)) {
-                return false;
-            }
-            if (!isParameter(i) && !getText(i).equals(other.getText(i))) {
+        for (int i = 0; i < texts.length; ++i) {
+            if (!parameters.get(i) && !texts[i].equals(other.texts[i])) {
                 return false;
             }
         }
@@ -113,25 +138,159 @@ public class UserSpec
         return true;
     }
 
-    private static class Part
+    /**
+     * Returns a hash code that is equal for {@link #isSimilar(UserSpec)
+     * similar} specs. Unlike {@link #getSimilarityKey()}, it does not identify
+     * the similarity class uniquely.
+     *
+     * @return The similarity hash.
+     */
+    public int getSimilarityHash()
+    {
+        return similarityHash;
+    }
+
+    /**
+     * Computes a key that is equal for two specs if, and only if, they are
+     * {@link #isSimilar(UserSpec) similar}. This allows similarity checks to be
+     * performed through hash-based collections. The result is computed only
+     * once.
+     *
+     * @return The similarity key.
+     */
+    public String getSimilarityKey()
+    {
+        String key = similarityKey;
+        if (key == null) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < texts.length; ++i) {
+                if (parameters.get(i)) {
+                    // parameter names are irrelevant, only the position counts
+                    sb.append('%');
+                } else {
+                    // length prefix keeps the key unambiguous for arbitrary labels
+                    sb.append(texts[i].length()).append(':').append(texts[i]);
+                }
+            }
+            similarityKey = key = sb.toString();
+        }
+        return key;
+    }
+
+    private static int computeSimilarityHash(String[] texts, BitSet parameters)
+    {
+        int hash = texts.length;
+        for (int i = 0; i < texts.length; ++i) {
+            hash = 31 * hash + (parameters.get(i) ? -1 : texts[i].hashCode());
+        }
+        return hash;
+    }
+
+    private static void checkIndex(int index, int size)
     {
-        private final boolean isParam;
-        private final String text;
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
 
-        public Part(boolean isParam, String text)
+    /**
+     * Assembles {@link UserSpec} instances part by part.
+     */
+    public static class Builder
+    {
+        private final List<String> texts;
+        private final BitSet parameters;
+
+        /**
+         * Constructs a new builder without any parts.
+         */
+        public Builder()
         {
-            this.isParam = isParam;
-            this.text = text;
+            this.texts = new ArrayList<>();
+            this.parameters = new BitSet();
         }
 
-        @Override
-        public String toString()
+        private Builder(UserSpec spec)
         {
-            if (text.indexOf(' ') >= 0 || text.indexOf('"') >= 0) {
-                return '"' + (isParam ? ('%' + text) : text) + '"';
-            }
+            this.texts = new ArrayList<>(Arrays.asList(spec.texts));
+            this.parameters = (BitSet) spec.parameters.clone();
+        }
+
+        /**
+         * @return The number of parts added so far.
+         */
+        public int getPartCount()
+        {
+            return texts.size();
+        }
+
+        /**
+         * @param index The part index.
+         * @return Whether the part at the given index is a parameter.
+         */
+        public boolean isParameter(int index)
+        {
+            checkIndex(index, texts.size());
+            return parameters.get(index);
+        }
+
+        /**
+         * @param index The part index.
+         * @return The part's textual value.
+         */
+        public String getText(int index)
+        {
+            return texts.get(index);
+        }
+
+        /**
+         * Updates the part's textual value (label string if the part is a
+         * label, or parameter name if it is a parameter).
+         *
+         * @param index The part index.
+         * @param text The new text value.
+         * @return This instance, for call chaining.
+         */
+        public Builder setText(int index, String text)
+        {
+            texts.set(index, text);
+            return this;
+        }
+
+        /**
+         * Adds a label part to the end of the spec.
+         *
+         * @param text The label string.
+         * @return This instance, for call chaining.
+         */
+        public Builder addLabel(String text)
+        {
+            texts.add(text);
+            return this;
+        }
 
-            return isParam ? ('%' + text) : text;
+        /**
+         * Adds a parameter part to the end of the spec.
+         *
+         * @param text The parameter name.
+         * @return This instance, for call chaining.
+         */
+        public Builder addParameter(String text)
+        {
+            parameters.set(texts.size());
+            texts.add(text);
+            return this;
+        }
+
+        /**
+         * Creates a spec consisting of the parts added so far. The builder can
+         * be modified further without affecting the result.
+         *
+         * @return The user spec.
+         */
+        public UserSpec build()
+        {
+            return new UserSpec(texts.toArray(new String[0]), (BitSet) parameters.clone());
         }
     }
 }
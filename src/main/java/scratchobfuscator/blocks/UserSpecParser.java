@@ -7,9 +7,18 @@ import java.util.List;
 /**
  * This class can convert the textual representation of a custom block's user
  * spec into an instance of {@link UserSpec}.
+ *
+ * <p>
+ * The spec string is walked only once, using offsets. Every part is
+ * extracted with at most one substring operation, and no intermediate
+ * collections are built.
  */
 public class UserSpecParser
 {
+    private static final char SPACE = ' ';
+    private static final char QUOTE = '"';
+    private static final char PARAMETER_PREFIX = '%';
+
     private UserSpecParser()
     {
     }
@@ -23,17 +32,19 @@ public class UserSpecParser
      */
     public static UserSpec parse(String s)
     {
-        UserSpec spec = new UserSpec();
+        final UserSpec.Builder spec = new UserSpec.Builder();
 
-        for (String spl : split(s)) {
-            if (spl.startsWith("%")) {
-                spec.addParameter(spl.substring(1));
+        final Tokenizer tokenizer = new Tokenizer(s);
+        while (tokenizer.next()) {
+            final int start = tokenizer.start, end = tokenizer.end;
+            if (start < end && s.charAt(start) == PARAMETER_PREFIX) {
+                spec.addParameter(s.substring(start + 1, end));
             } else {
-                spec.addLabel(spl);
+                spec.addLabel(s.substring(start, end));
             }
         }
 
-        return spec;
+        return spec.build();
     }
 
     /**
@@ -51,45 +62,84 @@ public class UserSpecParser
     {
         List<String> parts = new ArrayList<>();
 
-        for (int i = 0, n = s.length(); i < n; ++i) {
-
-            char c = s.charAt(i);
-            if (c == ' ') {
-                continue;
-            }
-
-            if (c == '"') {
-                String quoteContents = consumeQuoted(s, i);
-                parts.add(quoteContents);
-                i += quoteContents.length() + 1;
-            } else {
-                int endIndex = s.indexOf(' ', i + 1);
-                if (endIndex < 0) {
-                    endIndex = s.length();
-                }
-                String word = s.substring(i, endIndex);
-                parts.add(word);
-                i += word.length();
-            }
-
+        final Tokenizer tokenizer = new Tokenizer(s);
+        while (tokenizer.next()) {
+            parts.add(s.substring(tokenizer.start, tokenizer.end));
         }
 
         return parts;
     }
 
-    private static String consumeQuoted(String s, int firstQuoteIndex)
+    /**
+     * Walks a spec string part by part, exposing the bounds of the current
+     * part's contents (without any enclosing quotes).
+     *
+     * <p>
+     * Parts are separated by any number of spaces. A part starting with a
+     * quote extends up to the next quote that is followed by a space or the end
+     * of the string (or up to the end of the string, if there is none).
+     */
+    private static class Tokenizer
     {
-        StringBuilder sb = new StringBuilder();
+        private final String s;
+        private final int length;
+        private int position;
 
-        for (int i = firstQuoteIndex + 1, n = s.length(); i < n; ++i) {
-            char c = s.charAt(i);
-            if (c == '"' && (i + 1 >= n || s.charAt(i + 1) == ' ')) {
-                return sb.toString();
+        /**
+         * The start offset (inclusive) of the current part's contents.
+         */
+        private int start;
+
+        /**
+         * The end offset (exclusive) of the current part's contents.
+         */
+        private int end;
+
+        private Tokenizer(String s)
+        {
+            this.s = s;
+            this.length = s.length();
+        }
+
+        /**
+         * Advances to the next part.
+         *
+         * @return Whether there was another part.
+         */
+        private boolean next()
+        {
+            while (position < length && s.charAt(position) == SPACE) {
+                ++position;
+            }
+            if (position >= length) {
+                return false;
+            }
+
+            if (s.charAt(position) == QUOTE) {
+                start = position + 1;
+                end = findClosingQuote(start);
+                // skip over the closing quote
+                position = end + 1;
             } else {
-                sb.append(c);
+                start = position;
+                end = s.indexOf(SPACE, position + 1);
+                if (end < 0) {
+                    end = length;
+                }
+                position = end;
             }
+
+            return true;
         }
 
-        return sb.toString();
+        private int findClosingQuote(int from)
+        {
+            for (int i = from; i < length; ++i) {
+                if (s.charAt(i) == QUOTE && (i + 1 >= length || s.charAt(i + 1) == SPACE)) {
+                    return i;
+                }
+            }
+            return length;
+        }
     }
 }
@@ -0,0 +1,275 @@
+package scratchobfuscator.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import scratchobfuscator.io.ProjectFiles;
+
+
+/**
+ * Content-addressed on-disk cache of obfuscation results. Entries are keyed by
+ * a hash of the input bytes together with a fingerprint of the processing
+ * configuration, and stored as one file per entry in the cache directory.
+ *
+ * <p>
+ * The total size of all entries is kept below a configurable limit by evicting
+ * the least recently used entries. Recency is persisted through the files'
+ * modification times, so it survives restarts.
+ *
+ * <p>
+ * Instances are thread-safe. Multiple instances (or processes) must not share
+ * a directory.
+ */
+public class ResultCache
+{
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int KEY_LENGTH = 64;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // key -> entry size, in access order (least recently used first)
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * Opens the cache in the given directory, creating the directory if
+     * necessary. Existing entries are picked up, and evicted right away if they
+     * exceed the size limit.
+     *
+     * @param directory The cache directory.
+     * @param maxBytes The maximum total size of all entries.
+     *
+     * @throws IOException If the directory cannot be created or listed.
+     */
+    public ResultCache(Path directory, long maxBytes) throws IOException
+    {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maximum size must not be negative");
+        }
+
+        this.directory = directory.toAbsolutePath();
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(this.directory);
+        load();
+    }
+
+    /**
+     * @return The cache directory.
+     */
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * @return The maximum total size of all entries.
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * @return The current total size of all entries.
+     */
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * @return The current number of entries.
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Computes the cache key for the given input and configuration. The
+     * buffer's position is not changed.
+     *
+     * @param input The input bytes (the buffer's remaining bytes).
+     * @param fingerprint The processing configuration's fingerprint.
+     * @return The cache key.
+     */
+    public static String key(ByteBuffer input, String fingerprint)
+    {
+        final MessageDigest digest = createDigest();
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(input.duplicate());
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Looks up the entry for the given key, marking it as recently used.
+     *
+     * @param key The cache key.
+     * @return The cached bytes, or {@code null} if not present.
+     *
+     * @throws IOException If the entry exists but cannot be read.
+     */
+    public byte[] get(String key) throws IOException
+    {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+
+        final Path file = directory.resolve(key);
+        final byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // evicted concurrently
+            synchronized (this) {
+                remove(key);
+            }
+            return null;
+        }
+
+        return data;
+    }
+
+    /**
+     * Stores the given data under the given key, then evicts least recently
+     * used entries until the size limit is met. Data larger than the limit is
+     * not stored at all.
+     *
+     * @param key The cache key.
+     * @param data The data to store (the buffer's remaining bytes).
+     *
+     * @throws IOException If the entry cannot be written.
+     */
+    public void put(String key, ByteBuffer data) throws IOException
+    {
+        final long size = data.remaining();
+        if (size > maxBytes) {
+            return;
+        }
+
+        ProjectFiles.writeAtomically(directory.resolve(key), data.duplicate());
+
+        final List<String> evicted;
+        synchronized (this) {
+            remove(key);
+            entries.put(key, size);
+            totalBytes += size;
+            evicted = evictExcess();
+        }
+        delete(evicted);
+    }
+
+    private void remove(String key)
+    {
+        final Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private void load() throws IOException
+    {
+        final List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(ResultCache::isEntry).collect(Collectors.toList());
+        }
+
+        final Map<Path, FileTime> times = new LinkedHashMap<>();
+        for (Path file : files) {
+            times.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort(Comparator.comparing(times::get));
+
+        final List<String> evicted;
+        synchronized (this) {
+            for (Path file : files) {
+                final long size = Files.size(file);
+                entries.put(file.getFileName().toString(), size);
+                totalBytes += size;
+            }
+            evicted = evictExcess();
+        }
+        delete(evicted);
+    }
+
+    /**
+     * Removes least recently used entries from the index until the size limit
+     * is met. Must be called while holding the lock.
+     *
+     * @return The keys of the removed entries, whose files are to be deleted.
+     */
+    private List<String> evictExcess()
+    {
+        final List<String> evicted = new ArrayList<>();
+        final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            final Map.Entry<String, Long> eldest = it.next();
+            totalBytes -= eldest.getValue();
+            evicted.add(eldest.getKey());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private void delete(List<String> keys) throws IOException
+    {
+        for (String key : keys) {
+            Files.deleteIfExists(directory.resolve(key));
+        }
+    }
+
+    private static boolean isEntry(Path path)
+    {
+        final String name = path.getFileName().toString();
+        if (name.length() != KEY_LENGTH || !Files.isRegularFile(path)) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            if (Character.digit(name.charAt(i), 16) < 0 || Character.isUpperCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            chars[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            chars[2 * i + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(chars);
+    }
+}
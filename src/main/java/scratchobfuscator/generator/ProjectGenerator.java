@@ -0,0 +1,363 @@
+package scratchobfuscator.generator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractCollection;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.collections.ScratchObjectDictionary;
+import scratchlib.objects.fixed.data.ScratchObjectString;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.objects.fixed.dimensions.ScratchObjectPoint;
+import scratchlib.objects.user.ScratchObjectCustomBlockDefinition;
+import scratchlib.objects.user.morphs.ScratchObjectMorph;
+import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
+import scratchlib.objects.user.morphs.ScratchObjectSpriteMorph;
+import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+import scratchlib.objects.user.morphs.ui.ScratchObjectWatcherMorph;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+import scratchlib.writer.ScratchWriter;
+
+
+/**
+ * Builder class for generating synthetic projects of configurable size, e.g.
+ * for load tests and benchmarks. Generation is deterministic: the same
+ * settings always produce the same project.
+ *
+ * <p>
+ * The generated scripts reference the generated variables and custom blocks
+ * so that every obfuscation module finds work to do. For
+ * {@link ScratchVersion#BYOB311}, all blocks use the BYOB block shape
+ * ({@code ["byob", "", selector, ...]}) and custom blocks are generated; for
+ * other versions, the plain Scratch shape is used and no custom blocks are
+ * generated.
+ */
+public class ProjectGenerator
+{
+    private ScratchVersion version = ScratchVersion.BYOB311;
+    private int spriteCount = 10;
+    private int globalVariableCount = 10;
+    private int spriteVariableCount = 0;
+    private int customBlocksPerMorph = 10;
+    private int scriptsPerMorph = 10;
+    private int blocksPerScript = 10;
+    private int nestingDepth = 0;
+    private int watcherCount = 0;
+
+    /**
+     * Sets the project version, which also determines the block shape.
+     *
+     * @param version The project version.
+     * @return This instance, for call chaining.
+     */
+    public ProjectGenerator setVersion(ScratchVersion version)
+    {
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * @param spriteCount The number of sprites (in addition to the stage).
+     * @return This instance, for call chaining.
+     */
+    public ProjectGenerator setSpriteCount(int spriteCount)
+    {
+        this.spriteCount = requireNonNegative(spriteCount);
+        return this;
+    }
+
+    /**
+     * @param globalVariableCount The number of variables defined on the stage.
+     * @return This instance, for call chaining.
+     */
+    public ProjectGenerator setGlobalVariableCount(int globalVariableCount)
+    {
+        this.globalVariableCount = requireNonNegative(globalVariableCount);
+        return this;
+    }
+
+    /**
+     * @param spriteVariableCount The number of variables defined on each
+     *            sprite.
+     * @return This instance, for call chaining.
+     */
+    public ProjectGenerator setSpriteVariableCount(int spriteVariableCount)
+    {
+        this.spriteVariableCount = requireNonNegative(spriteVariableCount);
+        return this;
+    }
+
+    /**
+     * @param customBlocksPerMorph The number of custom blocks defined on the
+     *            stage and on each sprite (BYOB only).
+     * @return This instance, for call chaining.
+     */
+    public ProjectGenerator setCustomBlocksPerMorph(int customBlocksPerMorph)
+    {
+        this.customBlocksPerMorph = requireNonNegative(customBlocksPerMorph);
+        return this;
+    }
+
+    /**
+     * @param scriptsPerMorph The number of scripts on the stage and on each
+     *            sprite.
+     * @return This instance, for call chaining.
+     */
+    public ProjectGenerator setScriptsPerMorph(int scriptsPerMorph)
+    {
+        this.scriptsPerMorph = requireNonNegative(scriptsPerMorph);
+        return this;
+    }
+
+    /**
+     * @param blocksPerScript The number of top-level blocks in each script and
+     *            in each custom block body.
+     * @return This instance, for call chaining.
+     */
+    public ProjectGenerator setBlocksPerScript(int blocksPerScript)
+    {
+        this.blocksPerScript = requireNonNegative(blocksPerScript);
+        return this;
+    }
+
+    /**
+     * Sets how deeply blocks are nested. At depth 0, every top-level block is
+     * a simple block. At depth {@code n}, every top-level block is a C-block
+     * whose body contains a block of depth {@code n - 1}.
+     *
+     * @param nestingDepth The nesting depth.
+     * @return This instance, for call chaining.
+     */
+    public ProjectGenerator setNestingDepth(int nestingDepth)
+    {
+        this.nestingDepth = requireNonNegative(nestingDepth);
+        return this;
+    }
+
+    /**
+     * @param watcherCount The number of watchers placed on the stage, each
+     *            showing one of the global variables (capped at the global
+     *            variable count).
+     * @return This instance, for call chaining.
+     */
+    public ProjectGenerator setWatcherCount(int watcherCount)
+    {
+        this.watcherCount = requireNonNegative(watcherCount);
+        return this;
+    }
+
+    /**
+     * Computes the total number of blocks (including nested ones, but not
+     * counting the script collections containing them) a project generated
+     * with the current settings will contain. This is useful for choosing
+     * settings that match a desired project size.
+     *
+     * @return The number of blocks.
+     */
+    public long getBlockCount()
+    {
+        final long morphs = 1L + spriteCount;
+        final long containers = scriptsPerMorph + (isByob() ? customBlocksPerMorph : 0);
+        return morphs * containers * blocksPerScript * (nestingDepth + 1);
+    }
+
+    /**
+     * Generates a new project with the current settings.
+     *
+     * @return The generated project.
+     */
+    public ScratchProject generate()
+    {
+        final ScratchProject project = new ScratchProject(version);
+        populateStage(project.getStage());
+        return project;
+    }
+
+    /**
+     * Generates a new project with the current settings and writes it to the
+     * given file.
+     *
+     * @param file The output file.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void write(File file) throws IOException
+    {
+        new ScratchWriter(file).write(generate());
+    }
+
+    /**
+     * Generates a new project with the current settings and writes it to the
+     * given stream. The stream is not closed.
+     *
+     * @param out The output stream.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void write(OutputStream out) throws IOException
+    {
+        new ScratchWriter(out).write(generate());
+    }
+
+    private void populateStage(ScratchObjectStageMorph stage)
+    {
+        populateMorph(stage, "stage", globalVariableCount);
+
+        for (int i = 0; i < spriteCount; ++i) {
+            final ScratchObjectSpriteMorph sprite = new ScratchObjectSpriteMorph();
+            populateMorph(sprite, "sprite" + i, spriteVariableCount);
+            stage.addSprite(sprite);
+        }
+
+        final ScratchObjectAbstractCollection submorphs = (ScratchObjectAbstractCollection) stage
+                .getField(ScratchObjectMorph.FIELD_SUBMORPHS);
+        for (int i = 0, n = Math.min(watcherCount, globalVariableCount); i < n; ++i) {
+            final ScratchObjectWatcherMorph watcher = new ScratchObjectWatcherMorph();
+            watcher.getTitleMorph().setContents(variableName("stage", i));
+            watcher.getReadoutMorph().setParameter(variableName("stage", i));
+            submorphs.add(watcher);
+        }
+    }
+
+    private void populateMorph(ScratchObjectScriptableMorph morph, String owner, int variableCount)
+    {
+        final ScratchObjectDictionary vars = new ScratchObjectDictionary();
+        for (int i = 0; i < variableCount; ++i) {
+            vars.put(new ScratchObjectUtf8(variableName(owner, i)), new ScratchObjectUtf8("value " + i));
+        }
+        morph.setField(ScratchObjectScriptableMorph.FIELD_VARS, vars);
+
+        final int customBlockCount = isByob() ? customBlocksPerMorph : 0;
+        for (int i = 0; i < customBlockCount; ++i) {
+            final String spec = customBlockSpec(owner, i);
+            final ScratchObjectCustomBlockDefinition cb = new ScratchObjectCustomBlockDefinition();
+            cb.setUserSpec(spec);
+            cb.setBody(createScript(owner, variableCount, customBlockCount, spec));
+            morph.addCustomBlock(cb);
+        }
+
+        for (int i = 0; i < scriptsPerMorph; ++i) {
+            morph.addScript(new ScratchObjectPoint(20, 20 + 40 * i),
+                    createScript(owner, variableCount, customBlockCount, null));
+        }
+    }
+
+    /**
+     * Creates a script body.
+     *
+     * @param owner The name prefix of the owning morph.
+     * @param variableCount The number of variables defined by the owner.
+     * @param customBlockCount The number of custom blocks defined by the owner.
+     * @param enclosingSpec The spec of the custom block whose body this is, or
+     *            {@code null} for regular scripts.
+     * @return The script.
+     */
+    private ScratchObjectArray createScript(String owner, int variableCount, int customBlockCount,
+            String enclosingSpec)
+    {
+        final ScratchObjectArray script = new ScratchObjectArray();
+        for (int i = 0; i < blocksPerScript; ++i) {
+            script.add(createNestedBlock(owner, variableCount, customBlockCount, enclosingSpec, i, nestingDepth));
+        }
+        return script;
+    }
+
+    private ScratchObjectArray createNestedBlock(String owner, int variableCount, int customBlockCount,
+            String enclosingSpec, int index, int depth)
+    {
+        // build inside-out, so that deep nesting does not require deep recursion
+        ScratchObjectArray block = createSimpleBlock(owner, variableCount, customBlockCount, enclosingSpec, index);
+        for (int i = 0; i < depth; ++i) {
+            final ScratchObjectArray body = new ScratchObjectArray();
+            body.add(block);
+            block = createBlock("doRepeat", new ScratchObjectUtf8("10"), body);
+        }
+        return block;
+    }
+
+    private ScratchObjectArray createSimpleBlock(String owner, int variableCount, int customBlockCount,
+            String enclosingSpec, int index)
+    {
+        final String globalName = globalVariableCount > 0 ? variableName("stage", index % globalVariableCount)
+                : null;
+        final String localName = variableCount > 0 ? variableName(owner, index % variableCount) : globalName;
+
+        switch (index % 6) {
+            case 0:
+                if (localName != null) {
+                    return createBlock("changeVariable", new ScratchObjectUtf8(localName),
+                            new ScratchObjectSymbol("setVar:to:"), new ScratchObjectUtf8("value"));
+                }
+                break;
+            case 1:
+                if (globalName != null) {
+                    return createBlock("readVariable", new ScratchObjectUtf8(globalName));
+                }
+                break;
+            case 2:
+                if (customBlockCount > 0) {
+                    return createBlock("doCustomBlock",
+                            new ScratchObjectUtf8(customBlockSpec(owner, index % customBlockCount)),
+                            new ScratchObjectUtf8("argument"));
+                }
+                break;
+            case 3:
+                if (enclosingSpec != null) {
+                    return createBlock("readBlockVariable", new ScratchObjectUtf8("param"),
+                            new ScratchObjectUtf8(enclosingSpec));
+                }
+                break;
+            case 4:
+                if (globalName != null) {
+                    return createBlock(index % 2 == 0 ? "showVariable:" : "hideVariable:",
+                            new ScratchObjectUtf8(globalName));
+                }
+                break;
+            default:
+                break;
+        }
+
+        return createBlock("say:", new ScratchObjectString("hello"));
+    }
+
+    private ScratchObjectArray createBlock(String selector, ScratchObject... args)
+    {
+        final ScratchObjectArray block = new ScratchObjectArray();
+        if (isByob()) {
+            block.add(new ScratchObjectSymbol("byob"));
+            block.add(new ScratchObjectString(""));
+        }
+        block.add(new ScratchObjectSymbol(selector));
+        for (ScratchObject arg : args) {
+            block.add(arg);
+        }
+        return block;
+    }
+
+    private boolean isByob()
+    {
+        return version == ScratchVersion.BYOB311;
+    }
+
+    private static String variableName(String owner, int index)
+    {
+        return owner + " variable " + index;
+    }
+
+    private static String customBlockSpec(String owner, int index)
+    {
+        return owner + " block " + index + " with %param";
+    }
+
+    private static int requireNonNegative(int value)
+    {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,60 @@
+package scratchobfuscator.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Input stream reading the remaining bytes of a {@link ByteBuffer}. Works for
+ * heap, direct and memory-mapped buffers alike, without copying the buffer
+ * contents up front. Reading advances the buffer's position.
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer The buffer to read from.
+     */
+    public ByteBufferInputStream(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        final int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n)
+    {
+        if (n <= 0) {
+            return 0;
+        }
+        final int skipped = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+}
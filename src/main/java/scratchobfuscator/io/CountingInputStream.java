@@ -0,0 +1,65 @@
+package scratchobfuscator.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Input stream wrapper that counts the number of bytes read through it.
+ */
+public class CountingInputStream extends FilterInputStream
+{
+    private long count;
+
+    /**
+     * @param in The stream to wrap.
+     */
+    public CountingInputStream(InputStream in)
+    {
+        super(in);
+    }
+
+    /**
+     * @return The number of bytes read (or skipped) so far.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        final int b = super.read();
+        if (b >= 0) {
+            ++count;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        final int n = super.read(b, off, len);
+        if (n > 0) {
+            count += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        final long skipped = super.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        // marking would make the count inaccurate
+        return false;
+    }
+}
@@ -0,0 +1,44 @@
+package scratchobfuscator.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Output stream wrapper that counts the number of bytes written through it.
+ */
+public class CountingOutputStream extends FilterOutputStream
+{
+    private long count;
+
+    /**
+     * @param out The stream to wrap.
+     */
+    public CountingOutputStream(OutputStream out)
+    {
+        super(out);
+    }
+
+    /**
+     * @return The number of bytes written so far.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        out.write(b);
+        ++count;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        out.write(b, off, len);
+        count += len;
+    }
+}
@@ -0,0 +1,165 @@
+package scratchobfuscator.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+
+/**
+ * Bulk file I/O through {@link FileChannel}: files are read in one piece
+ * (memory-mapped, if large) and written with a single channel write to a
+ * temporary file that is then atomically moved into place. Readers therefore
+ * never observe a half-written output file, even after a crash.
+ */
+public final class ProjectFiles
+{
+    /**
+     * The minimum file size for which the input is memory-mapped instead of
+     * read into a heap buffer.
+     */
+    public static final long MAP_THRESHOLD = 1 << 20;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * The permissions of newly created files ({@code rw-r--r--}), as with the
+     * common umask of {@code 022}. Temporary files would otherwise be readable
+     * by their owner only.
+     */
+    private static final Set<PosixFilePermission> DEFAULT_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    private ProjectFiles()
+    {
+    }
+
+    /**
+     * Reads the given file completely. Files of at least
+     * {@link #MAP_THRESHOLD} bytes are memory-mapped read-only; smaller files
+     * are read into a heap buffer with as few reads as possible.
+     *
+     * @param path The file to read.
+     * @return A buffer whose remaining bytes are the file contents.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    public static ByteBuffer read(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file too large: " + path);
+            }
+            if (size >= MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    // file was truncated while reading
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer to the given file,
+     * replacing it atomically and durably. This is equivalent to
+     * {@code writeAtomically(path, data, true)}.
+     *
+     * @param path The file to write.
+     * @param data The data to write.
+     *
+     * @throws IOException If the file cannot be written.
+     *
+     * @see #writeAtomically(Path, ByteBuffer, boolean)
+     */
+    public static void writeAtomically(Path path, ByteBuffer data) throws IOException
+    {
+        writeAtomically(path, data, true);
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer to the given file,
+     * replacing it atomically: the data is written to a temporary file in the
+     * same directory, optionally flushed to the storage device, and then moved
+     * onto the target path. If anything fails, the target is left untouched.
+     *
+     * <p>
+     * On POSIX file systems, the result keeps the permissions of the file it
+     * replaces. New files are created as {@code rw-r--r--}.
+     *
+     * <p>
+     * Without syncing, the write is still atomic for concurrent readers, but
+     * after a crash the file may be left empty. Skipping the sync saves one
+     * round trip to the storage device per file.
+     *
+     * <p>
+     * If the file system does not support atomic moves, a plain replacing move
+     * is performed instead.
+     *
+     * @param path The file to write.
+     * @param data The data to write.
+     * @param sync Whether to flush the data to the storage device before the
+     *            file is moved into place.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    public static void writeAtomically(Path path, ByteBuffer data, boolean sync) throws IOException
+    {
+        final Path target = path.toAbsolutePath();
+        final Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), TEMP_SUFFIX);
+
+        boolean moved = false;
+        try {
+            copyPermissions(target, temp);
+
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                if (sync) {
+                    channel.force(false);
+                }
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private static void copyPermissions(Path target, Path temp) throws IOException
+    {
+        Set<PosixFilePermission> permissions;
+        try {
+            permissions = Files.getPosixFilePermissions(target);
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system; the defaults apply
+            return;
+        } catch (IOException e) {
+            // most likely, the target does not exist yet
+            permissions = DEFAULT_PERMISSIONS;
+        }
+        Files.setPosixFilePermissions(temp, permissions);
+    }
+}
@@ -0,0 +1,41 @@
+package scratchobfuscator.io;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Byte array output stream whose contents can be accessed without copying,
+ * so that one instance can serve as a reusable serialization buffer.
+ */
+public class ReusableByteArrayOutputStream extends ByteArrayOutputStream
+{
+    /**
+     * Constructs a new stream with the given initial capacity.
+     *
+     * @param capacity The initial capacity.
+     */
+    public ReusableByteArrayOutputStream(int capacity)
+    {
+        super(capacity);
+    }
+
+    /**
+     * Returns a buffer view of the bytes written so far. The view shares the
+     * internal array, so it is only valid until the next write or reset.
+     *
+     * @return The written bytes, from position 0 up to the limit.
+     */
+    public ByteBuffer asByteBuffer()
+    {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    /**
+     * @return The size of the internal array.
+     */
+    public int capacity()
+    {
+        return buf.length;
+    }
+}
@@ -8,6 +8,11 @@ import scratchlib.objects.fixed.data.ScratchObjectSymbol;
 
 /**
  * Convenience mapper around block collections that is Scratch/BYOB agnostic.
+ *
+ * <p>
+ * A view can be re-targeted to a different block via {@link #retarget(
+ * ScratchObjectAbstractCollection)}, which allows a single instance to be
+ * reused as a cursor while traversing many blocks.
  */
 public class BlockView
 {
@@ -16,8 +21,29 @@ public class BlockView
      */
     private static final int BYOB_ARRAY_OFFSET = 2;
 
-    private final ScratchObjectAbstractCollection block;
-    private final boolean isByob;
+    /**
+     * The symbol value marking BYOB-specific blocks.
+     */
+    private static final String BYOB_MARKER = "byob";
+
+    private ScratchObjectAbstractCollection block;
+    private boolean isByob;
+
+    /**
+     * The last object found to be a BYOB marker. Symbols are unique in Squeak,
+     * so the blocks of a project read from a file all reference the same
+     * marker object, and a re-targeted view recognizes it by identity instead
+     * of comparing strings for every block.
+     */
+    private ScratchObject byobMarker;
+
+    /**
+     * Constructs a new view that is not yet targeted at any block. It must be
+     * {@link #retarget(ScratchObjectAbstractCollection) retargeted} before use.
+     */
+    BlockView()
+    {
+    }
 
     /**
      * Constructs a new view of the given block.
@@ -30,10 +56,53 @@ public class BlockView
         this.isByob = checkIsByob(block);
     }
 
-    private static boolean checkIsByob(ScratchObjectAbstractCollection block)
+    /**
+     * Changes the block this view operates on.
+     *
+     * @param block The new block.
+     * @return This instance, for call chaining.
+     */
+    public BlockView retarget(ScratchObjectAbstractCollection block)
+    {
+        this.block = block;
+        this.isByob = checkIsByob(block);
+        return this;
+    }
+
+    private boolean checkIsByob(ScratchObjectAbstractCollection block)
     {
+        if (block.size() == 0) {
+            return false;
+        }
         ScratchObject first = block.get(0);
-        return first instanceof ScratchObjectSymbol && ((ScratchObjectSymbol) first).getValue().equals("byob");
+        if (first == byobMarker) {
+            return true;
+        }
+        if (first instanceof ScratchObjectSymbol && BYOB_MARKER.equals(((ScratchObjectSymbol) first).getValue())) {
+            byobMarker = first;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The block collection this view currently operates on.
+     */
+    ScratchObjectAbstractCollection getBlock()
+    {
+        return block;
+    }
+
+    /**
+     * Converts an index as used by {@link #get(int)} into the corresponding
+     * index into the underlying block collection.
+     *
+     * @param index The view index.
+     * @return The collection index.
+     */
+    int toCollectionIndex(int index)
+    {
+        return isByob ? index + BYOB_ARRAY_OFFSET : index;
     }
 
     /**
@@ -47,7 +116,7 @@ public class BlockView
     public ScratchObject get(int index)
     {
         // skip over "byob" string and morph name string
-        return block.get(isByob ? index + BYOB_ARRAY_OFFSET : index);
+        return block.get(toCollectionIndex(index));
     }
 
     /**
@@ -59,7 +128,7 @@ public class BlockView
      */
     public void set(int index, ScratchObject value)
     {
-        block.set(isByob ? index + BYOB_ARRAY_OFFSET : index, value);
+        block.set(toCollectionIndex(index), value);
     }
 
     /**
@@ -71,6 +140,22 @@ public class BlockView
         return isByob ? s - BYOB_ARRAY_OFFSET : s;
     }
 
+    /**
+     * Obtains the block's selector, i.e. the string value of the element at
+     * index 0 (with BYOB elements ignored).
+     *
+     * @return The selector, or {@code null} if the block is empty or its first
+     *         element is not a string.
+     */
+    public String getSelector()
+    {
+        if (size() <= 0) {
+            return null;
+        }
+        ScratchObject obj = get(0);
+        return obj instanceof ScratchObjectAbstractString ? ((ScratchObjectAbstractString) obj).getValue() : null;
+    }
+
     /**
      * Convenience method for checking whether the element obtained through
      * {@link #get(int)} is a string and has a string value equal to the given
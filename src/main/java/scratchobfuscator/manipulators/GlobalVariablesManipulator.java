@@ -1,9 +1,13 @@
 package scratchobfuscator.manipulators;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import scratchlib.objects.ScratchObject;
 import scratchlib.objects.fixed.collections.ScratchObjectAbstractDictionary;
@@ -13,6 +17,9 @@ import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
 import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
 import scratchlib.objects.user.morphs.ui.ScratchObjectStringMorph;
 import scratchlib.objects.user.morphs.ui.ScratchObjectUpdatingStringMorph;
+import scratchlib.objects.user.morphs.ui.ScratchObjectWatcherMorph;
+import scratchobfuscator.metrics.ObfuscationMetrics;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
 
 
 /**
@@ -21,6 +28,11 @@ import scratchlib.objects.user.morphs.ui.ScratchObjectUpdatingStringMorph;
  */
 public class GlobalVariablesManipulator
 {
+    private static final String SELECTOR_READ = "readVariable";
+    private static final String SELECTOR_CHANGE = "changeVariable";
+    private static final String SELECTOR_SHOW = "showVariable:";
+    private static final String SELECTOR_HIDE = "hideVariable:";
+
     private GlobalVariablesManipulator()
     {
     }
@@ -38,145 +50,155 @@ public class GlobalVariablesManipulator
      */
     public static void replaceAll(ScratchObjectStageMorph stage, Map<String, String> nameMap)
     {
-        new Manipulation(stage).forEachMorph(morph -> {
-
-            final ScratchObjectAbstractDictionary vars = (ScratchObjectAbstractDictionary) (morph
-                    .getField(ScratchObjectScriptableMorph.FIELD_VARS));
-
-            final Map<ScratchObject, ScratchObject> newEntries = new LinkedHashMap<>();
-
-            // iterate over entries, replace if possible
-            final Iterator<Entry<ScratchObject, ScratchObject>> entryIterator = vars.entrySet().iterator();
-            while (entryIterator.hasNext()) {
-
-                final Entry<ScratchObject, ScratchObject> varEntry = entryIterator.next();
-
-                final String oldName = ((ScratchObjectAbstractString) varEntry.getKey()).getValue();
-                if (nameMap.containsKey(oldName)) {
-                    newEntries.put(new ScratchObjectUtf8(nameMap.get(oldName)), varEntry.getValue());
-                    entryIterator.remove();
-                }
-
-            }
-
-            newEntries.forEach(vars::put);
-
-        }).forEachBlock(block -> {
+        register(new Manipulation(stage), nameMap).run();
+    }
 
-            // block is global variable usage?
-            if (isGlobalVariableBlock(block)) {
-                // replace accessed name
-                String invoked = getGlobalVariableBlockName(block);
-                if (nameMap.containsKey(invoked)) {
-                    setGlobalVariableBlockName(block, nameMap.get(invoked));
-                }
-                return;
-            }
+    /**
+     * Binds the consumers necessary for replacing the names in the given map to
+     * the given manipulation, without running it. This allows the replacement
+     * to share a single traversal with other manipulators.
+     *
+     * <p>
+     * Every replaced occurrence is counted as
+     * {@link Counter#NAMES_REPLACED} in the manipulation's metrics.
+     *
+     * @param manipulation The manipulation to bind to.
+     * @param nameMap The replacement map.
+     * @return The manipulation, for call chaining.
+     *
+     * @see #replaceAll(ScratchObjectStageMorph, Map)
+     */
+    public static Manipulation register(Manipulation manipulation, Map<String, String> nameMap)
+    {
+        final Map<String, ScratchObjectUtf8> nameObjects = StringObjects.canonicalize(nameMap);
 
-            // block is global variable setter?
-            if (isVariableChangeBlock(block)) {
-                // replace accessed name
-                String invoked = getVariableChangeBlockName(block);
-                if (nameMap.containsKey(invoked)) {
-                    setVariableChangeBlockName(block, nameMap.get(invoked));
-                }
+        // accessors, setters and show/hide blocks all hold the name at index 1
+        final Consumer<BlockView> replaceName = block -> {
+            if (!isVariableBlock(block)) {
                 return;
             }
-
-            // block is global variable setter?
-            if (isVariableShowHideBlock(block)) {
-                // replace accessed name
-                String invoked = getVariableShowHideBlockName(block);
-                if (nameMap.containsKey(invoked)) {
-                    setVariableShowHideBlockName(block, nameMap.get(invoked));
-                }
-                return;
+            final ScratchObjectUtf8 newName = nameObjects.get(getVariableBlockName(block));
+            if (newName != null) {
+                setVariableBlockName(block, newName);
+                manipulation.getMetrics().increment(Counter.NAMES_REPLACED);
             }
+        };
+        manipulation.onSelector(SELECTOR_READ, replaceName).onSelector(SELECTOR_CHANGE, replaceName)
+                .onSelector(SELECTOR_SHOW, replaceName).onSelector(SELECTOR_HIDE, replaceName);
 
-        }).forEachWatcher(watcher -> {
-
-            // update title morph
-
-            final ScratchObjectStringMorph titleMorph = watcher.getTitleMorph();
-            final String title = titleMorph.getContents();
-            if (nameMap.containsKey(title)) {
-                titleMorph.setContents(nameMap.get(title));
-            }
-
-            // update readout string morph
-
-            final ScratchObjectUpdatingStringMorph readoutMorph = watcher.getReadoutMorph();
-            final String parameter = readoutMorph.getParameter();
-            if (nameMap.containsKey(parameter)) {
-                readoutMorph.setParameter(nameMap.get(parameter));
-            }
-
-        }).run();
+        return manipulation.forEachMorph(morph -> renameVariables(morph, nameObjects, manipulation.getMetrics()))
+                .forEachWatcher(watcher -> renameWatcher(watcher, nameMap, manipulation.getMetrics()));
     }
 
     /**
-     * Returns {@code true} if the given block is an accessor for a global
-     * variable, {@code false} if not.
+     * Replaces the names in the given map at all locations recorded in the
+     * given index, without traversing the project. The result is the same as
+     * for {@link #replaceAll(ScratchObjectStageMorph, Map)} on the project the
+     * index was built from.
      *
-     * @param block The block.
-     * @return Whether the block provides the value of a global variable.
+     * <p>
+     * Every replaced occurrence is counted as
+     * {@link Counter#NAMES_REPLACED} in the index's metrics.
+     *
+     * @param index The index of the project.
+     * @param nameMap The replacement map.
      */
-    private static boolean isGlobalVariableBlock(BlockView block)
+    public static void apply(ProjectIndex index, Map<String, String> nameMap)
     {
-        return block.size() >= 2 && block.stringEquals(0, "readVariable");
+        final Map<String, ScratchObjectUtf8> nameObjects = StringObjects.canonicalize(nameMap);
+        final ObfuscationMetrics metrics = index.getMetrics();
+
+        final Set<ScratchObjectScriptableMorph> morphs = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<ScratchObjectWatcherMorph> watchers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (Map.Entry<String, ScratchObjectUtf8> entry : nameObjects.entrySet()) {
+            final String oldName = entry.getKey();
+            morphs.addAll(index.getVariableDeclarations(oldName));
+            for (ProjectIndex.Occurrence occurrence : index.getVariableReferences(oldName)) {
+                occurrence.set(entry.getValue());
+                metrics.increment(Counter.NAMES_REPLACED);
+            }
+            watchers.addAll(index.getWatcherTitles(oldName));
+            watchers.addAll(index.getWatcherReadouts(oldName));
+        }
+
+        // declarations and watchers are rewritten as a whole, like in a traversal
+        for (ScratchObjectScriptableMorph morph : morphs) {
+            renameVariables(morph, nameObjects, metrics);
+        }
+        for (ScratchObjectWatcherMorph watcher : watchers) {
+            renameWatcher(watcher, nameMap, metrics);
+        }
     }
 
-    private static String getGlobalVariableBlockName(BlockView block)
+    private static void renameVariables(ScratchObjectScriptableMorph morph,
+            Map<String, ScratchObjectUtf8> nameObjects, ObfuscationMetrics metrics)
     {
-        return ((ScratchObjectAbstractString) block.get(1)).getValue();
-    }
+        final ScratchObjectAbstractDictionary vars = (ScratchObjectAbstractDictionary) (morph
+                .getField(ScratchObjectScriptableMorph.FIELD_VARS));
 
-    private static void setGlobalVariableBlockName(BlockView block, String name)
-    {
-        block.set(1, new ScratchObjectUtf8(name));
-    }
+        final Map<ScratchObject, ScratchObject> newEntries = new LinkedHashMap<>();
 
-    /**
-     * Returns {@code true} if the given block is a setter or changer for a
-     * global variable, {@code false} if not.
-     *
-     * @param block The block.
-     * @return Whether the block is a setter for a global variable.
-     */
-    private static boolean isVariableChangeBlock(BlockView block)
-    {
-        return block.size() >= 2 && block.stringEquals(0, "changeVariable");
-    }
+        // iterate over entries, replace if possible
+        final Iterator<Entry<ScratchObject, ScratchObject>> entryIterator = vars.entrySet().iterator();
+        while (entryIterator.hasNext()) {
 
-    private static String getVariableChangeBlockName(BlockView block)
-    {
-        return ((ScratchObjectAbstractString) block.get(1)).getValue();
+            final Entry<ScratchObject, ScratchObject> varEntry = entryIterator.next();
+
+            final String oldName = ((ScratchObjectAbstractString) varEntry.getKey()).getValue();
+            final ScratchObjectUtf8 newName = nameObjects.get(oldName);
+            if (newName != null) {
+                newEntries.put(newName, varEntry.getValue());
+                entryIterator.remove();
+                metrics.increment(Counter.NAMES_REPLACED);
+            }
+
+        }
+
+        newEntries.forEach(vars::put);
     }
 
-    private static void setVariableChangeBlockName(BlockView block, String name)
+    private static void renameWatcher(ScratchObjectWatcherMorph watcher, Map<String, String> nameMap,
+            ObfuscationMetrics metrics)
     {
-        block.set(1, new ScratchObjectUtf8(name));
+        // update title morph
+
+        final ScratchObjectStringMorph titleMorph = watcher.getTitleMorph();
+        final String title = titleMorph.getContents();
+        if (nameMap.containsKey(title)) {
+            titleMorph.setContents(nameMap.get(title));
+            metrics.increment(Counter.NAMES_REPLACED);
+        }
+
+        // update readout string morph
+
+        final ScratchObjectUpdatingStringMorph readoutMorph = watcher.getReadoutMorph();
+        final String parameter = readoutMorph.getParameter();
+        if (nameMap.containsKey(parameter)) {
+            readoutMorph.setParameter(nameMap.get(parameter));
+            metrics.increment(Counter.NAMES_REPLACED);
+        }
     }
 
     /**
-     * Returns {@code true} if the given block is a show or hide block for a
-     * global variable, {@code false} if not.
+     * Returns {@code true} if the given block (which is known to have one of
+     * the variable selectors) holds a variable name, {@code false} if not.
      *
      * @param block The block.
-     * @return Whether the block is a show/hide block.
+     * @return Whether the block references a global variable by name.
      */
-    private static boolean isVariableShowHideBlock(BlockView block)
+    private static boolean isVariableBlock(BlockView block)
     {
-        return block.size() >= 2 && (block.stringEquals(0, "showVariable:") || block.stringEquals(0, "hideVariable:"));
+        return block.size() >= 2;
     }
 
-    private static String getVariableShowHideBlockName(BlockView block)
+    private static String getVariableBlockName(BlockView block)
     {
         return ((ScratchObjectAbstractString) block.get(1)).getValue();
     }
 
-    private static void setVariableShowHideBlockName(BlockView block, String name)
+    private static void setVariableBlockName(BlockView block, ScratchObjectUtf8 name)
     {
-        block.set(1, new ScratchObjectUtf8(name));
+        block.set(1, name);
     }
 }
@@ -1,16 +1,26 @@
 package scratchobfuscator.manipulators;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
-import java.util.stream.Stream;
 
+import scratchlib.objects.ScratchObject;
 import scratchlib.objects.fixed.collections.ScratchObjectAbstractCollection;
 import scratchlib.objects.user.ScratchObjectCustomBlockDefinition;
 import scratchlib.objects.user.morphs.ScratchObjectMorph;
 import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
 import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
 import scratchlib.objects.user.morphs.ui.ScratchObjectWatcherMorph;
+import scratchobfuscator.metrics.ObfuscationMetrics;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
 
 
 /**
@@ -23,7 +33,11 @@ public class Manipulation
     private final List<Consumer<ScratchObjectScriptableMorph>> morphConsumers = new ArrayList<>();
     private final List<Consumer<ScratchObjectCustomBlockDefinition>> customBlockConsumers = new ArrayList<>();
     private final List<Consumer<BlockView>> blockConsumers = new ArrayList<>();
+    // per selector: all consumers to run for such blocks, including the
+    // generic ones, in registration order
+    private final Map<String, List<Consumer<BlockView>>> selectorConsumers = new HashMap<>();
     private final List<Consumer<ScratchObjectWatcherMorph>> watcherConsumers = new ArrayList<>();
+    private ObfuscationMetrics metrics = ObfuscationMetrics.DISABLED;
 
     /**
      * @param stage The stage to operate on.
@@ -33,6 +47,27 @@ public class Manipulation
         this.stage = stage;
     }
 
+    /**
+     * Sets the collector that the numbers of traversed objects are reported
+     * to. Consumers may report additional counts through {@link #getMetrics()}.
+     *
+     * @param metrics The metrics collector.
+     * @return This instance, for call chaining.
+     */
+    public Manipulation withMetrics(ObfuscationMetrics metrics)
+    {
+        this.metrics = metrics != null ? metrics : ObfuscationMetrics.DISABLED;
+        return this;
+    }
+
+    /**
+     * @return The metrics collector (never {@code null}).
+     */
+    public ObfuscationMetrics getMetrics()
+    {
+        return metrics;
+    }
+
     /**
      * Binds the given consumer to be executed for each scriptable morph (stage
      * and sprites) that is traversed. Multiple consumers can be bound.
@@ -67,12 +102,48 @@ public class Manipulation
      * Note that it is not strictly guaranteed that all instances are, in fact,
      * blocks. Appropriate checks should be performed.
      *
+     * <p>
+     * The same {@link BlockView} instance is re-targeted for every block, so
+     * consumers must not retain it beyond the call.
+     *
      * @param consumer The action to bind.
      * @return This instance, for call chaining.
      */
     public Manipulation forEachBlock(Consumer<BlockView> consumer)
     {
         blockConsumers.add(consumer);
+        for (List<Consumer<BlockView>> consumers : selectorConsumers.values()) {
+            consumers.add(consumer);
+        }
+        return this;
+    }
+
+    /**
+     * Binds the given consumer to be executed for each script block that is
+     * traversed (including nested blocks) and has the given selector. Multiple
+     * consumers can be bound, for the same or different selectors.
+     *
+     * <p>
+     * Each block's selector is read once and looked up in a hash table, so
+     * consumers interested in few selectors should prefer this over
+     * {@link #forEachBlock(Consumer)} with string comparisons. The selector is
+     * read before any consumer is executed for the block. For every block, the
+     * consumers bound through {@link #forEachBlock(Consumer)} and the ones
+     * bound for the block's selector are executed together, in the order in
+     * which they were bound.
+     *
+     * <p>
+     * The same restrictions on retaining the {@link BlockView} apply as for
+     * {@link #forEachBlock(Consumer)}. No guarantees are made about the block's
+     * size; appropriate checks should be performed.
+     *
+     * @param selector The selector to bind to (see {@link BlockView#getSelector()}).
+     * @param consumer The action to bind.
+     * @return This instance, for call chaining.
+     */
+    public Manipulation onSelector(String selector, Consumer<BlockView> consumer)
+    {
+        selectorConsumers.computeIfAbsent(selector, k -> new ArrayList<>(blockConsumers)).add(consumer);
         return this;
     }
 
@@ -92,52 +163,228 @@ public class Manipulation
     /**
      * Applies this manipulation by traversing the stage and applying all
      * registered consumers.
+     *
+     * <p>
+     * Blocks are traversed depth-first in document order, using an explicit
+     * work stack rather than recursion, so arbitrarily deep nesting is
+     * supported.
+     *
+     * <p>
+     * If no consumers are bound, the stage is not traversed at all.
      */
     public void run()
     {
-        Stream.concat(Stream.of(stage), stage.streamSprites()).forEach(morph -> {
+        if (isEmpty()) {
+            return;
+        }
 
-            trigger(morphConsumers, morph);
+        final Traversal traversal = new Traversal();
 
-            morph.streamCustomBlocks().forEach(cb -> {
-                trigger(customBlockConsumers, cb);
-                final ScratchObjectAbstractCollection body = cb.getBody();
-                if (body != null) {
-                    processScript(body);
-                }
-            });
+        traversal.processMorph(stage);
+        for (int i = 0, n = stage.getSpriteCount(); i < n; ++i) {
+            traversal.processMorph(stage.getSprite(i));
+        }
+        processWatchers(traversal);
 
-            morph.streamScriptBodies().forEach(this::processScript);
+        traversal.report(metrics);
+    }
 
-        });
+    /**
+     * Applies this manipulation like {@link #run()}, but processes the stage
+     * and every sprite (including their custom block bodies and scripts) as
+     * separate tasks in the common fork-join pool. The watchers are processed
+     * afterwards, on the calling thread.
+     *
+     * @see #runParallel(ForkJoinPool)
+     */
+    public void runParallel()
+    {
+        runParallel(ForkJoinPool.commonPool());
+    }
 
-        if (!watcherConsumers.isEmpty()) {
-            ((ScratchObjectAbstractCollection) stage.getField(ScratchObjectMorph.FIELD_SUBMORPHS)).forEach(obj -> {
-                if (obj instanceof ScratchObjectWatcherMorph) {
-                    trigger(watcherConsumers, (ScratchObjectWatcherMorph) obj);
-                }
-            });
+    /**
+     * Applies this manipulation like {@link #run()}, but processes the stage
+     * and every sprite (including their custom block bodies and scripts) as
+     * separate tasks in the given pool. The watchers are processed afterwards,
+     * on the calling thread, once all morphs are done.
+     *
+     * <p>
+     * Within a single morph, the traversal order is the same as for
+     * {@link #run()}, but different morphs are processed concurrently and in
+     * no particular order. Consequently, the bound morph, custom block and
+     * block consumers must be safe to call concurrently, as long as each call
+     * only modifies objects belonging to its own morph. This holds for the
+     * consumers bound by {@link GlobalVariablesManipulator} and
+     * {@link UserSpecManipulator}.
+     *
+     * <p>
+     * If a consumer throws, the exception is rethrown on the calling thread
+     * after all tasks have finished, and the watchers are not processed.
+     *
+     * @param pool The pool to run the per-morph tasks in.
+     */
+    public void runParallel(ForkJoinPool pool)
+    {
+        if (isEmpty()) {
+            return;
+        }
+
+        final int spriteCount = stage.getSpriteCount();
+        if (spriteCount == 0) {
+            run();
+            return;
+        }
+
+        final List<Callable<Void>> tasks = new ArrayList<>(spriteCount + 1);
+        tasks.add(createMorphTask(stage));
+        for (int i = 0; i < spriteCount; ++i) {
+            tasks.add(createMorphTask(stage.getSprite(i)));
+        }
+
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            awaitTask(future);
+        }
+
+        final Traversal traversal = new Traversal();
+        processWatchers(traversal);
+        traversal.report(metrics);
+    }
+
+    private Callable<Void> createMorphTask(ScratchObjectScriptableMorph morph)
+    {
+        return () -> {
+            final Traversal traversal = new Traversal();
+            traversal.processMorph(morph);
+            traversal.report(metrics);
+            return null;
+        };
+    }
+
+    private static void awaitTask(Future<Void> future)
+    {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for traversal", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
         }
     }
 
-    private void processScript(ScratchObjectAbstractCollection script)
+    private boolean isEmpty()
+    {
+        return morphConsumers.isEmpty() && customBlockConsumers.isEmpty() && !hasBlockConsumers()
+                && watcherConsumers.isEmpty();
+    }
+
+    private boolean hasBlockConsumers()
     {
-        script.stream().map(obj -> (ScratchObjectAbstractCollection) obj).forEach(this::processBlock);
+        return !blockConsumers.isEmpty() || !selectorConsumers.isEmpty();
     }
 
-    private void processBlock(ScratchObjectAbstractCollection block)
+    private void processWatchers(Traversal traversal)
     {
-        trigger(blockConsumers, new BlockView(block));
+        if (watcherConsumers.isEmpty()) {
+            return;
+        }
 
-        block.stream().forEach(param -> {
-            if (param instanceof ScratchObjectAbstractCollection) {
-                processBlock((ScratchObjectAbstractCollection) param);
+        final ScratchObjectAbstractCollection submorphs = (ScratchObjectAbstractCollection) stage
+                .getField(ScratchObjectMorph.FIELD_SUBMORPHS);
+        for (int i = 0, n = submorphs.size(); i < n; ++i) {
+            final ScratchObject obj = submorphs.get(i);
+            if (obj instanceof ScratchObjectWatcherMorph) {
+                trigger(watcherConsumers, (ScratchObjectWatcherMorph) obj);
+                ++traversal.watchers;
             }
-        });
+        }
     }
 
-    private <T> void trigger(List<Consumer<T>> consumers, T value)
+    private static <T> void trigger(List<Consumer<T>> consumers, T value)
     {
-        consumers.forEach(c -> c.accept(value));
+        for (int i = 0, n = consumers.size(); i < n; ++i) {
+            consumers.get(i).accept(value);
+        }
+    }
+
+    /**
+     * State of a single traversal: the stack of blocks yet to be visited, the
+     * view that is re-targeted to each visited block, and the visit counts.
+     */
+    private class Traversal
+    {
+        private final Deque<ScratchObjectAbstractCollection> stack = new ArrayDeque<>();
+        private final BlockView cursor = new BlockView();
+        private long morphs, customBlocks, blocks, watchers;
+
+        private void report(ObfuscationMetrics metrics)
+        {
+            metrics.add(Counter.MORPHS_VISITED, morphs);
+            metrics.add(Counter.CUSTOM_BLOCKS_VISITED, customBlocks);
+            metrics.add(Counter.BLOCKS_VISITED, blocks);
+            metrics.add(Counter.WATCHERS_VISITED, watchers);
+        }
+
+        private void processMorph(ScratchObjectScriptableMorph morph)
+        {
+            trigger(morphConsumers, morph);
+            ++morphs;
+
+            for (int i = 0, n = morph.getCustomBlockCount(); i < n; ++i) {
+                final ScratchObjectCustomBlockDefinition cb = morph.getCustomBlock(i);
+                trigger(customBlockConsumers, cb);
+                ++customBlocks;
+                final ScratchObjectAbstractCollection body = cb.getBody();
+                if (body != null) {
+                    processScript(body);
+                }
+            }
+
+            if (hasBlockConsumers()) {
+                for (int i = 0, n = morph.getScriptCount(); i < n; ++i) {
+                    processScript(morph.getScriptBody(i));
+                }
+            }
+        }
+
+        private void processScript(ScratchObjectAbstractCollection script)
+        {
+            if (!hasBlockConsumers()) {
+                return;
+            }
+
+            final boolean dispatch = !selectorConsumers.isEmpty();
+            pushChildren(script);
+
+            while (!stack.isEmpty()) {
+                final ScratchObjectAbstractCollection block = stack.pop();
+                cursor.retarget(block);
+                List<Consumer<BlockView>> consumers = dispatch ? selectorConsumers.get(cursor.getSelector()) : null;
+                if (consumers == null) {
+                    consumers = blockConsumers;
+                }
+                trigger(consumers, cursor);
+                ++blocks;
+                pushChildren(block);
+            }
+        }
+
+        private void pushChildren(ScratchObjectAbstractCollection parent)
+        {
+            // reverse order, so that the first child is popped first
+            for (int i = parent.size() - 1; i >= 0; --i) {
+                final ScratchObject child = parent.get(i);
+                if (child instanceof ScratchObjectAbstractCollection) {
+                    stack.push((ScratchObjectAbstractCollection) child);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,320 @@
+package scratchobfuscator.manipulators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractCollection;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractDictionary;
+import scratchlib.objects.fixed.data.ScratchObjectAbstractString;
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.objects.user.ScratchObjectCustomBlockDefinition;
+import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
+import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+import scratchlib.objects.user.morphs.ui.ScratchObjectWatcherMorph;
+import scratchobfuscator.metrics.ObfuscationMetrics;
+
+
+/**
+ * Index of all places in a project that refer to global variables, custom
+ * block specs or custom block parameters, built in a single traversal.
+ *
+ * <p>
+ * Rewrites can use the index to replace references by jumping directly to
+ * their locations, instead of traversing the whole project again (see
+ * {@link GlobalVariablesManipulator#apply(ProjectIndex, Map)} and
+ * {@link UserSpecManipulator#apply(ProjectIndex, Map, Map)}). The index also
+ * answers usage queries.
+ *
+ * <p>
+ * All lookups are by the values found while building the index. Replacing a
+ * reference does not update the index, so the index keeps describing the
+ * locations of the original values.
+ */
+public class ProjectIndex
+{
+    private static final String SELECTOR_INVOCATION = "doCustomBlock";
+    private static final String SELECTOR_PARAMETER = "readBlockVariable";
+    private static final String[] SELECTORS_VARIABLE = { "readVariable", "changeVariable", "showVariable:",
+            "hideVariable:" };
+
+    private final ObfuscationMetrics metrics;
+
+    private final Map<String, List<ScratchObjectScriptableMorph>> variableDeclarations = new HashMap<>();
+    private final Map<String, List<Occurrence>> variableReferences = new HashMap<>();
+    private final Map<String, List<ScratchObjectWatcherMorph>> watcherTitles = new HashMap<>();
+    private final Map<String, List<ScratchObjectWatcherMorph>> watcherReadouts = new HashMap<>();
+    private final Map<String, List<ScratchObjectCustomBlockDefinition>> customBlocks = new HashMap<>();
+    private final Map<String, List<Occurrence>> invocations = new HashMap<>();
+    private final Map<String, List<Occurrence>> parameterReferences = new HashMap<>();
+    private final Map<String, List<Occurrence>> parameterNames = new HashMap<>();
+
+    private ProjectIndex(ObfuscationMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Builds the index of the given stage and its sprites.
+     *
+     * @param stage The stage to index.
+     * @return The index.
+     */
+    public static ProjectIndex build(ScratchObjectStageMorph stage)
+    {
+        return build(stage, ObfuscationMetrics.DISABLED);
+    }
+
+    /**
+     * Builds the index of the given stage and its sprites. The traversed
+     * objects are reported to the given metrics collector, which is also used
+     * by rewrites applied through the index.
+     *
+     * @param stage The stage to index.
+     * @param metrics The metrics collector.
+     * @return The index.
+     */
+    public static ProjectIndex build(ScratchObjectStageMorph stage, ObfuscationMetrics metrics)
+    {
+        final ProjectIndex index = new ProjectIndex(metrics != null ? metrics : ObfuscationMetrics.DISABLED);
+        final Manipulation manipulation = new Manipulation(stage).withMetrics(index.metrics);
+
+        // the traversal is sequential, so blocks always belong to the last morph
+        final ScratchObjectScriptableMorph[] morph = new ScratchObjectScriptableMorph[1];
+
+        manipulation.forEachMorph(m -> {
+            morph[0] = m;
+            final ScratchObjectAbstractDictionary vars = (ScratchObjectAbstractDictionary) m
+                    .getField(ScratchObjectScriptableMorph.FIELD_VARS);
+            for (ScratchObject key : vars.keySet()) {
+                add(index.variableDeclarations, ((ScratchObjectAbstractString) key).getValue(), m);
+            }
+        }).forEachCustomBlock(cb -> {
+            add(index.customBlocks, cb.getUserSpec(), cb);
+        }).forEachWatcher(watcher -> {
+            add(index.watcherTitles, watcher.getTitleMorph().getContents(), watcher);
+            add(index.watcherReadouts, watcher.getReadoutMorph().getParameter(), watcher);
+        });
+
+        for (String selector : SELECTORS_VARIABLE) {
+            manipulation.onSelector(selector, block -> {
+                if (block.size() >= 2) {
+                    index.addOccurrence(index.variableReferences, morph[0], block, 1);
+                }
+            });
+        }
+        manipulation.onSelector(SELECTOR_INVOCATION, block -> {
+            if (block.size() >= 2) {
+                index.addOccurrence(index.invocations, morph[0], block, 1);
+            }
+        }).onSelector(SELECTOR_PARAMETER, block -> {
+            if (block.size() >= 3 && block.get(2) instanceof ScratchObjectUtf8) {
+                final Occurrence spec = new Occurrence(morph[0], block, 2);
+                add(index.parameterReferences, spec.getValue(), spec);
+                if (block.get(1) instanceof ScratchObjectAbstractString) {
+                    add(index.parameterNames, spec.getValue(), new Occurrence(morph[0], block, 1));
+                }
+            }
+        });
+
+        manipulation.run();
+
+        return index;
+    }
+
+    private void addOccurrence(Map<String, List<Occurrence>> map, ScratchObjectScriptableMorph morph,
+            BlockView block, int index)
+    {
+        final ScratchObject value = block.get(index);
+        if (value instanceof ScratchObjectAbstractString) {
+            final Occurrence occurrence = new Occurrence(morph, block, index);
+            add(map, occurrence.getValue(), occurrence);
+        }
+    }
+
+    private static <T> void add(Map<String, List<T>> map, String key, T value)
+    {
+        map.computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
+    }
+
+    private static <T> List<T> get(Map<String, List<T>> map, String key)
+    {
+        final List<T> list = map.get(key);
+        return list != null ? Collections.unmodifiableList(list) : Collections.emptyList();
+    }
+
+    /**
+     * @return The metrics collector that rewrites through this index report
+     *         to (never {@code null}).
+     */
+    public ObfuscationMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return The names of all variables declared by any morph.
+     */
+    public Set<String> getVariableNames()
+    {
+        return Collections.unmodifiableSet(variableDeclarations.keySet());
+    }
+
+    /**
+     * @param name The variable name.
+     * @return The morphs declaring a variable of the given name, in document
+     *         order.
+     */
+    public List<ScratchObjectScriptableMorph> getVariableDeclarations(String name)
+    {
+        return get(variableDeclarations, name);
+    }
+
+    /**
+     * @param name The variable name.
+     * @return The name slots of all blocks reading, changing, showing or hiding
+     *         a variable of the given name, in document order.
+     */
+    public List<Occurrence> getVariableReferences(String name)
+    {
+        return get(variableReferences, name);
+    }
+
+    /**
+     * @param title The watcher title.
+     * @return The watchers with the given title.
+     */
+    public List<ScratchObjectWatcherMorph> getWatcherTitles(String title)
+    {
+        return get(watcherTitles, title);
+    }
+
+    /**
+     * @param parameter The watched parameter (e.g. a variable name).
+     * @return The watchers whose readout shows the given parameter.
+     */
+    public List<ScratchObjectWatcherMorph> getWatcherReadouts(String parameter)
+    {
+        return get(watcherReadouts, parameter);
+    }
+
+    /**
+     * @return The specs of all custom block definitions.
+     */
+    public Set<String> getSpecs()
+    {
+        return Collections.unmodifiableSet(customBlocks.keySet());
+    }
+
+    /**
+     * @param spec The user spec.
+     * @return The custom block definitions with the given spec, in document
+     *         order.
+     */
+    public List<ScratchObjectCustomBlockDefinition> getCustomBlocks(String spec)
+    {
+        return get(customBlocks, spec);
+    }
+
+    /**
+     * @param spec The user spec.
+     * @return The spec slots of all blocks invoking the custom block with the
+     *         given spec, in document order.
+     */
+    public List<Occurrence> getInvocations(String spec)
+    {
+        return get(invocations, spec);
+    }
+
+    /**
+     * @param spec The user spec.
+     * @return The spec slots of all variable blocks resolving to a parameter of
+     *         the custom block with the given spec, in document order.
+     */
+    public List<Occurrence> getParameterReferences(String spec)
+    {
+        return get(parameterReferences, spec);
+    }
+
+    /**
+     * @param spec The user spec.
+     * @return The parameter name slots of all variable blocks resolving to a
+     *         parameter of the custom block with the given spec, in document
+     *         order.
+     */
+    public List<Occurrence> getParameterNames(String spec)
+    {
+        return get(parameterNames, spec);
+    }
+
+    /**
+     * The location of a single reference: a slot in some block, together with
+     * the morph whose scripts or custom blocks contain the block.
+     */
+    public static class Occurrence
+    {
+        private final ScratchObjectScriptableMorph morph;
+        private final ScratchObjectAbstractCollection block;
+        private final int index;
+        private final String value;
+
+        private Occurrence(ScratchObjectScriptableMorph morph, BlockView block, int index)
+        {
+            this.morph = morph;
+            this.block = block.getBlock();
+            this.index = block.toCollectionIndex(index);
+            this.value = ((ScratchObjectAbstractString) block.get(index)).getValue();
+        }
+
+        /**
+         * @return The morph containing the block.
+         */
+        public ScratchObjectScriptableMorph getMorph()
+        {
+            return morph;
+        }
+
+        /**
+         * @return The block containing the reference.
+         */
+        public ScratchObjectAbstractCollection getBlock()
+        {
+            return block;
+        }
+
+        /**
+         * @return The index of the reference within the block collection
+         *         (including any BYOB elements).
+         */
+        public int getIndex()
+        {
+            return index;
+        }
+
+        /**
+         * Obtains the string value the slot held when the index was built.
+         * Since it is not affected by later replacements, a block that is
+         * reachable through multiple paths is never rewritten twice.
+         *
+         * @return The indexed value.
+         */
+        public String getValue()
+        {
+            return value;
+        }
+
+        /**
+         * Replaces the object in the slot.
+         *
+         * @param value The new object.
+         */
+        public void set(ScratchObject value)
+        {
+            block.set(index, value);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package scratchobfuscator.manipulators;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+
+
+/**
+ * Helpers for creating shared string objects for replacements.
+ */
+final class StringObjects
+{
+    private StringObjects()
+    {
+    }
+
+    /**
+     * Maps every key of the given replacement map to a string object holding
+     * its replacement. Equal replacements share one object, so that they are
+     * allocated and serialized only once, no matter how often they are used.
+     *
+     * @param replacements The map of old strings to replacement strings.
+     * @return The map of old strings to replacement objects.
+     */
+    static Map<String, ScratchObjectUtf8> canonicalize(Map<String, String> replacements)
+    {
+        return canonicalize(replacements, new HashMap<>());
+    }
+
+    /**
+     * Like {@link #canonicalize(Map)}, but takes the replacement objects from
+     * (and adds new ones to) the given pool, so that they can be shared between
+     * multiple replacement maps.
+     *
+     * @param replacements The map of old strings to replacement strings.
+     * @param byValue The pool of replacement objects, keyed by value.
+     * @return The map of old strings to replacement objects.
+     */
+    static Map<String, ScratchObjectUtf8> canonicalize(Map<String, String> replacements,
+            Map<String, ScratchObjectUtf8> byValue)
+    {
+        final Map<String, ScratchObjectUtf8> objects = new HashMap<>();
+        for (Map.Entry<String, String> entry : replacements.entrySet()) {
+            objects.put(entry.getKey(), byValue.computeIfAbsent(entry.getValue(), ScratchObjectUtf8::new));
+        }
+        return objects;
+    }
+}
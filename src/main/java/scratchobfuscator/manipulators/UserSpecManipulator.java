@@ -1,10 +1,20 @@
 package scratchobfuscator.manipulators;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractDictionary;
 import scratchlib.objects.fixed.data.ScratchObjectAbstractString;
 import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.objects.user.ScratchObjectCustomBlockDefinition;
 import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+import scratchobfuscator.metrics.ObfuscationMetrics;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
 
 
 /**
@@ -13,6 +23,15 @@ import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
  */
 public class UserSpecManipulator
 {
+    private static final String SELECTOR_INVOCATION = "doCustomBlock";
+    private static final String SELECTOR_PARAMETER = "readBlockVariable";
+
+    /**
+     * The custom block definition fields that map parameter names to their
+     * slot types and default values, respectively.
+     */
+    private static final String[] FIELDS_PARAMETER_DECLARATIONS = { "declarations", "defaults" };
+
     private UserSpecManipulator()
     {
     }
@@ -30,47 +49,229 @@ public class UserSpecManipulator
      */
     public static void replaceAll(ScratchObjectStageMorph stage, Map<String, String> specMap)
     {
-        new Manipulation(stage).forEachCustomBlock(cb -> {
+        register(new Manipulation(stage), specMap).run();
+    }
+
+    /**
+     * Like {@link #replaceAll(ScratchObjectStageMorph, Map)}, but additionally
+     * renames custom block parameters in all parameter variable blocks.
+     *
+     * @param stage The stage to search in.
+     * @param specMap The replacement map.
+     * @param parameterMap A map of old spec strings to maps of old parameter
+     *            names to new parameter names.
+     */
+    public static void replaceAll(ScratchObjectStageMorph stage, Map<String, String> specMap,
+            Map<String, Map<String, String>> parameterMap)
+    {
+        register(new Manipulation(stage), specMap, parameterMap).run();
+    }
+
+    /**
+     * Binds the consumers necessary for replacing the specs in the given map to
+     * the given manipulation, without running it. This allows the replacement
+     * to share a single traversal with other manipulators.
+     *
+     * <p>
+     * Every replaced occurrence is counted as
+     * {@link Counter#SPECS_REPLACED} in the manipulation's metrics.
+     *
+     * @param manipulation The manipulation to bind to.
+     * @param specMap The replacement map.
+     * @return The manipulation, for call chaining.
+     *
+     * @see #replaceAll(ScratchObjectStageMorph, Map)
+     */
+    public static Manipulation register(Manipulation manipulation, Map<String, String> specMap)
+    {
+        return register(manipulation, specMap, Collections.emptyMap());
+    }
+
+    /**
+     * Like {@link #register(Manipulation, Map)}, but additionally renames
+     * custom block parameters. A parameter variable block is renamed if the
+     * map has an entry for its (old) spec that contains its parameter name.
+     * The slot type and default value declarations of the custom block
+     * definitions are renamed the same way.
+     *
+     * <p>
+     * Every renamed parameter variable is counted as
+     * {@link Counter#PARAMETERS_RENAMED} in the manipulation's metrics.
+     *
+     * @param manipulation The manipulation to bind to.
+     * @param specMap The replacement map.
+     * @param parameterMap A map of old spec strings to maps of old parameter
+     *            names to new parameter names.
+     * @return The manipulation, for call chaining.
+     */
+    public static Manipulation register(Manipulation manipulation, Map<String, String> specMap,
+            Map<String, Map<String, String>> parameterMap)
+    {
+        final Map<String, ScratchObjectUtf8> specObjects = StringObjects.canonicalize(specMap);
+
+        // parameter names repeat across specs, so share their objects, too
+        final Map<String, Map<String, ScratchObjectUtf8>> parameterObjects = new HashMap<>();
+        final Map<String, ScratchObjectUtf8> parameterPool = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : parameterMap.entrySet()) {
+            parameterObjects.put(entry.getKey(), StringObjects.canonicalize(entry.getValue(), parameterPool));
+        }
 
-            // update cb spec
+        return manipulation.forEachCustomBlock(cb -> {
+
+            // update cb spec, and the parameter declarations keyed by name
             final String oldSpec = cb.getUserSpec();
+            final Map<String, ScratchObjectUtf8> parameters = parameterObjects.get(oldSpec);
+            if (parameters != null) {
+                renameParameterDeclarations(cb, parameters);
+            }
             if (specMap.containsKey(oldSpec)) {
                 cb.setUserSpec(specMap.get(oldSpec));
+                manipulation.getMetrics().increment(Counter.SPECS_REPLACED);
             }
 
-        }).forEachBlock(block -> {
+        }).onSelector(SELECTOR_INVOCATION, block -> {
 
             // given block is invocation of a custom block?
             if (isCustomBlockInvocation(block)) {
                 // replace invoked spec
-                String invoked = getInvokedUserSpec(block);
-                if (specMap.containsKey(invoked)) {
-                    setInvokedUserSpec(block, specMap.get(invoked));
+                final ScratchObjectUtf8 newSpec = specObjects.get(getInvokedUserSpec(block));
+                if (newSpec != null) {
+                    setInvokedUserSpec(block, newSpec);
+                    manipulation.getMetrics().increment(Counter.SPECS_REPLACED);
                 }
             }
 
+        }).onSelector(SELECTOR_PARAMETER, block -> {
+
             // given block is a parameter?
             if (isParameterVariable(block)) {
+                final String oldSpec = getParameterVariableSpec(block);
+                // rename parameter, looked up by the spec it belongs to
+                final Map<String, ScratchObjectUtf8> parameters = parameterObjects.get(oldSpec);
+                if (parameters != null && block.get(1) instanceof ScratchObjectAbstractString) {
+                    final ScratchObjectUtf8 newName = parameters.get(getParameterVariableName(block));
+                    if (newName != null) {
+                        setParameterVariableName(block, newName);
+                        manipulation.getMetrics().increment(Counter.PARAMETERS_RENAMED);
+                    }
+                }
                 // replace spec
-                String spec = getParameterVariableSpec(block);
-                if (specMap.containsKey(spec)) {
-                    setParameterVariableSpec(block, specMap.get(spec));
+                final ScratchObjectUtf8 newSpec = specObjects.get(oldSpec);
+                if (newSpec != null) {
+                    setParameterVariableSpec(block, newSpec);
+                    manipulation.getMetrics().increment(Counter.SPECS_REPLACED);
                 }
             }
 
-        }).run();
+        });
     }
 
     /**
-     * Returns {@code true} if the given block is an invocation block for a
-     * custom block, {@code false} if not.
+     * Replaces the specs in the given map and renames the parameters in the
+     * given parameter map at all locations recorded in the given index,
+     * without traversing the project. The result is the same as for
+     * {@link #replaceAll(ScratchObjectStageMorph, Map, Map)} on the project the
+     * index was built from.
+     *
+     * <p>
+     * Replaced occurrences are counted in the index's metrics, the same way
+     * as for {@link #register(Manipulation, Map, Map)}.
+     *
+     * @param index The index of the project.
+     * @param specMap The replacement map.
+     * @param parameterMap A map of old spec strings to maps of old parameter
+     *            names to new parameter names.
+     */
+    public static void apply(ProjectIndex index, Map<String, String> specMap,
+            Map<String, Map<String, String>> parameterMap)
+    {
+        final Map<String, ScratchObjectUtf8> specObjects = StringObjects.canonicalize(specMap);
+        final ObfuscationMetrics metrics = index.getMetrics();
+
+        // parameter names first, since they are looked up by their old spec
+        final Map<String, Map<String, ScratchObjectUtf8>> parameterObjects = new HashMap<>();
+        final Map<String, ScratchObjectUtf8> parameterPool = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : parameterMap.entrySet()) {
+            final Map<String, ScratchObjectUtf8> parameters = StringObjects.canonicalize(entry.getValue(),
+                    parameterPool);
+            parameterObjects.put(entry.getKey(), parameters);
+            for (ProjectIndex.Occurrence occurrence : index.getParameterNames(entry.getKey())) {
+                final ScratchObjectUtf8 newName = parameters.get(occurrence.getValue());
+                if (newName != null) {
+                    occurrence.set(newName);
+                    metrics.increment(Counter.PARAMETERS_RENAMED);
+                }
+            }
+        }
+
+        for (Map.Entry<String, ScratchObjectUtf8> entry : specObjects.entrySet()) {
+            final String oldSpec = entry.getKey();
+            final Map<String, ScratchObjectUtf8> parameters = parameterObjects.get(oldSpec);
+            for (ScratchObjectCustomBlockDefinition cb : index.getCustomBlocks(oldSpec)) {
+                if (parameters != null) {
+                    renameParameterDeclarations(cb, parameters);
+                }
+                cb.setUserSpec(specMap.get(oldSpec));
+                metrics.increment(Counter.SPECS_REPLACED);
+            }
+            for (ProjectIndex.Occurrence occurrence : index.getInvocations(oldSpec)) {
+                occurrence.set(entry.getValue());
+                metrics.increment(Counter.SPECS_REPLACED);
+            }
+            for (ProjectIndex.Occurrence occurrence : index.getParameterReferences(oldSpec)) {
+                occurrence.set(entry.getValue());
+                metrics.increment(Counter.SPECS_REPLACED);
+            }
+        }
+    }
+
+    /**
+     * Renames the keys of the given definition's parameter declarations (slot
+     * types and default values) according to the given map. All renamed
+     * entries are removed before any is re-added, so that parameters can
+     * swap names.
+     *
+     * @param cb The custom block definition.
+     * @param parameters A map of old parameter names to new parameter names.
+     */
+    private static void renameParameterDeclarations(ScratchObjectCustomBlockDefinition cb,
+            Map<String, ScratchObjectUtf8> parameters)
+    {
+        for (String field : FIELDS_PARAMETER_DECLARATIONS) {
+            final ScratchObject declarations = cb.getField(field);
+            if (!(declarations instanceof ScratchObjectAbstractDictionary)) {
+                continue;
+            }
+            final ScratchObjectAbstractDictionary dict = (ScratchObjectAbstractDictionary) declarations;
+
+            final Map<ScratchObject, ScratchObject> newEntries = new LinkedHashMap<>();
+            final Iterator<Entry<ScratchObject, ScratchObject>> entryIterator = dict.entrySet().iterator();
+            while (entryIterator.hasNext()) {
+                final Entry<ScratchObject, ScratchObject> entry = entryIterator.next();
+                if (!(entry.getKey() instanceof ScratchObjectAbstractString)) {
+                    continue;
+                }
+                final ScratchObjectUtf8 newName = parameters
+                        .get(((ScratchObjectAbstractString) entry.getKey()).getValue());
+                if (newName != null) {
+                    newEntries.put(newName, entry.getValue());
+                    entryIterator.remove();
+                }
+            }
+            newEntries.forEach(dict::put);
+        }
+    }
+
+    /**
+     * Returns {@code true} if the given block (which is known to have the
+     * invocation selector) holds the invoked spec, {@code false} if not.
      *
      * @param block The block.
      * @return Whether the block invokes a custom block when run.
      */
     private static boolean isCustomBlockInvocation(BlockView block)
     {
-        return block.size() >= 2 && block.stringEquals(0, "doCustomBlock");
+        return block.size() >= 2;
     }
 
     private static String getInvokedUserSpec(BlockView block)
@@ -78,22 +279,32 @@ public class UserSpecManipulator
         return ((ScratchObjectAbstractString) block.get(1)).getValue();
     }
 
-    private static void setInvokedUserSpec(BlockView block, String spec)
+    private static void setInvokedUserSpec(BlockView block, ScratchObjectUtf8 spec)
     {
-        block.set(1, new ScratchObjectUtf8(spec));
+        block.set(1, spec);
     }
 
     /**
-     * Returns {@code true} if the given block is a variable block resolving to
-     * a custom block's parameter, {@code false} otherwise.
+     * Returns {@code true} if the given block (which is known to have the
+     * parameter selector) is a variable block resolving to a custom block's
+     * parameter, {@code false} otherwise.
      *
      * @param block The block.
      * @return Whether the block is a "parameter variable".
      */
     private static boolean isParameterVariable(BlockView block)
     {
-        return block.size() >= 3 && block.stringEquals(0, "readBlockVariable")
-                && block.get(2) instanceof ScratchObjectUtf8;
+        return block.size() >= 3 && block.get(2) instanceof ScratchObjectUtf8;
+    }
+
+    private static String getParameterVariableName(BlockView block)
+    {
+        return ((ScratchObjectAbstractString) block.get(1)).getValue();
+    }
+
+    private static void setParameterVariableName(BlockView block, ScratchObjectUtf8 name)
+    {
+        block.set(1, name);
     }
 
     private static String getParameterVariableSpec(BlockView block)
@@ -101,8 +312,8 @@ public class UserSpecManipulator
         return ((ScratchObjectAbstractString) block.get(2)).getValue();
     }
 
-    private static void setParameterVariableSpec(BlockView block, String spec)
+    private static void setParameterVariableSpec(BlockView block, ScratchObjectUtf8 spec)
     {
-        block.set(2, new ScratchObjectUtf8(spec));
+        block.set(2, spec);
     }
 }
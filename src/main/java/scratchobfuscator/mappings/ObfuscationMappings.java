@@ -0,0 +1,290 @@
+package scratchobfuscator.mappings;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+
+import scratchobfuscator.blocks.UserSpecParser;
+import scratchobfuscator.io.ByteBufferInputStream;
+import scratchobfuscator.io.ProjectFiles;
+import scratchobfuscator.io.ReusableByteArrayOutputStream;
+
+
+/**
+ * The replacements assigned by obfuscation modules, i.e. the mapping of
+ * original global variable names to obfuscated names and of original custom
+ * block specs to obfuscated specs.
+ *
+ * <p>
+ * When given to the modules of an obfuscator, previously assigned replacements
+ * are reused and newly assigned ones are added. Saving the mappings after each
+ * run and loading them for the next one therefore keeps the obfuscated names
+ * stable across revisions of a project.
+ *
+ * <p>
+ * Instances are thread-safe. New replacements are handed out through
+ * {@link #assignName(String, IntFunction)} and
+ * {@link #assignSpec(String, String, IntFunction)}, which look up, generate and
+ * record a replacement in one atomic step. Projects sharing one instance can
+ * therefore be processed concurrently without two originals ever receiving the
+ * same replacement.
+ */
+public class ObfuscationMappings
+{
+    private static final int MAGIC = 0x534F4D50; // "SOMP"
+    private static final int FORMAT_VERSION = 1;
+
+    private final Map<String, String> names = new LinkedHashMap<>();
+    private final Map<String, String> specs = new LinkedHashMap<>();
+
+    // replacements handed out so far; specs are compared up to similarity
+    private final Set<String> takenNames = new HashSet<>();
+    private final Set<String> takenSpecKeys = new HashSet<>();
+    private final Map<String, Integer> nextSpecIndexes = new HashMap<>();
+    private int nextNameIndex = 0;
+
+    /**
+     * @return A snapshot of the variable name replacements.
+     */
+    public synchronized Map<String, String> getNames()
+    {
+        return new LinkedHashMap<>(names);
+    }
+
+    /**
+     * Records the replacement for the given variable name.
+     *
+     * @param name The original name.
+     * @param replacement The obfuscated name.
+     */
+    public synchronized void putName(String name, String replacement)
+    {
+        names.put(name, replacement);
+        takenNames.add(replacement);
+    }
+
+    /**
+     * Returns the replacement for the given variable name, assigning a new one
+     * if there is none yet. New replacements are taken from the generator, in
+     * index order, skipping any that were already handed out for another name.
+     *
+     * @param name The original name.
+     * @param generator Generates the candidate replacement for an index.
+     * @return The obfuscated name.
+     */
+    public synchronized String assignName(String name, IntFunction<String> generator)
+    {
+        final String existing = names.get(name);
+        if (existing != null) {
+            return existing;
+        }
+
+        String generated = generator.apply(nextNameIndex++);
+        while (!takenNames.add(generated)) {
+            generated = generator.apply(nextNameIndex++);
+        }
+        names.put(name, generated);
+
+        return generated;
+    }
+
+    /**
+     * @return A snapshot of the custom block spec replacements.
+     */
+    public synchronized Map<String, String> getSpecs()
+    {
+        return new LinkedHashMap<>(specs);
+    }
+
+    /**
+     * Records the replacement for the given custom block spec.
+     *
+     * @param spec The original spec.
+     * @param replacement The obfuscated spec.
+     */
+    public synchronized void putSpec(String spec, String replacement)
+    {
+        specs.put(spec, replacement);
+        takenSpecKeys.add(similarityKey(replacement));
+    }
+
+    /**
+     * Returns the replacement for the given custom block spec, assigning a new
+     * one if there is none yet. New replacements are taken from the generator,
+     * in index order, skipping any that is similar to a spec already handed
+     * out (see {@link scratchobfuscator.blocks.UserSpec#isSimilar(
+     * scratchobfuscator.blocks.UserSpec) UserSpec.isSimilar}).
+     *
+     * <p>
+     * Specs of the same shape must come from generators that produce the same
+     * candidates for each index. Lower indexes known to be taken are then
+     * skipped.
+     *
+     * @param spec The original spec.
+     * @param shape The shape of the candidate specs.
+     * @param generator Generates the candidate replacement for an index.
+     * @return The obfuscated spec.
+     */
+    public synchronized String assignSpec(String spec, String shape, IntFunction<String> generator)
+    {
+        final String existing = specs.get(spec);
+        if (existing != null) {
+            return existing;
+        }
+
+        int index = nextSpecIndexes.getOrDefault(shape, 0);
+        String generated = generator.apply(index);
+        while (!takenSpecKeys.add(similarityKey(generated))) {
+            generated = generator.apply(++index);
+        }
+        nextSpecIndexes.put(shape, index + 1);
+        specs.put(spec, generated);
+
+        return generated;
+    }
+
+    private static String similarityKey(String spec)
+    {
+        return UserSpecParser.parse(spec).getSimilarityKey();
+    }
+
+    /**
+     * Writes the mappings to the given stream in a compact binary format. The
+     * stream is not closed.
+     *
+     * @param out The stream to write to.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void write(OutputStream out) throws IOException
+    {
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        synchronized (this) {
+            writeMap(data, names);
+            writeMap(data, specs);
+        }
+        data.flush();
+    }
+
+    /**
+     * Writes the mappings to the given file, atomically replacing it.
+     *
+     * @param file The file to write.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void save(Path file) throws IOException
+    {
+        final ReusableByteArrayOutputStream out = new ReusableByteArrayOutputStream(1024);
+        write(out);
+        ProjectFiles.writeAtomically(file, out.asByteBuffer());
+    }
+
+    /**
+     * Reads mappings in the format produced by {@link #write(OutputStream)}.
+     * The stream is not closed.
+     *
+     * @param in The stream to read from.
+     * @return The mappings read.
+     *
+     * @throws IOException If an I/O error occurs or the data is invalid.
+     */
+    public static ObfuscationMappings read(InputStream in) throws IOException
+    {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not an obfuscation mappings file");
+        }
+        final int version = data.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("unsupported mappings format version: " + version);
+        }
+
+        final ObfuscationMappings mappings = new ObfuscationMappings();
+        readMap(data, mappings::putName);
+        readMap(data, mappings::putSpec);
+        return mappings;
+    }
+
+    /**
+     * Reads the mappings from the given file.
+     *
+     * @param file The file to read.
+     * @return The mappings read.
+     *
+     * @throws IOException If an I/O error occurs or the data is invalid.
+     *
+     * @see #read(InputStream)
+     */
+    public static ObfuscationMappings load(Path file) throws IOException
+    {
+        return read(new ByteBufferInputStream(ProjectFiles.read(file)));
+    }
+
+    /**
+     * Loads the mappings from the given file if it exists, or returns empty
+     * mappings otherwise.
+     *
+     * @param file The file to read.
+     * @return The mappings read, or new empty mappings.
+     *
+     * @throws IOException If the file exists but cannot be read.
+     */
+    public static ObfuscationMappings loadOrCreate(Path file) throws IOException
+    {
+        return Files.exists(file) ? load(file) : new ObfuscationMappings();
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException
+    {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static void readMap(DataInputStream in, BiConsumer<String, String> put) throws IOException
+    {
+        final int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("invalid entry count: " + size);
+        }
+        for (int i = 0; i < size; ++i) {
+            put.accept(readString(in), readString(in));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        // length-prefixed UTF-8, since writeUTF is limited to 64 KiB
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("invalid string length: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,276 @@
+package scratchobfuscator.metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Thread-safe collector of timings and counts gathered while obfuscating
+ * projects. A single instance may be shared by any number of concurrently
+ * processed projects, in which case all values are aggregated.
+ *
+ * <p>
+ * Timings are recorded per named phase (e.g. reading, each module, writing),
+ * counts per {@link Counter}.
+ */
+public class ObfuscationMetrics
+{
+    /**
+     * A collector that discards everything. Useful as a default, so that
+     * callers need not check for {@code null}.
+     */
+    public static final ObfuscationMetrics DISABLED = new ObfuscationMetrics(false);
+
+    /**
+     * The phase name for reading projects.
+     */
+    public static final String PHASE_READ = "read";
+
+    /**
+     * The phase name for the shared traversal when modules are fused.
+     */
+    public static final String PHASE_TRAVERSAL = "traversal";
+
+    /**
+     * The phase name for building the project index.
+     */
+    public static final String PHASE_INDEX = "index";
+
+    /**
+     * The phase name for writing projects.
+     */
+    public static final String PHASE_WRITE = "write";
+
+    /**
+     * The phase name for answering from the result cache, including the
+     * input hashing.
+     */
+    public static final String PHASE_CACHE_HIT = "cacheHit";
+
+    /**
+     * The prefix of phase names recorded for individual modules.
+     */
+    public static final String PHASE_MODULE_PREFIX = "module:";
+
+    /**
+     * The quantities that are counted.
+     */
+    public enum Counter
+    {
+        PROJECTS_PROCESSED,
+        MORPHS_VISITED,
+        CUSTOM_BLOCKS_VISITED,
+        BLOCKS_VISITED,
+        WATCHERS_VISITED,
+        NAMES_REPLACED,
+        SPECS_REPLACED,
+        PARAMETERS_RENAMED,
+        STRINGS_INTERNED,
+        BYTES_READ,
+        BYTES_WRITTEN,
+        CACHE_HITS,
+        CACHE_MISSES,
+    }
+
+    private final boolean enabled;
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+    /**
+     * Constructs a new, empty collector.
+     */
+    public ObfuscationMetrics()
+    {
+        this(true);
+    }
+
+    private ObfuscationMetrics(boolean enabled)
+    {
+        this.enabled = enabled;
+        for (Counter c : Counter.values()) {
+            counters.put(c, new LongAdder());
+        }
+    }
+
+    /**
+     * @return Whether this collector records anything at all.
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Increments the given counter by one.
+     *
+     * @param counter The counter.
+     */
+    public void increment(Counter counter)
+    {
+        if (enabled) {
+            counters.get(counter).increment();
+        }
+    }
+
+    /**
+     * Increments the given counter by the given amount.
+     *
+     * @param counter The counter.
+     * @param amount The amount to add.
+     */
+    public void add(Counter counter, long amount)
+    {
+        if (enabled && amount != 0) {
+            counters.get(counter).add(amount);
+        }
+    }
+
+    /**
+     * @param counter The counter.
+     * @return The counter's current value.
+     */
+    public long getCount(Counter counter)
+    {
+        return counters.get(counter).sum();
+    }
+
+    /**
+     * Records that the given phase took the given amount of wall time.
+     *
+     * @param phase The phase name.
+     * @param nanos The duration, in nanoseconds.
+     */
+    public void recordTime(String phase, long nanos)
+    {
+        if (!enabled) {
+            return;
+        }
+        synchronized (phases) {
+            Phase p = phases.get(phase);
+            if (p == null) {
+                p = new Phase();
+                phases.put(phase, p);
+            }
+            p.count++;
+            p.nanos += nanos;
+        }
+    }
+
+    /**
+     * @return The names of all phases recorded so far, in order of first
+     *         occurrence.
+     */
+    public List<String> getPhases()
+    {
+        synchronized (phases) {
+            return new ArrayList<>(phases.keySet());
+        }
+    }
+
+    /**
+     * @param phase The phase name.
+     * @return The total wall time recorded for the phase, in nanoseconds.
+     */
+    public long getTotalNanos(String phase)
+    {
+        synchronized (phases) {
+            final Phase p = phases.get(phase);
+            return p != null ? p.nanos : 0;
+        }
+    }
+
+    /**
+     * @param phase The phase name.
+     * @return How often the phase was recorded.
+     */
+    public long getPhaseCount(String phase)
+    {
+        synchronized (phases) {
+            final Phase p = phases.get(phase);
+            return p != null ? p.count : 0;
+        }
+    }
+
+    /**
+     * Formats all recorded values as a JSON object of the form
+     * {@code {"phases": {"read": {"count": 1, "millis": 1.5}, ...},
+     * "counters": {"projectsProcessed": 1, ...}}}.
+     *
+     * @return The JSON summary.
+     */
+    public String toJson()
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append("{\"phases\":{");
+        synchronized (phases) {
+            boolean first = true;
+            for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendJsonString(sb, entry.getKey());
+                sb.append(":{\"count\":").append(entry.getValue().count);
+                sb.append(",\"millis\":");
+                sb.append(String.format(Locale.ROOT, "%.3f", entry.getValue().nanos / 1e6));
+                sb.append('}');
+            }
+        }
+
+        sb.append("},\"counters\":{");
+        boolean first = true;
+        for (Counter c : Counter.values()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            appendJsonString(sb, toCamelCase(c.name()));
+            sb.append(':').append(getCount(c));
+        }
+        sb.append("}}");
+
+        return sb.toString();
+    }
+
+    private static String toCamelCase(String constantName)
+    {
+        final StringBuilder sb = new StringBuilder();
+        boolean upper = false;
+        for (char c : constantName.toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                sb.append(upper ? c : Character.toLowerCase(c));
+                upper = false;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendJsonString(StringBuilder sb, String s)
+    {
+        sb.append('"');
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static class Phase
+    {
+        private long count;
+        private long nanos;
+    }
+}
@@ -2,7 +2,9 @@ package scratchobfuscator.modules;
 
 import static scratchlib.objects.user.morphs.ScratchObjectScriptableMorph.FIELD_VARS;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import scratchlib.objects.ScratchObject;
@@ -13,23 +15,83 @@ import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
 import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
 import scratchlib.project.ScratchProject;
 import scratchobfuscator.manipulators.GlobalVariablesManipulator;
+import scratchobfuscator.manipulators.Manipulation;
+import scratchobfuscator.manipulators.ProjectIndex;
+import scratchobfuscator.mappings.ObfuscationMappings;
+import scratchobfuscator.names.AlphabetNameGenerator;
+import scratchobfuscator.names.NameGenerator;
+import scratchobfuscator.names.RepeatedCharacterNameGenerator;
 
 
 /**
- * Obfuscation module that changes all global variables' names to consist only
- * of spaces, i.e. the first variable is called {@code " "} (1 space), the
- * second {@code "  "} (2 spaces), and so on. Their usages are updated as well.
+ * Obfuscation module that changes all global variables' names to names
+ * obtained from a {@link NameGenerator}. Their usages are updated as well.
+ *
+ * <p>
+ * By default, names consist only of spaces, i.e. the first variable is called
+ * {@code " "} (1 space), the second {@code "  "} (2 spaces), and so on. For
+ * projects with many variables, an {@link AlphabetNameGenerator} keeps names
+ * (and therefore the output) much shorter.
  */
 public class GlobalVariablesModule extends Module
 {
+    private final NameGenerator nameGenerator;
+    private volatile ObfuscationMappings mappings;
+
+    /**
+     * Constructs a new module generating names consisting of spaces.
+     */
+    public GlobalVariablesModule()
+    {
+        this(new RepeatedCharacterNameGenerator(' '));
+    }
+
+    /**
+     * Constructs a new module generating names with the given strategy.
+     *
+     * @param nameGenerator The name generator.
+     */
+    public GlobalVariablesModule(NameGenerator nameGenerator)
+    {
+        this.nameGenerator = nameGenerator;
+    }
+
+    @Override
+    public void setMappings(ObfuscationMappings mappings)
+    {
+        this.mappings = mappings;
+    }
+
+    @Override
+    public String getFingerprint()
+    {
+        return super.getFingerprint() + "(" + nameGenerator + ")";
+    }
+
     @Override
     public void process(ScratchProject project)
+    {
+        final Manipulation manipulation = new Manipulation(project.getStage());
+        register(project, manipulation);
+        manipulation.run();
+    }
+
+    @Override
+    public void register(ScratchProject project, Manipulation manipulation)
     {
         final ScratchObjectStageMorph stage = project.getStage();
 
-        // generate map, then apply
+        // generate map, then bind replacement
         final Map<String, String> nameMap = generateNameMap(stage);
-        GlobalVariablesManipulator.replaceAll(stage, nameMap);
+        GlobalVariablesManipulator.register(manipulation, nameMap);
+    }
+
+    @Override
+    public boolean apply(ScratchProject project, ProjectIndex index)
+    {
+        final Map<String, String> nameMap = generateNameMap(project.getStage());
+        GlobalVariablesManipulator.apply(index, nameMap);
+        return true;
     }
 
     /**
@@ -37,51 +99,60 @@ public class GlobalVariablesModule extends Module
      * replacements. The names are searched for in the given stage and the
      * stage's sprites.
      *
+     * <p>
+     * The names are first gathered per morph (in parallel, for large
+     * projects), then numbered in document order, so the mapping is the same
+     * as if the morphs were scanned one after another.
+     *
+     * <p>
+     * If mappings are set, names found there keep their previous replacement.
+     * New names are assigned through the mappings, which skip any generated
+     * name that is already taken by another replacement. The assignment is
+     * atomic, so projects sharing the mappings can be processed concurrently.
+     *
      * @param stage The search target.
      * @return A map of old names to replacement names.
      */
     private Map<String, String> generateNameMap(ScratchObjectStageMorph stage)
     {
-        final Map<String, String> nameMap = new HashMap<>();
+        final List<List<String>> namesPerMorph = MorphGatherer.gather(stage, GlobalVariablesModule::collectNames);
 
-        // fill with the stage's variables
-        fillNameMap(stage, nameMap);
+        final ObfuscationMappings mappings = this.mappings;
 
-        // fill with the sprites' variables
-        for (int i = 0, n = stage.getSpriteCount(); i < n; ++i) {
-            fillNameMap(stage.getSprite(i), nameMap);
+        final Map<String, String> nameMap = new HashMap<>();
+        int nextIndex = 0;
+        for (List<String> names : namesPerMorph) {
+            for (int i = 0, n = names.size(); i < n; ++i) {
+                final String name = names.get(i);
+                if (nameMap.containsKey(name)) {
+                    continue;
+                }
+                // name not yet found? - generate (or reuse) and put
+                if (mappings != null) {
+                    nameMap.put(name, mappings.assignName(name, nameGenerator::generate));
+                } else {
+                    nameMap.put(name, nameGenerator.generate(nextIndex++));
+                }
+            }
         }
 
         return nameMap;
     }
 
     /**
-     * Obfuscates all of the given morph's variables, storing the resulting
-     * mappings in {@code target}.
+     * Lists the names of all of the given morph's variables, in order.
      *
      * @param morph The source morph.
-     * @param target The target map to fill.
+     * @return The variable names.
      */
-    private void fillNameMap(ScratchObjectScriptableMorph morph, Map<String, String> target)
+    private static List<String> collectNames(ScratchObjectScriptableMorph morph)
     {
         final ScratchObjectAbstractDictionary vars = (ScratchObjectDictionary) morph.getField(FIELD_VARS);
 
+        final List<String> names = new ArrayList<>(vars.size());
         for (final ScratchObject key : vars.keySet()) {
-            final String name = ((ScratchObjectAbstractString) key).getValue();
-            // name not yet found? - generate and put
-            if (!target.containsKey(name)) {
-                target.put(name, generateVariableName(target.size()));
-            }
+            names.add(((ScratchObjectAbstractString) key).getValue());
         }
-    }
-
-    private String generateVariableName(int position)
-    {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < position + 1; ++i) {
-            sb.append(' ');
-        }
-
-        return sb.toString();
+        return names;
     }
 }
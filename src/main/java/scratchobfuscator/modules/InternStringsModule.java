@@ -0,0 +1,100 @@
+package scratchobfuscator.modules;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.data.ScratchObjectAbstractString;
+import scratchlib.objects.fixed.data.ScratchObjectString;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.project.ScratchProject;
+import scratchobfuscator.manipulators.BlockView;
+import scratchobfuscator.manipulators.Manipulation;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
+
+
+/**
+ * Obfuscation module that makes all equal strings in blocks share a single
+ * object, e.g. every {@code "readVariable"} selector or every occurrence of
+ * the same variable name. The writer then serializes each distinct string only
+ * once and refers to it by reference everywhere else, which shrinks the
+ * output.
+ *
+ * <p>
+ * Strings of different types (UTF-8 strings, plain strings, symbols) are never
+ * merged with one another. This module should run after all modules that
+ * replace strings, so that it sees the final values.
+ */
+public class InternStringsModule extends Module
+{
+    @Override
+    public void process(ScratchProject project)
+    {
+        final Manipulation manipulation = new Manipulation(project.getStage());
+        register(project, manipulation);
+        manipulation.run();
+    }
+
+    @Override
+    public void register(ScratchProject project, Manipulation manipulation)
+    {
+        final StringPool pool = new StringPool();
+
+        manipulation.forEachBlock(block -> {
+            for (int i = 0, n = block.size(); i < n; ++i) {
+                final ScratchObject obj = block.get(i);
+                final ScratchObject canonical = pool.intern(obj);
+                if (canonical != obj) {
+                    block.set(i, canonical);
+                    manipulation.getMetrics().increment(Counter.STRINGS_INTERNED);
+                }
+            }
+        });
+    }
+
+    /**
+     * Thread-safe pool of canonical string objects, one map per string type.
+     */
+    private static class StringPool
+    {
+        private final Map<String, ScratchObject> utf8Strings = new ConcurrentHashMap<>();
+        private final Map<String, ScratchObject> strings = new ConcurrentHashMap<>();
+        private final Map<String, ScratchObject> symbols = new ConcurrentHashMap<>();
+
+        /**
+         * @param obj Any object.
+         * @return The canonical instance equal to the given string object, or
+         *         the given object itself if it is the first of its value or
+         *         not a string at all.
+         */
+        private ScratchObject intern(ScratchObject obj)
+        {
+            final Map<String, ScratchObject> pool = selectPool(obj);
+            if (pool == null) {
+                return obj;
+            }
+            final ScratchObject existing = pool.putIfAbsent(((ScratchObjectAbstractString) obj).getValue(), obj);
+            return existing != null ? existing : obj;
+        }
+
+        private Map<String, ScratchObject> selectPool(ScratchObject obj)
+        {
+            // exact types only, so that subclasses are never merged
+            if (obj == null) {
+                return null;
+            }
+            final Class<?> type = obj.getClass();
+            if (type == ScratchObjectUtf8.class) {
+                return utf8Strings;
+            }
+            if (type == ScratchObjectString.class) {
+                return strings;
+            }
+            if (type == ScratchObjectSymbol.class) {
+                return symbols;
+            }
+            return null;
+        }
+    }
+}
@@ -1,17 +1,104 @@
 package scratchobfuscator.modules;
 
 import scratchlib.project.ScratchProject;
+import scratchobfuscator.manipulators.Manipulation;
+import scratchobfuscator.manipulators.ProjectIndex;
+import scratchobfuscator.mappings.ObfuscationMappings;
 
 
 /**
  * A module performs exactly one obfuscation step.
+ *
+ * <p>
+ * A module instance may be used by several threads at once, each processing a
+ * different project. Implementations must therefore not keep per-project state
+ * in fields, and configuration set through {@link #setMappings(
+ * ObfuscationMappings)} must be safely visible to all threads. New
+ * replacements must be recorded through {@link ObfuscationMappings#assignName(
+ * String, java.util.function.IntFunction)} or
+ * {@link ObfuscationMappings#assignSpec(String, String,
+ * java.util.function.IntFunction)}, never by checking a snapshot and putting
+ * the result afterwards: concurrently processed projects could otherwise hand
+ * out the same replacement twice.
  */
 public abstract class Module
 {
+    /**
+     * Sets the mappings this module reuses previously assigned replacements
+     * from, and records newly assigned replacements in. Modules that do not
+     * assign replacement names ignore this, as does the default
+     * implementation.
+     *
+     * @param mappings The mappings, or {@code null} to assign all
+     *            replacements from scratch.
+     */
+    public void setMappings(ObfuscationMappings mappings)
+    {
+    }
+
+    /**
+     * Describes this module and its configuration. Two modules with equal
+     * fingerprints must produce equal results for equal input, which allows
+     * results to be cached.
+     *
+     * <p>
+     * The default implementation returns the class name, which is appropriate
+     * for modules without configuration. Configurable modules must override
+     * this method.
+     *
+     * @return The module fingerprint.
+     */
+    public String getFingerprint()
+    {
+        return getClass().getName();
+    }
+
     /**
      * Processes the given project.
      *
      * @param project The project.
      */
     public abstract void process(ScratchProject project);
+
+    /**
+     * Processes the given project, but instead of traversing the project's
+     * scripts on its own, binds the necessary rewrites to the given
+     * manipulation. The caller runs the manipulation once all modules have been
+     * registered, so that the scripts are traversed only once in total.
+     *
+     * <p>
+     * Any analysis of the project (e.g. collecting names) happens immediately
+     * and therefore sees the project before any of the shared rewrites are
+     * applied. The default implementation simply calls
+     * {@link #process(ScratchProject)}, which is appropriate for modules that do
+     * not traverse scripts.
+     *
+     * @param project The project.
+     * @param manipulation The shared manipulation of the project's stage.
+     */
+    public void register(ScratchProject project, Manipulation manipulation)
+    {
+        process(project);
+    }
+
+    /**
+     * Processes the given project, applying all rewrites directly at the
+     * locations recorded in the given index instead of traversing the
+     * project's scripts. The index was built from the project before any
+     * module processed it.
+     *
+     * <p>
+     * Modules that do not support this return {@code false} without doing
+     * anything, and are then processed through
+     * {@link #register(ScratchProject, Manipulation)} instead. This is what
+     * the default implementation does.
+     *
+     * @param project The project.
+     * @param index The index of the project.
+     * @return Whether the project was processed.
+     */
+    public boolean apply(ScratchProject project, ProjectIndex index)
+    {
+        return false;
+    }
 }
@@ -0,0 +1,55 @@
+package scratchobfuscator.modules;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
+import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+
+
+/**
+ * Utility for the analysis phase of modules: applies some read-only function
+ * to the stage and each of its sprites, possibly in parallel, and returns the
+ * results in document order (stage first, then sprites in order).
+ *
+ * <p>
+ * Since the result order never depends on scheduling, a sequential merge of
+ * the results yields exactly the same outcome as a fully sequential scan.
+ */
+final class MorphGatherer
+{
+    /**
+     * The minimum number of sprites for which gathering runs in parallel. For
+     * smaller projects, the overhead of forking outweighs the gain.
+     */
+    static final int PARALLEL_THRESHOLD = 8;
+
+    private MorphGatherer()
+    {
+    }
+
+    /**
+     * Applies the given function to the stage and each sprite. The function
+     * must not modify the morphs, as it may be called concurrently.
+     *
+     * @param <T> The result type.
+     * @param stage The stage.
+     * @param function The function to apply to each morph.
+     * @return The results, at index 0 for the stage and at {@code i + 1} for
+     *         the sprite at index {@code i}.
+     */
+    static <T> List<T> gather(ScratchObjectStageMorph stage, Function<ScratchObjectScriptableMorph, T> function)
+    {
+        final int spriteCount = stage.getSpriteCount();
+
+        IntStream indices = IntStream.rangeClosed(0, spriteCount);
+        if (spriteCount >= PARALLEL_THRESHOLD) {
+            indices = indices.parallel();
+        }
+
+        return indices.mapToObj(i -> function.apply(i == 0 ? stage : stage.getSprite(i - 1)))
+                .collect(Collectors.toList());
+    }
+}
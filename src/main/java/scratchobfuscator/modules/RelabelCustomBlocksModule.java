@@ -1,10 +1,18 @@
 package scratchobfuscator.modules;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractCollection;
+import scratchlib.objects.fixed.data.ScratchObjectAbstractString;
 import scratchlib.objects.user.ScratchObjectCustomBlockDefinition;
 import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
 import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
@@ -12,7 +20,13 @@ import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
 import scratchobfuscator.blocks.UserSpec;
 import scratchobfuscator.blocks.UserSpecParser;
+import scratchobfuscator.manipulators.BlockView;
+import scratchobfuscator.manipulators.Manipulation;
+import scratchobfuscator.manipulators.ProjectIndex;
 import scratchobfuscator.manipulators.UserSpecManipulator;
+import scratchobfuscator.mappings.ObfuscationMappings;
+import scratchobfuscator.names.AlphabetNameGenerator;
+import scratchobfuscator.names.NameGenerator;
 
 
 /**
@@ -26,12 +40,58 @@ import scratchobfuscator.manipulators.UserSpecManipulator;
  * <li>all labels are removed, only parameters kept
  * <li>to disambiguate, if two blocks share the same parameters, some character
  * is appended
- * <li>all usages (invocations) of custom blocks are updated accordingly
+ * <li>optionally, parameters are renamed to the shortest names unique within
+ * their spec that no other block variable read in the definition uses
+ * <li>all usages (invocations and parameter variables) of custom blocks are
+ * updated accordingly
  * </ul>
  */
 public class RelabelCustomBlocksModule extends Module
 {
     private static final String SPEC_SUFFIX = "x";
+    private static final String SELECTOR_BLOCK_VARIABLE = "readBlockVariable";
+
+    private static final NameGenerator PARAMETER_NAMES = new AlphabetNameGenerator("abcdefghijklmnopqrstuvwxyz");
+
+    private final boolean minimizeParameters;
+    private volatile ObfuscationMappings mappings;
+
+    /**
+     * Constructs a new module that keeps the original parameter names.
+     */
+    public RelabelCustomBlocksModule()
+    {
+        this(false);
+    }
+
+    /**
+     * @param minimizeParameters Whether to rename the parameters of every spec
+     *            to the shortest names unique within that spec.
+     */
+    public RelabelCustomBlocksModule(boolean minimizeParameters)
+    {
+        this.minimizeParameters = minimizeParameters;
+    }
+
+    /**
+     * @return Whether parameters are renamed to the shortest unique names.
+     */
+    public boolean isMinimizeParameters()
+    {
+        return minimizeParameters;
+    }
+
+    @Override
+    public void setMappings(ObfuscationMappings mappings)
+    {
+        this.mappings = mappings;
+    }
+
+    @Override
+    public String getFingerprint()
+    {
+        return minimizeParameters ? super.getFingerprint() + "(minimizeParameters)" : super.getFingerprint();
+    }
 
     @Override
     public void process(ScratchProject project)
@@ -40,11 +100,36 @@ public class RelabelCustomBlocksModule extends Module
             return;
         }
 
+        final Manipulation manipulation = new Manipulation(project.getStage());
+        register(project, manipulation);
+        manipulation.run();
+    }
+
+    @Override
+    public void register(ScratchProject project, Manipulation manipulation)
+    {
+        if (project.getVersion() != ScratchVersion.BYOB311) {
+            return;
+        }
+
         final ScratchObjectStageMorph stage = project.getStage();
 
-        // generate map, then apply
+        // generate maps, then bind replacement
         final Map<String, String> specMap = generateSpecMap(stage);
-        UserSpecManipulator.replaceAll(stage, specMap);
+        final Map<String, Map<String, String>> parameterMap = generateParameterMap(specMap);
+        UserSpecManipulator.register(manipulation, specMap, parameterMap);
+    }
+
+    @Override
+    public boolean apply(ScratchProject project, ProjectIndex index)
+    {
+        if (project.getVersion() != ScratchVersion.BYOB311) {
+            return true;
+        }
+
+        final Map<String, String> specMap = generateSpecMap(project.getStage());
+        UserSpecManipulator.apply(index, specMap, generateParameterMap(specMap));
+        return true;
     }
 
     /**
@@ -52,86 +137,230 @@ public class RelabelCustomBlocksModule extends Module
      * obfuscated replacements. The specs are searched for in the given stage
      * and the stage's sprites.
      *
+     * <p>
+     * The specs are first gathered and parsed per morph (in parallel, for
+     * large projects), then obfuscated in document order, so the mapping is
+     * the same as if the morphs were scanned one after another.
+     *
+     * <p>
+     * If mappings are set, specs found there keep their previous replacement.
+     * New specs are assigned through the mappings, which make them not collide
+     * with any other replacement. The assignment is atomic, so projects sharing
+     * the mappings can be processed concurrently.
+     *
      * @param stage The search target.
      * @return A map of old specs to replacement specs.
      */
     private Map<String, String> generateSpecMap(ScratchObjectStageMorph stage)
     {
-        final Map<String, String> specMap = new HashMap<>();
-        final List<UserSpec> existing = new ArrayList<>();
+        final List<List<ParsedSpec>> specsPerMorph = MorphGatherer.gather(stage,
+                morph -> collectSpecs(morph, minimizeParameters));
+        final Map<String, Set<String>> reservedNames = minimizeParameters ? collectReservedNames(specsPerMorph)
+                : Collections.emptyMap();
+
+        final ObfuscationMappings mappings = this.mappings;
 
-        // fill with the stage's custom blocks
-        fillSpecMap(stage, specMap, existing);
+        final Map<String, String> specMap = new HashMap<>();
+        final SpecIndex existing = new SpecIndex();
 
-        // fill with the sprites' custom blocks
-        for (int i = 0, n = stage.getSpriteCount(); i < n; ++i) {
-            fillSpecMap(stage.getSprite(i), specMap, existing);
+        for (List<ParsedSpec> specs : specsPerMorph) {
+            for (int i = 0, n = specs.size(); i < n; ++i) {
+                final ParsedSpec spec = specs.get(i);
+                // check if new custom block spec
+                if (specMap.containsKey(spec.source)) {
+                    continue;
+                }
+                // obfuscate spec (or reuse the previous replacement) and insert
+                final UserSpec source = minimizeParameters
+                        ? minimizeParameterNames(spec.spec, reservedNames.get(spec.source))
+                        : spec.spec;
+                if (mappings != null) {
+                    specMap.put(spec.source, mappings.assignSpec(spec.source, spec.shape,
+                            suffixLength -> generateSuffixedSpec(source, suffixLength).toString()));
+                } else {
+                    specMap.put(spec.source, obfuscateSpec(source, spec.shape, existing).toString());
+                }
+            }
         }
 
         return specMap;
     }
 
     /**
-     * Obfuscates all of the given morph's custom blocks, storing the resulting
-     * mappings in {@code target} and using {@code existing} to avoid collisions
-     * with already obfuscated specs.
+     * Generates, for every spec in the given spec map whose parameters are
+     * named differently in its replacement, a map of old parameter names to new
+     * parameter names. Since the obfuscated specs keep all parameters in their
+     * original order, the parameters are matched by position. This also covers
+     * replacements taken from previously recorded mappings.
      *
-     * @param morph The source morph.
-     * @param target The target map to fill.
-     * @param existing The list of already obfuscated specs.
+     * @param specMap The map of old specs to replacement specs.
+     * @return A map of old specs to parameter rename maps.
      */
-    private void fillSpecMap(ScratchObjectScriptableMorph morph, Map<String, String> target, List<UserSpec> existing)
+    private static Map<String, Map<String, String>> generateParameterMap(Map<String, String> specMap)
     {
-        for (int i = 0, n = morph.getCustomBlockCount(); i < n; ++i) {
+        final Map<String, Map<String, String>> parameterMap = new HashMap<>();
+        for (Map.Entry<String, String> entry : specMap.entrySet()) {
+            final UserSpec oldSpec = UserSpecParser.parse(entry.getKey());
+            final UserSpec newSpec = UserSpecParser.parse(entry.getValue());
 
-            final ScratchObjectCustomBlockDefinition block = morph.getCustomBlock(i);
-            final String specString = block.getUserSpec();
-
-            // check if new custom block spec
-            if (!target.containsKey(specString)) {
-                // obfuscate spec and insert
-                final UserSpec newSpec = obfuscateSpec(specString, existing);
-                target.put(specString, newSpec.toString());
-                existing.add(newSpec);
+            final Map<String, String> renames = new HashMap<>();
+            int j = 0;
+            for (int i = 0, n = oldSpec.getPartCount(); i < n; ++i) {
+                if (!oldSpec.isParameter(i)) {
+                    continue;
+                }
+                while (j < newSpec.getPartCount() && !newSpec.isParameter(j)) {
+                    ++j;
+                }
+                if (j >= newSpec.getPartCount()) {
+                    break;
+                }
+                final String oldName = oldSpec.getText(i), newName = newSpec.getText(j++);
+                if (!oldName.equals(newName)) {
+                    renames.putIfAbsent(oldName, newName);
+                }
             }
 
+            if (!renames.isEmpty()) {
+                parameterMap.put(entry.getKey(), renames);
+            }
         }
+        return parameterMap;
     }
 
     /**
-     * Obfuscates the given user spec string, making sure to avoid collisions
-     * with the existing obfuscated specs.
+     * Parses the user specs of all of the given morph's custom blocks, in
+     * order.
      *
-     * @param specString The spec to obfuscate.
-     * @param existing The list of already obfuscated specs.
-     * @return The obfuscation result.
+     * @param morph The source morph.
+     * @param collectBlockVariables Whether to also collect the names of the
+     *            block variables read in each definition.
+     * @return The parsed specs.
      */
-    private UserSpec obfuscateSpec(String specString, List<UserSpec> existing)
+    private static List<ParsedSpec> collectSpecs(ScratchObjectScriptableMorph morph, boolean collectBlockVariables)
     {
-        final UserSpec spec = UserSpecParser.parse(specString);
-        final UserSpec newSpec = generateParamOnlySpec(spec);
+        final int count = morph.getCustomBlockCount();
+        final List<ParsedSpec> specs = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            final ScratchObjectCustomBlockDefinition block = morph.getCustomBlock(i);
+            final ParsedSpec spec = new ParsedSpec(block.getUserSpec());
+            if (collectBlockVariables && block.getBody() != null) {
+                collectBlockVariableNames(block.getBody(), spec.blockVariables);
+            }
+            specs.add(spec);
+        }
+        return specs;
+    }
 
-        boolean exists;
-        do {
-            exists = existing.stream().anyMatch(newSpec::isSimilar);
-            if (exists) {
-                appendSuffix(newSpec, SPEC_SUFFIX);
+    /**
+     * Adds the names of all block variables read anywhere in the given script
+     * (parameters, script variables and upvars alike) to the given set.
+     *
+     * @param script The script to search.
+     * @param names The set to add to.
+     */
+    private static void collectBlockVariableNames(ScratchObjectAbstractCollection script, Set<String> names)
+    {
+        final Deque<ScratchObjectAbstractCollection> stack = new ArrayDeque<>();
+        final BlockView view = new BlockView(script);
+        stack.push(script);
+        while (!stack.isEmpty()) {
+            final ScratchObjectAbstractCollection block = stack.pop();
+            view.retarget(block);
+            if (SELECTOR_BLOCK_VARIABLE.equals(view.getSelector()) && view.size() > 1
+                    && view.get(1) instanceof ScratchObjectAbstractString) {
+                names.add(((ScratchObjectAbstractString) view.get(1)).getValue());
             }
-        } while (exists);
+            for (int i = 0, n = block.size(); i < n; ++i) {
+                final ScratchObject child = block.get(i);
+                if (child instanceof ScratchObjectAbstractCollection) {
+                    stack.push((ScratchObjectAbstractCollection) child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Determines, for every spec, the names its minimized parameters must not
+     * take: those of the block variables read in any of its definitions that
+     * are not parameters of the spec itself. Taking one of them would make the
+     * renamed parameter shadow that variable.
+     *
+     * @param specsPerMorph The specs of every morph.
+     * @return A map of spec strings to reserved names.
+     */
+    private static Map<String, Set<String>> collectReservedNames(List<List<ParsedSpec>> specsPerMorph)
+    {
+        final Map<String, Set<String>> reservedNames = new HashMap<>();
+        for (List<ParsedSpec> specs : specsPerMorph) {
+            for (ParsedSpec spec : specs) {
+                reservedNames.computeIfAbsent(spec.source, k -> new HashSet<>()).addAll(spec.blockVariables);
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : reservedNames.entrySet()) {
+            final UserSpec spec = UserSpecParser.parse(entry.getKey());
+            for (int i = 0, n = spec.getPartCount(); i < n; ++i) {
+                if (spec.isParameter(i)) {
+                    entry.getValue().remove(spec.getText(i));
+                }
+            }
+        }
+        return reservedNames;
+    }
+
+    /**
+     * Obfuscates the given user spec, making sure to avoid collisions with the
+     * existing obfuscated specs. The result is added to the index.
+     *
+     * @param spec The spec to obfuscate.
+     * @param shape The spec's parameter shape.
+     * @param existing The index of already obfuscated specs.
+     * @return The obfuscation result.
+     */
+    private static UserSpec obfuscateSpec(UserSpec spec, String shape, SpecIndex existing)
+    {
+        // start at the first suffix length not yet handed out for this shape
+        int suffixLength = existing.nextSuffixLength(shape);
+        UserSpec newSpec = generateSuffixedSpec(spec, suffixLength);
+        while (!existing.add(newSpec)) {
+            newSpec = generateSuffixedSpec(spec, ++suffixLength);
+        }
+        existing.setNextSuffixLength(shape, suffixLength + 1);
 
         return newSpec;
     }
 
     /**
-     * Creates a duplicate of the given user spec but only containing parameters
-     * (all labels are removed). The original is unchanged.
+     * Creates a parameter-only duplicate of the given spec, with the suffix
+     * string appended the given number of times.
+     *
+     * @param spec The original user spec.
+     * @param suffixLength The number of suffix repetitions.
+     * @return The suffixed parameter-only spec.
+     */
+    private static UserSpec generateSuffixedSpec(UserSpec spec, int suffixLength)
+    {
+        final UserSpec.Builder newSpec = generateParamOnlySpec(spec);
+        if (suffixLength > 0) {
+            final StringBuilder suffix = new StringBuilder();
+            for (int i = 0; i < suffixLength; ++i) {
+                suffix.append(SPEC_SUFFIX);
+            }
+            appendSuffix(newSpec, suffix.toString());
+        }
+        return newSpec.build();
+    }
+
+    /**
+     * Starts a duplicate of the given user spec but only containing parameters
+     * (all labels are removed).
      *
      * @param spec The original user spec.
-     * @return A parameter-only spec.
+     * @return A builder holding the parameter-only spec.
      */
-    private UserSpec generateParamOnlySpec(UserSpec spec)
+    private static UserSpec.Builder generateParamOnlySpec(UserSpec spec)
     {
-        final UserSpec newSpec = new UserSpec();
+        final UserSpec.Builder newSpec = new UserSpec.Builder();
         for (int i = 0, n = spec.getPartCount(); i < n; ++i) {
             if (spec.isParameter(i)) {
                 newSpec.addParameter(spec.getText(i));
@@ -140,13 +369,43 @@ public class RelabelCustomBlocksModule extends Module
         return newSpec;
     }
 
+    /**
+     * Creates a duplicate of the given user spec with the parameters renamed to
+     * the shortest names unique within the spec ({@code a, b, ..., z, aa,
+     * ...}), in order of first appearance, skipping the reserved names.
+     * Repeated parameter names are renamed consistently.
+     *
+     * @param spec The original user spec.
+     * @param reserved The names not to use.
+     * @return A spec with minimized parameter names.
+     */
+    private static UserSpec minimizeParameterNames(UserSpec spec, Set<String> reserved)
+    {
+        final Map<String, String> names = new HashMap<>();
+        final UserSpec.Builder newSpec = spec.toBuilder();
+        int nextIndex = 0;
+        for (int i = 0, n = spec.getPartCount(); i < n; ++i) {
+            if (spec.isParameter(i)) {
+                String name = names.get(spec.getText(i));
+                if (name == null) {
+                    do {
+                        name = PARAMETER_NAMES.generate(nextIndex++);
+                    } while (reserved.contains(name));
+                    names.put(spec.getText(i), name);
+                }
+                newSpec.setText(i, name);
+            }
+        }
+        return newSpec.build();
+    }
+
     /**
      * Intelligently appends the given suffix to the user spec.
      *
-     * @param spec The user spec.
+     * @param spec The user spec builder.
      * @param suffix The suffix string to append.
      */
-    private void appendSuffix(UserSpec spec, String suffix)
+    private static void appendSuffix(UserSpec.Builder spec, String suffix)
     {
         int last = spec.getPartCount() - 1;
         if (last < 0 || spec.isParameter(last)) {
@@ -155,4 +414,57 @@ public class RelabelCustomBlocksModule extends Module
             spec.setText(last, spec.getText(last) + suffix);
         }
     }
+
+    /**
+     * A custom block's original user spec string, together with its parsed
+     * form, parameter shape and, if collected, the names of the block
+     * variables read in its definition.
+     */
+    private static class ParsedSpec
+    {
+        private final String source;
+        private final UserSpec spec;
+        private final String shape;
+        private final Set<String> blockVariables = new HashSet<>();
+
+        private ParsedSpec(String source)
+        {
+            this.source = source;
+            this.spec = UserSpecParser.parse(source);
+            this.shape = generateParamOnlySpec(spec).build().getSimilarityKey();
+        }
+    }
+
+    /**
+     * Hash-based index of obfuscated specs, tracking which specs (up to
+     * similarity) are taken and, for each parameter shape, how many suffix
+     * characters the next spec of that shape needs.
+     */
+    private static class SpecIndex
+    {
+        private final Set<String> usedKeys = new HashSet<>();
+        private final Map<String, Integer> nextSuffixLengths = new HashMap<>();
+
+        /**
+         * Adds the given spec to the index, unless a similar one is present.
+         *
+         * @param spec The spec to add.
+         * @return Whether the spec was added (i.e. it did not collide).
+         */
+        public boolean add(UserSpec spec)
+        {
+            return usedKeys.add(spec.getSimilarityKey());
+        }
+
+        public int nextSuffixLength(String shape)
+        {
+            final Integer length = nextSuffixLengths.get(shape);
+            return length != null ? length : 0;
+        }
+
+        public void setNextSuffixLength(String shape, int length)
+        {
+            nextSuffixLengths.put(shape, length);
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package scratchobfuscator.names;
+
+
+/**
+ * Generates names by encoding the index in bijective base-k over a given
+ * alphabet of k characters. For the alphabet {@code "ab"}, the names are
+ * {@code a, b, aa, ab, ba, bb, aaa, ...}. Name length grows logarithmically
+ * with the index (for k &gt; 1).
+ */
+public class AlphabetNameGenerator implements NameGenerator
+{
+    /**
+     * Characters that render as blank space in most fonts.
+     */
+    public static final String INVISIBLE = " \u00A0\u2002\u2003\u2009\u200A";
+
+    /**
+     * Characters that are easily confused with one another.
+     */
+    public static final String CONFUSABLE = "Il1|";
+
+    private final char[] alphabet;
+
+    /**
+     * @param alphabet The characters to build names from (must be non-empty
+     *            and free of duplicates).
+     */
+    public AlphabetNameGenerator(String alphabet)
+    {
+        if (alphabet.isEmpty()) {
+            throw new IllegalArgumentException("alphabet must not be empty");
+        }
+        for (int i = 0; i < alphabet.length(); ++i) {
+            if (alphabet.indexOf(alphabet.charAt(i), i + 1) >= 0) {
+                throw new IllegalArgumentException("alphabet must not contain duplicates");
+            }
+        }
+        this.alphabet = alphabet.toCharArray();
+    }
+
+    @Override
+    public String generate(int index)
+    {
+        if (index < 0) {
+            throw new IllegalArgumentException("index must not be negative");
+        }
+
+        final int base = alphabet.length;
+
+        // determine length first, so the result can be filled back to front
+        int length = 1;
+        for (long remaining = index, capacity = base; remaining >= capacity; capacity *= base) {
+            remaining -= capacity;
+            ++length;
+        }
+
+        final char[] chars = new char[length];
+        long n = index + 1L;
+        for (int i = length - 1; i >= 0; --i) {
+            final long digit = (n - 1) % base;
+            chars[i] = alphabet[(int) digit];
+            n = (n - 1) / base;
+        }
+
+        return new String(chars);
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder("AlphabetNameGenerator(");
+        for (int i = 0; i < alphabet.length; ++i) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append((int) alphabet[i]);
+        }
+        return sb.append(')').toString();
+    }
+}
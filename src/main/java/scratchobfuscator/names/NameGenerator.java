@@ -0,0 +1,23 @@
+package scratchobfuscator.names;
+
+
+/**
+ * Strategy for generating obfuscated names. Each index must map to a distinct,
+ * non-empty name, and the same index must always map to the same name.
+ *
+ * <p>
+ * Implementations should override {@link Object#toString()} to describe their
+ * configuration, so that equally configured generators have equal strings.
+ * This is used to identify cached results; the default identity-based string
+ * is safe, but prevents sharing results between program runs.
+ */
+public interface NameGenerator
+{
+    /**
+     * Generates the name for the given index.
+     *
+     * @param index The zero-based index of the name.
+     * @return The generated name.
+     */
+    String generate(int index);
+}
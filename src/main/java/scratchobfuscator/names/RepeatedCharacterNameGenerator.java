@@ -0,0 +1,36 @@
+package scratchobfuscator.names;
+
+
+/**
+ * Generates names consisting of a single repeated character, i.e. the first
+ * name is that character once, the second name is that character twice, and so
+ * on. Name length grows linearly with the index.
+ */
+public class RepeatedCharacterNameGenerator implements NameGenerator
+{
+    private final char character;
+
+    /**
+     * @param character The character to repeat.
+     */
+    public RepeatedCharacterNameGenerator(char character)
+    {
+        this.character = character;
+    }
+
+    @Override
+    public String generate(int index)
+    {
+        final char[] chars = new char[index + 1];
+        for (int i = 0; i < chars.length; ++i) {
+            chars[i] = character;
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RepeatedCharacterNameGenerator(" + (int) character + ")";
+    }
+}
@@ -0,0 +1,160 @@
+package scratchobfuscator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+import scratchobfuscator.modules.Module;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class AsyncObfuscatorTest
+{
+    private static final Path INPUT_EMPTY = Paths.get("./src/test/resources/input-empty.sb");
+
+    private static class BlockingModule extends Module
+    {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void process(ScratchProject project)
+        {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static AsyncObfuscator create(Module module, int queueCapacity, AsyncObfuscator.OverflowPolicy policy)
+    {
+        return new AsyncObfuscator(new ScratchObfuscator(Collections.singletonList(module)), 1, queueCapacity,
+                policy);
+    }
+
+    @Test
+    public void processesBytesLikeSynchronousApi() throws Exception
+    {
+        final byte[] input = Files.readAllBytes(INPUT_EMPTY);
+        final ScratchObfuscator obf = new ScratchObfuscator();
+
+        try (AsyncObfuscator async = new AsyncObfuscator(obf, 2, 4, AsyncObfuscator.OverflowPolicy.REJECT)) {
+            assertArrayEquals(obf.processBytes(input), async.submit(input).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void processesFiles(@TempDir Path temp) throws Exception
+    {
+        final Path out = temp.resolve("out.sb");
+
+        try (AsyncObfuscator async = new AsyncObfuscator(new ScratchObfuscator(), 2, 4,
+                AsyncObfuscator.OverflowPolicy.REJECT)) {
+            async.submit(INPUT_EMPTY.toFile(), out.toFile()).get(10, TimeUnit.SECONDS);
+        }
+
+        assertTrue(Files.isRegularFile(out));
+    }
+
+    @Test
+    public void completesExceptionallyOnFailure()
+    {
+        final IllegalStateException failure = new IllegalStateException();
+        final Module module = new Module()
+        {
+            @Override
+            public void process(ScratchProject project)
+            {
+                throw failure;
+            }
+        };
+
+        try (AsyncObfuscator async = create(module, 0, AsyncObfuscator.OverflowPolicy.REJECT)) {
+            final CompletableFuture<ScratchProject> future = async.submit(new ScratchProject(ScratchVersion.SCRATCH14));
+            final ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> future.get(10, TimeUnit.SECONDS));
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() throws Exception
+    {
+        final BlockingModule module = new BlockingModule();
+        try (AsyncObfuscator async = create(module, 1, AsyncObfuscator.OverflowPolicy.REJECT)) {
+            final ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+            final CompletableFuture<ScratchProject> running = async.submit(project);
+            assertTrue(module.started.await(10, TimeUnit.SECONDS));
+            final CompletableFuture<ScratchProject> queued = async.submit(project);
+
+            final CompletableFuture<ScratchProject> rejected = async.submit(project);
+            final ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+
+            module.release.countDown();
+            assertSame(project, running.get(10, TimeUnit.SECONDS));
+            assertSame(project, queued.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void blocksWhenQueueIsFull() throws Exception
+    {
+        final BlockingModule module = new BlockingModule();
+        try (AsyncObfuscator async = create(module, 0, AsyncObfuscator.OverflowPolicy.BLOCK)) {
+            final ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+            final CompletableFuture<ScratchProject> running = async.submit(project);
+            assertTrue(module.started.await(10, TimeUnit.SECONDS));
+
+            final CountDownLatch submitted = new CountDownLatch(1);
+            final Thread submitter = new Thread(() -> {
+                async.submit(project);
+                submitted.countDown();
+            });
+            submitter.start();
+            assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+            module.release.countDown();
+            assertSame(project, running.get(10, TimeUnit.SECONDS));
+            assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void rejectsAfterClose() throws InterruptedException
+    {
+        final AsyncObfuscator async = new AsyncObfuscator(new ScratchObfuscator(), 1, 1,
+                AsyncObfuscator.OverflowPolicy.BLOCK);
+        async.close();
+        assertTrue(async.awaitTermination(10, TimeUnit.SECONDS));
+
+        final CompletableFuture<ScratchProject> future = async.submit(new ScratchProject(ScratchVersion.SCRATCH14));
+        final ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void rejectsInvalidArguments()
+    {
+        final ScratchObfuscator obf = new ScratchObfuscator();
+        assertThrows(IllegalArgumentException.class,
+                () -> new AsyncObfuscator(obf, 0, 1, AsyncObfuscator.OverflowPolicy.REJECT));
+        assertThrows(IllegalArgumentException.class,
+                () -> new AsyncObfuscator(obf, 1, -1, AsyncObfuscator.OverflowPolicy.REJECT));
+        assertThrows(IllegalArgumentException.class, () -> new AsyncObfuscator(obf, 1, 1, null));
+    }
+}
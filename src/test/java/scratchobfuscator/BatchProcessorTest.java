@@ -0,0 +1,228 @@
+package scratchobfuscator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scratchlib.objects.fixed.collections.ScratchObjectDictionary;
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
+import scratchlib.project.ScratchProject;
+import scratchlib.writer.ScratchWriter;
+import scratchobfuscator.generator.ProjectGenerator;
+import scratchobfuscator.mappings.ObfuscationMappings;
+import scratchobfuscator.modules.Module;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class BatchProcessorTest
+{
+    private static final Path INPUT_EMPTY = Paths.get("./src/test/resources/input-empty.sb");
+
+    @Test
+    public void mirrorsDirectoryStructure(@TempDir Path temp) throws IOException, InterruptedException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in.resolve("nested"));
+        Files.copy(INPUT_EMPTY, in.resolve("a.sb"));
+        Files.copy(INPUT_EMPTY, in.resolve("nested").resolve("b.sb"));
+
+        final BatchProcessor.Result result = new BatchProcessor(new ScratchObfuscator(), 2)
+                .process(in.toFile(), out.toFile());
+
+        assertEquals(2, result.getSucceededCount());
+        assertEquals(0, result.getFailedCount());
+        assertTrue(Files.isRegularFile(out.resolve("a.sb")));
+        assertTrue(Files.isRegularFile(out.resolve("nested").resolve("b.sb")));
+    }
+
+    @Test
+    public void skipsNonProjectFiles(@TempDir Path temp) throws IOException, InterruptedException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        Files.write(in.resolve("notes.txt"), new byte[] { 1, 2, 3 });
+
+        final BatchProcessor.Result result = new BatchProcessor(new ScratchObfuscator(), 2)
+                .process(in.toFile(), out.toFile());
+
+        assertEquals(0, result.getSucceededCount());
+        assertEquals(0, result.getFailedCount());
+        assertFalse(Files.exists(out.resolve("notes.txt")));
+    }
+
+    @Test
+    public void continuesAfterFailures(@TempDir Path temp) throws IOException, InterruptedException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        Files.write(in.resolve("broken.sb"), new byte[] { 1, 2, 3 });
+        Files.copy(INPUT_EMPTY, in.resolve("valid.sb"));
+
+        final BatchProcessor.Result result = new BatchProcessor(new ScratchObfuscator(), 2)
+                .process(in.toFile(), out.toFile());
+
+        assertEquals(1, result.getSucceededCount());
+        assertEquals(1, result.getFailedCount());
+        assertTrue(result.getFailures().containsKey(in.resolve("broken.sb").toFile()));
+        assertTrue(Files.isRegularFile(out.resolve("valid.sb")));
+    }
+
+    @Test
+    public void mirrorsDirectoryStructureWhenPipelined(@TempDir Path temp) throws IOException, InterruptedException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in.resolve("nested"));
+        for (int i = 0; i < 5; ++i) {
+            Files.copy(INPUT_EMPTY, in.resolve("a" + i + ".sb"));
+            Files.copy(INPUT_EMPTY, in.resolve("nested").resolve("b" + i + ".sb"));
+        }
+
+        final BatchProcessor processor = new BatchProcessor(new ScratchObfuscator(), 2);
+        processor.setPipelined(true);
+        final BatchProcessor.Result result = processor.process(in.toFile(), out.toFile());
+
+        assertEquals(10, result.getSucceededCount());
+        assertEquals(0, result.getFailedCount());
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(Files.isRegularFile(out.resolve("a" + i + ".sb")));
+            assertTrue(Files.isRegularFile(out.resolve("nested").resolve("b" + i + ".sb")));
+        }
+    }
+
+    @Test
+    public void pipelinedResultMatchesSequentialResult(@TempDir Path temp) throws IOException, InterruptedException
+    {
+        final Path in = temp.resolve("in");
+        Files.createDirectories(in);
+        Files.copy(INPUT_EMPTY, in.resolve("a.sb"));
+
+        final BatchProcessor sequential = new BatchProcessor(new ScratchObfuscator(), 2);
+        sequential.process(in.toFile(), temp.resolve("sequential").toFile());
+        final BatchProcessor pipelined = new BatchProcessor(new ScratchObfuscator(), 2);
+        pipelined.setPipelined(true);
+        pipelined.process(in.toFile(), temp.resolve("pipelined").toFile());
+
+        assertArrayEquals(Files.readAllBytes(temp.resolve("sequential").resolve("a.sb")),
+                Files.readAllBytes(temp.resolve("pipelined").resolve("a.sb")));
+    }
+
+    @Test
+    public void continuesAfterFailuresWhenPipelined(@TempDir Path temp) throws IOException, InterruptedException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        Files.write(in.resolve("broken.sb"), new byte[] { 1, 2, 3 });
+        Files.copy(INPUT_EMPTY, in.resolve("valid.sb"));
+
+        final BatchProcessor processor = new BatchProcessor(new ScratchObfuscator(), 2);
+        processor.setPipelined(true);
+        final BatchProcessor.Result result = processor.process(in.toFile(), out.toFile());
+
+        assertEquals(1, result.getSucceededCount());
+        assertEquals(1, result.getFailedCount());
+        assertTrue(result.getFailures().containsKey(in.resolve("broken.sb").toFile()));
+        assertTrue(Files.isRegularFile(out.resolve("valid.sb")));
+        assertFalse(Files.exists(out.resolve("broken.sb")));
+    }
+
+    @Test
+    public void mirrorsDirectoryStructureWithSeveralIoThreads(@TempDir Path temp)
+            throws IOException, InterruptedException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        for (int i = 0; i < 20; ++i) {
+            Files.copy(INPUT_EMPTY, in.resolve("a" + i + ".sb"));
+        }
+
+        final BatchProcessor processor = new BatchProcessor(new ScratchObfuscator(), 2);
+        processor.setPipelined(true);
+        processor.setIoThreadCount(3);
+        final BatchProcessor.Result result = processor.process(in.toFile(), out.toFile());
+
+        assertEquals(20, result.getSucceededCount());
+        assertEquals(0, result.getFailedCount());
+        for (int i = 0; i < 20; ++i) {
+            assertTrue(Files.isRegularFile(out.resolve("a" + i + ".sb")));
+        }
+    }
+
+    @Test
+    public void terminatesWhenProcessingThrowsErrorsWhenPipelined(@TempDir Path temp)
+            throws IOException, InterruptedException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        for (int i = 0; i < 10; ++i) {
+            Files.copy(INPUT_EMPTY, in.resolve("a" + i + ".sb"));
+        }
+
+        final Module module = new Module()
+        {
+            @Override
+            public void process(ScratchProject project)
+            {
+                throw new StackOverflowError();
+            }
+        };
+        final BatchProcessor processor = new BatchProcessor(new ScratchObfuscator(Collections.singletonList(module)),
+                2);
+        processor.setPipelined(true);
+        final BatchProcessor.Result result = processor.process(in.toFile(), out.toFile());
+
+        assertEquals(0, result.getSucceededCount());
+        assertEquals(10, result.getFailedCount());
+        for (Throwable failure : result.getFailures().values()) {
+            assertTrue(failure instanceof StackOverflowError);
+        }
+    }
+
+    @Test
+    public void assignsUniqueReplacementsConcurrently(@TempDir Path temp) throws IOException, InterruptedException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        for (int i = 0; i < 16; ++i) {
+            final ScratchProject project = new ProjectGenerator().setSpriteCount(1).setGlobalVariableCount(4)
+                    .generate();
+            // variables only found in this project, so that new names are assigned concurrently
+            final ScratchObjectDictionary vars = (ScratchObjectDictionary) project.getStage()
+                    .getField(ScratchObjectScriptableMorph.FIELD_VARS);
+            for (int j = 0; j < 8; ++j) {
+                vars.put(new ScratchObjectUtf8("project " + i + " variable " + j), new ScratchObjectUtf8("value"));
+            }
+            try (OutputStream stream = Files.newOutputStream(in.resolve("p" + i + ".sb"))) {
+                new ScratchWriter(stream).write(project);
+            }
+        }
+
+        final ScratchObfuscator obfuscator = new ScratchObfuscator();
+        final ObfuscationMappings mappings = new ObfuscationMappings();
+        obfuscator.setMappings(mappings);
+        final BatchProcessor.Result result = new BatchProcessor(obfuscator, 8).process(in.toFile(), out.toFile());
+
+        assertEquals(16, result.getSucceededCount());
+        final Map<String, String> names = mappings.getNames();
+        assertEquals(4 + 16 * 8, names.size());
+        assertEquals(names.size(), new HashSet<>(names.values()).size());
+        final Map<String, String> specs = mappings.getSpecs();
+        assertEquals(specs.size(), new HashSet<>(specs.values()).size());
+    }
+
+    @Test
+    public void rejectsInvalidThreadCount()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new BatchProcessor(new ScratchObfuscator(), 0));
+        assertThrows(IllegalArgumentException.class, () -> new BatchProcessor(new ScratchObfuscator(), 1)
+                .setIoThreadCount(0));
+    }
+}
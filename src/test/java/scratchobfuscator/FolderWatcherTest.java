@@ -0,0 +1,256 @@
+package scratchobfuscator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scratchlib.project.ScratchProject;
+import scratchlib.writer.ScratchWriter;
+import scratchobfuscator.generator.ProjectGenerator;
+import scratchobfuscator.modules.Module;
+import scratchobfuscator.modules.RelabelCustomBlocksModule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class FolderWatcherTest
+{
+    private static final Path INPUT_EMPTY = Paths.get("./src/test/resources/input-empty.sb");
+
+    private static class RecordingListener implements FolderWatcher.Listener
+    {
+        private final BlockingQueue<File> processed = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Throwable> failed = new LinkedBlockingQueue<>();
+
+        @Override
+        public void projectProcessed(File in, File out)
+        {
+            processed.add(in);
+        }
+
+        @Override
+        public void projectFailed(File in, Throwable cause)
+        {
+            failed.add(cause);
+        }
+    }
+
+    private static Thread start(FolderWatcher watcher)
+    {
+        final Thread thread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void scanMirrorsDirectoryStructure(@TempDir Path temp) throws IOException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in.resolve("nested"));
+        Files.copy(INPUT_EMPTY, in.resolve("a.sb"));
+        Files.copy(INPUT_EMPTY, in.resolve("nested").resolve("b.sb"));
+        Files.write(in.resolve("notes.txt"), new byte[] { 1, 2, 3 });
+
+        try (FolderWatcher watcher = new FolderWatcher(new ScratchObfuscator(), in.toFile(), out.toFile(), 0)) {
+            assertEquals(2, watcher.scan());
+        }
+
+        assertTrue(Files.isRegularFile(out.resolve("a.sb")));
+        assertTrue(Files.isRegularFile(out.resolve("nested").resolve("b.sb")));
+        assertFalse(Files.exists(out.resolve("notes.txt")));
+    }
+
+    @Test
+    public void scanSkipsUnchangedProjects(@TempDir Path temp) throws IOException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        Files.copy(INPUT_EMPTY, in.resolve("a.sb"));
+
+        try (FolderWatcher watcher = new FolderWatcher(new ScratchObfuscator(), in.toFile(), out.toFile(), 0)) {
+            assertEquals(1, watcher.scan());
+            assertEquals(0, watcher.scan());
+
+            // a missing output is restored even though the input is unchanged
+            Files.delete(out.resolve("a.sb"));
+            assertEquals(1, watcher.scan());
+        }
+    }
+
+    @Test
+    public void processesNewProjects(@TempDir Path temp) throws Exception
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+
+        final RecordingListener listener = new RecordingListener();
+        final FolderWatcher watcher = new FolderWatcher(new ScratchObfuscator(), in.toFile(), out.toFile(), 50);
+        watcher.setListener(listener);
+
+        final Thread thread = start(watcher);
+        try {
+            Files.createDirectories(in.resolve("nested"));
+            Files.copy(INPUT_EMPTY, in.resolve("nested").resolve("b.sb"));
+
+            assertEquals(in.resolve("nested").resolve("b.sb").toFile(), listener.processed.poll(10, TimeUnit.SECONDS));
+            assertTrue(Files.isRegularFile(out.resolve("nested").resolve("b.sb")));
+        } finally {
+            watcher.close();
+            thread.join(10000);
+        }
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void scanSkipsProjectsUnchangedSinceRestart(@TempDir Path temp) throws IOException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        Files.copy(INPUT_EMPTY, in.resolve("a.sb"));
+        Files.copy(INPUT_EMPTY, in.resolve("b.sb"));
+
+        try (FolderWatcher watcher = new FolderWatcher(new ScratchObfuscator(), in.toFile(), out.toFile(), 0)) {
+            assertEquals(2, watcher.scan());
+        }
+        assertTrue(Files.isRegularFile(out.resolve(FolderWatcher.INDEX_FILE_NAME)));
+
+        try (OutputStream stream = Files.newOutputStream(in.resolve("b.sb"))) {
+            new ScratchWriter(stream).write(new ProjectGenerator().setSpriteCount(1).generate());
+        }
+        try (FolderWatcher watcher = new FolderWatcher(new ScratchObfuscator(), in.toFile(), out.toFile(), 0)) {
+            // only the modified project is processed again
+            assertEquals(1, watcher.scan() + watcher.scan());
+        }
+    }
+
+    @Test
+    public void scanProcessesAllProjectsAgainWhenConfigurationChanged(@TempDir Path temp) throws IOException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        Files.copy(INPUT_EMPTY, in.resolve("a.sb"));
+
+        try (FolderWatcher watcher = new FolderWatcher(new ScratchObfuscator(), in.toFile(), out.toFile(), 0)) {
+            assertEquals(1, watcher.scan());
+        }
+
+        final ScratchObfuscator changed = new ScratchObfuscator(
+                Collections.singletonList(new RelabelCustomBlocksModule(true)));
+        try (FolderWatcher watcher = new FolderWatcher(changed, in.toFile(), out.toFile(), 0)) {
+            assertEquals(1, watcher.scan());
+        }
+    }
+
+    @Test
+    public void processesRapidlyModifiedProjectOnce(@TempDir Path temp) throws Exception
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        Files.copy(INPUT_EMPTY, in.resolve("a.sb"));
+
+        final RecordingListener listener = new RecordingListener();
+        final FolderWatcher watcher = new FolderWatcher(new ScratchObfuscator(), in.toFile(), out.toFile(), 500);
+        watcher.setListener(listener);
+
+        final Thread thread = start(watcher);
+        try {
+            // the initial scan is done once the existing project has been processed
+            assertEquals(in.resolve("a.sb").toFile(), listener.processed.poll(10, TimeUnit.SECONDS));
+
+            // write the project in growing pieces, as a slow copy would
+            final byte[] data = Files.readAllBytes(INPUT_EMPTY);
+            for (int i = 1; i <= 5; ++i) {
+                Files.write(in.resolve("b.sb"), Arrays.copyOf(data, data.length * i / 5));
+                Thread.sleep(20);
+            }
+
+            assertEquals(in.resolve("b.sb").toFile(), listener.processed.poll(10, TimeUnit.SECONDS));
+            assertNull(listener.processed.poll(1, TimeUnit.SECONDS));
+            assertTrue(listener.failed.isEmpty());
+        } finally {
+            watcher.close();
+            thread.join(10000);
+        }
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void reportsErrorsWithoutStopping(@TempDir Path temp) throws IOException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        Files.copy(INPUT_EMPTY, in.resolve("a.sb"));
+        Files.copy(INPUT_EMPTY, in.resolve("b.sb"));
+
+        final Module module = new Module()
+        {
+            @Override
+            public void process(ScratchProject project)
+            {
+                throw new AssertionError();
+            }
+        };
+        final RecordingListener listener = new RecordingListener();
+        try (FolderWatcher watcher = new FolderWatcher(new ScratchObfuscator(Collections.singletonList(module)),
+                in.toFile(), out.toFile(), 0)) {
+            watcher.setListener(listener);
+            assertEquals(0, watcher.scan());
+        }
+
+        assertEquals(2, listener.failed.size());
+        for (Throwable cause : listener.failed) {
+            assertTrue(cause instanceof AssertionError);
+        }
+    }
+
+    @Test
+    public void propagatesVirtualMachineErrors(@TempDir Path temp) throws IOException
+    {
+        final Path in = temp.resolve("in"), out = temp.resolve("out");
+        Files.createDirectories(in);
+        Files.copy(INPUT_EMPTY, in.resolve("a.sb"));
+
+        final Module module = new Module()
+        {
+            @Override
+            public void process(ScratchProject project)
+            {
+                throw new OutOfMemoryError();
+            }
+        };
+        try (FolderWatcher watcher = new FolderWatcher(new ScratchObfuscator(Collections.singletonList(module)),
+                in.toFile(), out.toFile(), 0)) {
+            assertThrows(OutOfMemoryError.class, watcher::scan);
+        }
+    }
+
+    @Test
+    public void rejectsOutputInsideInput(@TempDir Path temp)
+    {
+        assertThrows(IllegalArgumentException.class, () -> new FolderWatcher(new ScratchObfuscator(),
+                temp.toFile(), temp.resolve("out").toFile(), 0));
+    }
+
+    @Test
+    public void rejectsNegativeDebounceDelay(@TempDir Path temp)
+    {
+        assertThrows(IllegalArgumentException.class, () -> new FolderWatcher(new ScratchObfuscator(),
+                temp.resolve("in").toFile(), temp.resolve("out").toFile(), -1));
+    }
+}
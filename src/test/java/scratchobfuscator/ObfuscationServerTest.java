@@ -0,0 +1,80 @@
+package scratchobfuscator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ObfuscationServerTest
+{
+    private static final String INPUT_EMPTY = "./src/test/resources/input-empty.sb";
+
+    private static HttpURLConnection post(ObfuscationServer server, byte[] body) throws IOException
+    {
+        final URL url = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(),
+                ObfuscationServer.ENDPOINT);
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        }
+        return conn;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void respondsWithProcessedProject() throws IOException
+    {
+        final byte[] input = Files.readAllBytes(Paths.get(INPUT_EMPTY));
+        final ScratchObfuscator obf = new ScratchObfuscator();
+
+        try (ObfuscationServer server = new ObfuscationServer(obf, 0, 2, 4)) {
+            server.start();
+
+            final HttpURLConnection conn = post(server, input);
+            assertEquals(200, conn.getResponseCode());
+            try (InputStream in = conn.getInputStream()) {
+                assertArrayEquals(obf.processBytes(input), readFully(in));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsInvalidProjects() throws IOException
+    {
+        try (ObfuscationServer server = new ObfuscationServer(new ScratchObfuscator(), 0, 1, 0)) {
+            server.start();
+
+            final HttpURLConnection conn = post(server, new byte[] { 1, 2, 3 });
+            assertEquals(400, conn.getResponseCode());
+        }
+    }
+
+    @Test
+    public void warmsUpWithoutErrors() throws IOException
+    {
+        try (ObfuscationServer server = new ObfuscationServer(new ScratchObfuscator(), 0, 1, 0)) {
+            server.warmUp(3);
+        }
+    }
+}
@@ -14,6 +14,8 @@ public class ProgramOptionsTest
     private static final String INPUT_EMPTY = RESOURCES_FOLDER + "input-empty.sb";
     private static final String INPUT_NONEXISTENT = RESOURCES_FOLDER + "input-does-not-exist.sb";
     private static final String OUTPUT_EMPTY = RESOURCES_FOLDER + "output-empty.sb";
+    private static final String OUTPUT_DIR = RESOURCES_FOLDER + "output-dir";
+    private static final String WATCH_OUTPUT_DIR = "./target/watch-output";
 
     @Test
     public void resolvesAbsoluteFiles()
@@ -66,4 +68,230 @@ public class ProgramOptionsTest
         assertThrows(ParseException.class,
                 () -> ProgramOptions.parse(new String[] { INPUT_EMPTY, RESOURCES_FOLDER }));
     }
+
+    @Test
+    public void defaultsToSingleMode() throws ParseException
+    {
+        final ProgramOptions opts = ProgramOptions.parse(new String[] { INPUT_EMPTY, OUTPUT_EMPTY });
+
+        assertEquals(ProgramOptions.Mode.SINGLE, opts.getMode());
+    }
+
+    @Test
+    public void parsesBatchMode() throws ParseException
+    {
+        final ProgramOptions opts = ProgramOptions.parse(new String[] { "--batch", RESOURCES_FOLDER, OUTPUT_DIR });
+
+        assertEquals(ProgramOptions.Mode.BATCH, opts.getMode());
+        assertEquals(new File(RESOURCES_FOLDER).getAbsoluteFile(), opts.getInputFile());
+        assertEquals(new File(OUTPUT_DIR).getAbsoluteFile(), opts.getOutputFile());
+    }
+
+    @Test
+    public void parsesWatchMode() throws ParseException
+    {
+        final ProgramOptions opts = ProgramOptions
+                .parse(new String[] { "--watch", RESOURCES_FOLDER, WATCH_OUTPUT_DIR });
+
+        assertEquals(ProgramOptions.Mode.WATCH, opts.getMode());
+        assertEquals(new File(RESOURCES_FOLDER).getAbsoluteFile(), opts.getInputFile());
+        assertEquals(new File(WATCH_OUTPUT_DIR).getAbsoluteFile(), opts.getOutputFile());
+        assertEquals(500, opts.getDebounceMillis());
+    }
+
+    @Test
+    public void parsesDebounceDelay() throws ParseException
+    {
+        final ProgramOptions opts = ProgramOptions.parse(
+                new String[] { "--watch", "--debounce", "50", RESOURCES_FOLDER, WATCH_OUTPUT_DIR });
+        assertEquals(50, opts.getDebounceMillis());
+
+        assertThrows(ParseException.class, () -> ProgramOptions
+                .parse(new String[] { "--watch", "--debounce", "-1", RESOURCES_FOLDER, WATCH_OUTPUT_DIR }));
+    }
+
+    @Test
+    public void throwsWhenWatchOutputIsInsideInput()
+    {
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--watch", RESOURCES_FOLDER, OUTPUT_DIR }));
+    }
+
+    @Test
+    public void throwsWhenBatchInputIsFile()
+    {
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--batch", INPUT_EMPTY, OUTPUT_DIR }));
+    }
+
+    @Test
+    public void throwsWhenBatchOutputIsFile()
+    {
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--batch", RESOURCES_FOLDER, INPUT_EMPTY }));
+    }
+
+    @Test
+    public void throwsOnUnknownOption()
+    {
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--unknown", INPUT_EMPTY, OUTPUT_EMPTY }));
+    }
+
+    @Test
+    public void parsesStreamMode() throws ParseException
+    {
+        final ProgramOptions opts = ProgramOptions.parse(new String[] { "-", "-" });
+
+        assertEquals(ProgramOptions.Mode.STREAM, opts.getMode());
+        assertNull(opts.getInputFile());
+        assertNull(opts.getOutputFile());
+    }
+
+    @Test
+    public void throwsWhenMixingStreamsAndFiles()
+    {
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "-", OUTPUT_EMPTY }));
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { INPUT_EMPTY, "-" }));
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--batch", "-", "-" }));
+    }
+
+    @Test
+    public void parsesServerMode() throws ParseException
+    {
+        final ProgramOptions opts = ProgramOptions.parse(
+                new String[] { "--serve", "8080", "--workers", "3", "--queue", "10", "--warmup", "0" });
+
+        assertEquals(ProgramOptions.Mode.SERVER, opts.getMode());
+        assertEquals(8080, opts.getServerPort());
+        assertEquals(3, opts.getWorkerCount());
+        assertEquals(10, opts.getQueueCapacity());
+        assertEquals(0, opts.getWarmupIterations());
+    }
+
+    @Test
+    public void throwsWhenServerGivenPaths()
+    {
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--serve", "8080", INPUT_EMPTY, OUTPUT_EMPTY }));
+    }
+
+    @Test
+    public void throwsOnInvalidNumbers()
+    {
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--serve", "port" }));
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--serve", "8080", "--workers", "0" }));
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--serve" }));
+    }
+
+    @Test
+    public void throwsOnPortOutOfRange() throws ParseException
+    {
+        assertEquals(65535, ProgramOptions.parse(new String[] { "--serve", "65535" }).getServerPort());
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--serve", "65536" }));
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--serve", "-1" }));
+    }
+
+    @Test
+    public void throwsOnMultipleModes()
+    {
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--batch", "--serve", "8080" }));
+    }
+
+    @Test
+    public void parsesFusedFlag() throws ParseException
+    {
+        assertFalse(ProgramOptions.parse(new String[] { INPUT_EMPTY, OUTPUT_EMPTY }).isFused());
+        assertTrue(ProgramOptions.parse(new String[] { "--fused", INPUT_EMPTY, OUTPUT_EMPTY }).isFused());
+    }
+
+    @Test
+    public void parsesMetricsFlag() throws ParseException
+    {
+        assertFalse(ProgramOptions.parse(new String[] { INPUT_EMPTY, OUTPUT_EMPTY }).isMetricsEnabled());
+        assertTrue(ProgramOptions.parse(new String[] { "--metrics", INPUT_EMPTY, OUTPUT_EMPTY }).isMetricsEnabled());
+    }
+
+    @Test
+    public void parsesShortParamsFlag() throws ParseException
+    {
+        assertFalse(ProgramOptions.parse(new String[] { INPUT_EMPTY, OUTPUT_EMPTY }).isMinimizeParameters());
+        assertTrue(ProgramOptions.parse(new String[] { "--short-params", INPUT_EMPTY, OUTPUT_EMPTY })
+                .isMinimizeParameters());
+    }
+
+    @Test
+    public void parsesIndexedFlag() throws ParseException
+    {
+        assertFalse(ProgramOptions.parse(new String[] { INPUT_EMPTY, OUTPUT_EMPTY }).isIndexed());
+        assertTrue(ProgramOptions.parse(new String[] { "--indexed", INPUT_EMPTY, OUTPUT_EMPTY }).isIndexed());
+    }
+
+    @Test
+    public void parsesPipelinedFlag() throws ParseException
+    {
+        assertFalse(ProgramOptions.parse(new String[] { "--batch", RESOURCES_FOLDER, OUTPUT_DIR }).isPipelined());
+        assertTrue(ProgramOptions.parse(new String[] { "--batch", "--pipelined", RESOURCES_FOLDER, OUTPUT_DIR })
+                .isPipelined());
+    }
+
+    @Test
+    public void parsesIoThreadCount() throws ParseException
+    {
+        assertEquals(4, ProgramOptions.parse(new String[] { "--batch", RESOURCES_FOLDER, OUTPUT_DIR })
+                .getIoThreadCount());
+        assertEquals(16, ProgramOptions.parse(new String[] { "--batch", "--pipelined", "--io-threads", "16",
+                RESOURCES_FOLDER, OUTPUT_DIR }).getIoThreadCount());
+        assertThrows(ParseException.class, () -> ProgramOptions.parse(new String[] { "--batch", "--io-threads", "0",
+                RESOURCES_FOLDER, OUTPUT_DIR }));
+    }
+
+    @Test
+    public void parsesNoSyncFlag() throws ParseException
+    {
+        assertTrue(ProgramOptions.parse(new String[] { INPUT_EMPTY, OUTPUT_EMPTY }).isSyncWrites());
+        assertFalse(ProgramOptions.parse(new String[] { "--no-sync", INPUT_EMPTY, OUTPUT_EMPTY }).isSyncWrites());
+    }
+
+    @Test
+    public void parsesParallelFlag() throws ParseException
+    {
+        assertFalse(ProgramOptions.parse(new String[] { INPUT_EMPTY, OUTPUT_EMPTY }).isParallel());
+        assertTrue(ProgramOptions.parse(new String[] { "--parallel", INPUT_EMPTY, OUTPUT_EMPTY }).isParallel());
+    }
+
+    @Test
+    public void parsesCacheOptions() throws ParseException
+    {
+        ProgramOptions defaults = ProgramOptions.parse(new String[] { INPUT_EMPTY, OUTPUT_EMPTY });
+        assertNull(defaults.getCacheDirectory());
+
+        ProgramOptions opts = ProgramOptions
+                .parse(new String[] { "--cache", "cache-dir", "--cache-size", "16", INPUT_EMPTY, OUTPUT_EMPTY });
+        assertEquals(new File("cache-dir").getAbsoluteFile(), opts.getCacheDirectory());
+        assertEquals(16, opts.getCacheSizeMegabytes());
+
+        assertThrows(ParseException.class, () -> ProgramOptions.parse(new String[] { "--cache" }));
+        assertThrows(ParseException.class,
+                () -> ProgramOptions.parse(new String[] { "--cache-size", "0", INPUT_EMPTY, OUTPUT_EMPTY }));
+    }
+
+    @Test
+    public void parsesMappingsFile() throws ParseException
+    {
+        assertNull(ProgramOptions.parse(new String[] { INPUT_EMPTY, OUTPUT_EMPTY }).getMappingsFile());
+
+        ProgramOptions opts = ProgramOptions
+                .parse(new String[] { "--mappings", "names.map", INPUT_EMPTY, OUTPUT_EMPTY });
+        assertEquals(new File("names.map").getAbsoluteFile(), opts.getMappingsFile());
+    }
 }
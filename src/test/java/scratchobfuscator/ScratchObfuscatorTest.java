@@ -1,17 +1,39 @@
 package scratchobfuscator;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
+import scratchlib.writer.ScratchWriter;
+import scratchobfuscator.cache.ResultCache;
+import scratchobfuscator.generator.ProjectGenerator;
+import scratchobfuscator.manipulators.Manipulation;
+import scratchobfuscator.mappings.ObfuscationMappings;
+import scratchobfuscator.metrics.ObfuscationMetrics;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
+import scratchobfuscator.modules.GlobalVariablesModule;
 import scratchobfuscator.modules.Module;
+import scratchobfuscator.modules.RelabelCustomBlocksModule;
+import scratchobfuscator.names.AlphabetNameGenerator;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 
 public class ScratchObfuscatorTest
 {
+    private static final String INPUT_EMPTY = "./src/test/resources/input-empty.sb";
+
     private static class RunCheckModule extends Module
     {
         private boolean hasRun = false;
@@ -23,6 +45,36 @@ public class ScratchObfuscatorTest
         }
     }
 
+    private static class TraversalCountModule extends Module
+    {
+        private int traversals = 0;
+
+        @Override
+        public void process(ScratchProject project)
+        {
+            Manipulation manipulation = new Manipulation(project.getStage());
+            register(project, manipulation);
+            manipulation.run();
+        }
+
+        @Override
+        public void register(ScratchProject project, Manipulation manipulation)
+        {
+            manipulation.forEachMorph(morph -> {
+                if (morph == project.getStage()) {
+                    ++traversals;
+                }
+            });
+        }
+    }
+
+    private static byte[] write(ScratchProject project) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ScratchWriter(out).write(project);
+        return out.toByteArray();
+    }
+
     @Test
     public void ignoresNullProjects()
     {
@@ -42,4 +94,296 @@ public class ScratchObfuscatorTest
         assertTrue(m2.hasRun);
         assertTrue(m3.hasRun);
     }
+
+    @Test
+    public void processesStreams() throws IOException
+    {
+        final byte[] input = Files.readAllBytes(Paths.get(INPUT_EMPTY));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new ScratchObfuscator().process(new ByteArrayInputStream(input), out);
+
+        assertTrue(out.size() > 0);
+    }
+
+    @Test
+    public void processesByteArrays() throws IOException
+    {
+        final byte[] input = Files.readAllBytes(Paths.get(INPUT_EMPTY));
+        final ScratchObfuscator so = new ScratchObfuscator();
+
+        final byte[] output = so.processBytes(input);
+
+        // output must itself be a readable project
+        assertTrue(so.processBytes(output).length > 0);
+    }
+
+    @Test
+    public void processesDirectByteBuffers() throws IOException
+    {
+        final byte[] input = Files.readAllBytes(Paths.get(INPUT_EMPTY));
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(input.length);
+        buffer.put(input).flip();
+
+        final ByteBuffer output = new ScratchObfuscator().processBytes(buffer);
+
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(new ScratchObfuscator().processBytes(input), output.array());
+    }
+
+    @Test
+    public void createsDefaultModules()
+    {
+        List<Module> modules = ScratchObfuscator.createDefaultModules(true);
+        assertEquals(4, modules.size());
+        assertTrue(((RelabelCustomBlocksModule) modules.get(1)).isMinimizeParameters());
+        assertFalse(((RelabelCustomBlocksModule) ScratchObfuscator.createDefaultModules(false).get(1))
+                .isMinimizeParameters());
+    }
+
+    @Test
+    public void runsAllModulesWhenFused()
+    {
+        RunCheckModule m1 = new RunCheckModule(), m2 = new RunCheckModule();
+        TraversalCountModule m3 = new TraversalCountModule();
+
+        ScratchObfuscator so = new ScratchObfuscator(Arrays.asList(m1, m2, m3));
+        so.setFused(true);
+        so.process(new ScratchProject(ScratchVersion.SCRATCH14));
+
+        assertTrue(m1.hasRun);
+        assertTrue(m2.hasRun);
+        assertEquals(1, m3.traversals);
+    }
+
+    @Test
+    public void sharesOneTraversalWhenFused()
+    {
+        TraversalCountModule m1 = new TraversalCountModule(), m2 = new TraversalCountModule();
+
+        ScratchObfuscator so = new ScratchObfuscator(Arrays.asList(m1, m2));
+        so.setFused(true);
+        so.process(new ScratchProject(ScratchVersion.SCRATCH14));
+
+        assertEquals(1, m1.traversals);
+        assertEquals(1, m2.traversals);
+    }
+
+    @Test
+    public void fusedResultMatchesSequentialResult() throws IOException
+    {
+        ProjectGenerator gen = new ProjectGenerator().setSpriteCount(5).setNestingDepth(2).setWatcherCount(5);
+
+        ScratchProject sequential = gen.generate();
+        new ScratchObfuscator().process(sequential);
+
+        ScratchProject fused = gen.generate();
+        ScratchObfuscator so = new ScratchObfuscator();
+        so.setFused(true);
+        so.process(fused);
+
+        assertArrayEquals(write(sequential), write(fused));
+    }
+
+    @Test
+    public void recordsMetrics() throws IOException
+    {
+        byte[] input = Files.readAllBytes(Paths.get(INPUT_EMPTY));
+
+        ScratchObfuscator so = new ScratchObfuscator(Arrays.asList(new RunCheckModule()));
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+        so.setMetrics(metrics);
+        byte[] output = so.processBytes(input);
+
+        assertSame(metrics, so.getMetrics());
+        assertEquals(1, metrics.getCount(Counter.PROJECTS_PROCESSED));
+        assertEquals(input.length, metrics.getCount(Counter.BYTES_READ));
+        assertEquals(output.length, metrics.getCount(Counter.BYTES_WRITTEN));
+        assertEquals(Arrays.asList(ObfuscationMetrics.PHASE_READ, "module:RunCheckModule",
+                ObfuscationMetrics.PHASE_WRITE), metrics.getPhases());
+    }
+
+    @Test
+    public void recordsReplacementCounts()
+    {
+        ProjectGenerator gen = new ProjectGenerator().setSpriteCount(2);
+
+        ScratchObfuscator so = new ScratchObfuscator();
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+        so.setMetrics(metrics);
+        so.process(gen.generate());
+
+        assertTrue(metrics.getCount(Counter.NAMES_REPLACED) > 0);
+        assertTrue(metrics.getCount(Counter.SPECS_REPLACED) > 0);
+        assertTrue(metrics.getCount(Counter.BLOCKS_VISITED) >= gen.getBlockCount());
+    }
+
+    @Test
+    public void recordsTraversalPhaseWhenFused()
+    {
+        ScratchObfuscator so = new ScratchObfuscator();
+        so.setFused(true);
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+        so.setMetrics(metrics);
+        so.process(new ProjectGenerator().generate());
+
+        assertEquals(1, metrics.getPhaseCount(ObfuscationMetrics.PHASE_TRAVERSAL));
+        assertEquals(1, metrics.getPhaseCount("module:GlobalVariablesModule"));
+    }
+
+    @Test
+    public void disablesMetricsWhenSetToNull()
+    {
+        ScratchObfuscator so = new ScratchObfuscator();
+        so.setMetrics(null);
+
+        assertSame(ObfuscationMetrics.DISABLED, so.getMetrics());
+    }
+
+    @Test
+    public void parallelResultMatchesSequentialResult() throws IOException
+    {
+        ProjectGenerator gen = new ProjectGenerator().setSpriteCount(16).setNestingDepth(2).setWatcherCount(5);
+
+        ScratchProject sequential = gen.generate();
+        new ScratchObfuscator().process(sequential);
+
+        ScratchProject parallel = gen.generate();
+        ScratchObfuscator so = new ScratchObfuscator();
+        so.setParallel(true);
+        so.process(parallel);
+
+        assertTrue(so.isParallel());
+        assertArrayEquals(write(sequential), write(parallel));
+    }
+
+    @Test
+    public void indexedResultMatchesTraversalResult() throws IOException
+    {
+        ProjectGenerator gen = new ProjectGenerator().setSpriteCount(4).setNestingDepth(2).setWatcherCount(5);
+
+        ScratchProject traversed = gen.generate();
+        new ScratchObfuscator(ScratchObfuscator.createDefaultModules(true)).process(traversed);
+
+        ScratchProject indexed = gen.generate();
+        ScratchObfuscator so = new ScratchObfuscator(ScratchObfuscator.createDefaultModules(true));
+        so.setIndexed(true);
+        so.process(indexed);
+
+        ScratchProject indexedFused = gen.generate();
+        ScratchObfuscator fused = new ScratchObfuscator(ScratchObfuscator.createDefaultModules(true));
+        fused.setIndexed(true);
+        fused.setFused(true);
+        fused.process(indexedFused);
+
+        assertTrue(so.isIndexed());
+        assertArrayEquals(write(traversed), write(indexed));
+        assertArrayEquals(write(traversed), write(indexedFused));
+    }
+
+    @Test
+    public void processesFiles(@TempDir Path temp) throws IOException
+    {
+        byte[] input = Files.readAllBytes(Paths.get(INPUT_EMPTY));
+        Path out = temp.resolve("out.sb");
+
+        ScratchObfuscator so = new ScratchObfuscator();
+        so.process(Paths.get(INPUT_EMPTY).toFile(), out.toFile());
+
+        assertArrayEquals(so.processBytes(input), Files.readAllBytes(out));
+    }
+
+    @Test
+    public void keepsExistingOutputOnFailure(@TempDir Path temp) throws IOException
+    {
+        Path in = temp.resolve("broken.sb");
+        Files.write(in, new byte[] { 1, 2, 3 });
+        Path out = temp.resolve("out.sb");
+        Files.write(out, new byte[] { 4, 5, 6 });
+
+        assertThrows(Exception.class, () -> new ScratchObfuscator().process(in.toFile(), out.toFile()));
+
+        assertArrayEquals(new byte[] { 4, 5, 6 }, Files.readAllBytes(out));
+    }
+
+    @Test
+    public void fingerprintReflectsModuleConfiguration()
+    {
+        ScratchObfuscator a = new ScratchObfuscator(Arrays.asList(new GlobalVariablesModule()));
+        ScratchObfuscator b = new ScratchObfuscator(Arrays.asList(new GlobalVariablesModule()));
+        ScratchObfuscator c = new ScratchObfuscator(
+                Arrays.asList(new GlobalVariablesModule(new AlphabetNameGenerator("ab"))));
+
+        assertEquals(a.getFingerprint(), b.getFingerprint());
+        assertNotEquals(a.getFingerprint(), c.getFingerprint());
+        assertNotEquals(a.getFingerprint(), new ScratchObfuscator().getFingerprint());
+    }
+
+    @Test
+    public void answersRepeatedInputFromCache(@TempDir Path temp) throws IOException
+    {
+        ByteArrayOutputStream generated = new ByteArrayOutputStream();
+        new ProjectGenerator().setSpriteCount(2).write(generated);
+        byte[] input = generated.toByteArray();
+
+        ScratchObfuscator so = new ScratchObfuscator();
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+        so.setMetrics(metrics);
+        so.setCache(new ResultCache(temp.resolve("cache"), 1 << 20));
+
+        byte[] first = so.processBytes(input);
+        byte[] second = so.processBytes(input);
+
+        Path in = temp.resolve("in.sb"), out = temp.resolve("out.sb");
+        Files.write(in, input);
+        so.process(in.toFile(), out.toFile());
+
+        assertArrayEquals(first, second);
+        assertArrayEquals(first, Files.readAllBytes(out));
+        assertEquals(1, metrics.getCount(Counter.CACHE_MISSES));
+        assertEquals(2, metrics.getCount(Counter.CACHE_HITS));
+        assertEquals(1, metrics.getCount(Counter.PROJECTS_PROCESSED));
+        assertEquals(1, so.getCache().size());
+    }
+
+    @Test
+    public void keepsNamesStableAcrossRevisionsWithMappings()
+    {
+        ObfuscationMappings mappings = new ObfuscationMappings();
+
+        ScratchObfuscator so = new ScratchObfuscator();
+        so.setMappings(mappings);
+        assertSame(mappings, so.getMappings());
+
+        so.process(new ProjectGenerator().setSpriteCount(2).generate());
+        Map<String, String> firstNames = mappings.getNames();
+        Map<String, String> firstSpecs = mappings.getSpecs();
+        assertFalse(firstNames.isEmpty());
+        assertFalse(firstSpecs.isEmpty());
+
+        // a revision with more variables keeps all previous names
+        so.process(new ProjectGenerator().setSpriteCount(2).setGlobalVariableCount(20).generate());
+
+        assertTrue(mappings.getNames().size() > firstNames.size());
+        assertTrue(mappings.getNames().entrySet().containsAll(firstNames.entrySet()));
+        assertEquals(firstSpecs, mappings.getSpecs());
+    }
+
+    @Test
+    public void bypassesCacheWhileMappingsAreSet(@TempDir Path temp) throws IOException
+    {
+        byte[] input = Files.readAllBytes(Paths.get(INPUT_EMPTY));
+
+        ScratchObfuscator so = new ScratchObfuscator();
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+        so.setMetrics(metrics);
+        so.setCache(new ResultCache(temp, 1 << 20));
+        so.setMappings(new ObfuscationMappings());
+
+        so.processBytes(input);
+        so.processBytes(input);
+
+        assertEquals(0, metrics.getCount(Counter.CACHE_MISSES) + metrics.getCount(Counter.CACHE_HITS));
+        assertEquals(2, metrics.getCount(Counter.PROJECTS_PROCESSED));
+    }
 }
@@ -38,6 +38,33 @@ public class UserSpecParserTest
         assertIterableEquals(Arrays.asList("foo", "bar", "baz", "qux"), split);
     }
 
+    @Test
+    public void ignoresLeadingAndTrailingSpaces()
+    {
+        List<String> split = UserSpecParser.split("   foo %bar  ");
+        assertIterableEquals(Arrays.asList("foo", "%bar"), split);
+
+        assertTrue(UserSpecParser.split("").isEmpty());
+        assertTrue(UserSpecParser.split("    ").isEmpty());
+    }
+
+    @Test
+    public void keepsInnerQuotes()
+    {
+        List<String> split = UserSpecParser.split("\"a\"b\" c\"d \"\"");
+        assertIterableEquals(Arrays.asList("a\"b", "c\"d", ""), split);
+    }
+
+    @Test
+    public void consumesUnterminatedQuotes()
+    {
+        List<String> split = UserSpecParser.split("foo \"bar baz");
+        assertIterableEquals(Arrays.asList("foo", "bar baz"), split);
+
+        split = UserSpecParser.split("foo \"");
+        assertIterableEquals(Arrays.asList("foo", ""), split);
+    }
+
     @Test
     public void parsesSimpleLabels()
     {
@@ -80,4 +107,16 @@ public class UserSpecParserTest
         assertEquals("test parameter", spec.getText(1));
         assertFalse(spec.isParameter(2));
     }
+
+    @Test
+    public void parsesEmptyParts()
+    {
+        UserSpec spec = UserSpecParser.parse("\"\" %");
+
+        assertEquals(2, spec.getPartCount());
+        assertFalse(spec.isParameter(0));
+        assertEquals("", spec.getText(0));
+        assertTrue(spec.isParameter(1));
+        assertEquals("", spec.getText(1));
+    }
 }
@@ -10,8 +10,7 @@ public class UserSpecTest
     @Test
     public void allowsAddingLabels()
     {
-        UserSpec spec = new UserSpec();
-        spec.addLabel("some label");
+        UserSpec spec = new UserSpec.Builder().addLabel("some label").build();
 
         assertEquals(1, spec.getPartCount());
         assertFalse(spec.isParameter(0));
@@ -21,8 +20,7 @@ public class UserSpecTest
     @Test
     public void allowsAddingParameters()
     {
-        UserSpec spec = new UserSpec();
-        spec.addParameter("some parameter");
+        UserSpec spec = new UserSpec.Builder().addParameter("some parameter").build();
 
         assertEquals(1, spec.getPartCount());
         assertTrue(spec.isParameter(0));
@@ -30,27 +28,69 @@ public class UserSpecTest
     }
 
     @Test
-    public void allowsChangingTexts()
+    public void allowsChangingTextsThroughBuilder()
     {
-        UserSpec spec = new UserSpec();
-        spec.addLabel("foo");
-        spec.addParameter("bar");
-        spec.addLabel("baz");
+        UserSpec.Builder builder = new UserSpec.Builder().addLabel("foo").addParameter("bar").addLabel("baz");
 
-        spec.setText(0, "newFoo");
-        assertEquals("newFoo", spec.getText(0));
+        builder.setText(0, "newFoo");
+        assertEquals("newFoo", builder.getText(0));
+
+        builder.setText(1, "newBar");
+        assertEquals("newBar", builder.getText(1));
 
-        spec.setText(1, "newBar");
+        UserSpec spec = builder.build();
+        assertEquals("newFoo", spec.getText(0));
+        assertTrue(spec.isParameter(1));
         assertEquals("newBar", spec.getText(1));
     }
 
+    @Test
+    public void isUnaffectedByLaterBuilderChanges()
+    {
+        UserSpec.Builder builder = new UserSpec.Builder().addLabel("foo");
+        UserSpec spec = builder.build();
+
+        builder.setText(0, "bar").addParameter("baz");
+
+        assertEquals(1, spec.getPartCount());
+        assertEquals("foo", spec.getText(0));
+        assertEquals("foo", spec.toString());
+    }
+
+    @Test
+    public void copiesIntoBuilder()
+    {
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addParameter("bar").build();
+
+        UserSpec copy = spec.toBuilder().setText(1, "baz").addLabel("qux").build();
+
+        assertEquals("foo %bar", spec.toString());
+        assertEquals("foo %baz qux", copy.toString());
+        assertTrue(copy.isParameter(1));
+    }
+
+    @Test
+    public void rejectsInvalidIndexes()
+    {
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").build();
+
+        assertThrows(IndexOutOfBoundsException.class, () -> spec.isParameter(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> spec.getText(-1));
+    }
+
+    @Test
+    public void cachesStringForm()
+    {
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addParameter("bar").build();
+
+        assertSame(spec.toString(), spec.toString());
+        assertSame(spec.getSimilarityKey(), spec.getSimilarityKey());
+    }
+
     @Test
     public void convertsToString()
     {
-        UserSpec spec = new UserSpec();
-        spec.addLabel("foo");
-        spec.addParameter("bar");
-        spec.addLabel("baz");
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addParameter("bar").addLabel("baz").build();
 
         assertEquals("foo %bar baz", spec.toString());
     }
@@ -58,10 +98,7 @@ public class UserSpecTest
     @Test
     public void quotesWhenNecessary()
     {
-        UserSpec spec = new UserSpec();
-        spec.addLabel("foo");
-        spec.addParameter("some parameter");
-        spec.addLabel("\"");
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addParameter("some parameter").addLabel("\"").build();
 
         assertEquals("foo \"%some parameter\" \"\"\"", spec.toString());
     }
@@ -69,20 +106,14 @@ public class UserSpecTest
     @Test
     public void checksLabelSimilarity()
     {
-        UserSpec spec = new UserSpec();
-        spec.addLabel("foo");
-        spec.addLabel("bar");
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addLabel("bar").build();
 
-        UserSpec spec1 = new UserSpec();
-        spec1.addLabel("foo");
-        spec1.addLabel("bar");
+        UserSpec spec1 = new UserSpec.Builder().addLabel("foo").addLabel("bar").build();
 
         assertTrue(spec.isSimilar(spec1));
         assertTrue(spec1.isSimilar(spec));
 
-        UserSpec spec2 = new UserSpec();
-        spec2.addLabel("foo");
-        spec2.addLabel("baz");
+        UserSpec spec2 = new UserSpec.Builder().addLabel("foo").addLabel("baz").build();
 
         assertFalse(spec.isSimilar(spec2));
         assertFalse(spec2.isSimilar(spec));
@@ -91,9 +122,7 @@ public class UserSpecTest
     @Test
     public void reportsNullAsNotSimilar()
     {
-        UserSpec spec = new UserSpec();
-        spec.addLabel("foo");
-        spec.addLabel("bar");
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addLabel("bar").build();
 
         assertFalse(spec.isSimilar(null));
     }
@@ -101,13 +130,9 @@ public class UserSpecTest
     @Test
     public void includesPartTypeInSimilarityCheck()
     {
-        UserSpec spec = new UserSpec();
-        spec.addLabel("foo");
-        spec.addLabel("bar");
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addLabel("bar").build();
 
-        UserSpec spec1 = new UserSpec();
-        spec1.addParameter("foo");
-        spec1.addLabel("bar");
+        UserSpec spec1 = new UserSpec.Builder().addParameter("foo").addLabel("bar").build();
 
         assertFalse(spec.isSimilar(spec1));
         assertFalse(spec1.isSimilar(spec));
@@ -116,14 +141,9 @@ public class UserSpecTest
     @Test
     public void includesSpecLengthInSimilarityCheck()
     {
-        UserSpec spec = new UserSpec();
-        spec.addLabel("foo");
-        spec.addLabel("bar");
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addLabel("bar").build();
 
-        UserSpec spec1 = new UserSpec();
-        spec1.addLabel("foo");
-        spec1.addLabel("bar");
-        spec1.addLabel("baz");
+        UserSpec spec1 = new UserSpec.Builder().addLabel("foo").addLabel("bar").addLabel("baz").build();
 
         assertFalse(spec.isSimilar(spec1));
         assertFalse(spec1.isSimilar(spec));
@@ -132,17 +152,45 @@ public class UserSpecTest
     @Test
     public void ignoresParameterNamesInSimilarityCheck()
     {
-        UserSpec spec = new UserSpec();
-        spec.addLabel("foo");
-        spec.addParameter("some parameter");
-        spec.addLabel("bar");
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addParameter("some parameter").addLabel("bar").build();
 
-        UserSpec spec1 = new UserSpec();
-        spec1.addLabel("foo");
-        spec1.addParameter("param");
-        spec1.addLabel("bar");
+        UserSpec spec1 = new UserSpec.Builder().addLabel("foo").addParameter("param").addLabel("bar").build();
 
         assertTrue(spec.isSimilar(spec1));
         assertTrue(spec1.isSimilar(spec));
     }
+
+    @Test
+    public void similarSpecsShareSimilarityKey()
+    {
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addParameter("some parameter").build();
+
+        UserSpec spec1 = new UserSpec.Builder().addLabel("foo").addParameter("param").build();
+
+        assertEquals(spec.getSimilarityKey(), spec1.getSimilarityKey());
+    }
+
+    @Test
+    public void differentSpecsHaveDifferentSimilarityKeys()
+    {
+        UserSpec spec = new UserSpec.Builder().addLabel("a b").build();
+
+        UserSpec spec1 = new UserSpec.Builder().addLabel("a").addLabel("b").build();
+
+        UserSpec spec2 = new UserSpec.Builder().addLabel("%").build();
+
+        UserSpec spec3 = new UserSpec.Builder().addParameter("a").build();
+
+        assertNotEquals(spec.getSimilarityKey(), spec1.getSimilarityKey());
+        assertNotEquals(spec2.getSimilarityKey(), spec3.getSimilarityKey());
+    }
+
+    @Test
+    public void similarSpecsShareSimilarityHash()
+    {
+        UserSpec spec = new UserSpec.Builder().addLabel("foo").addParameter("some parameter").build();
+        UserSpec spec1 = new UserSpec.Builder().addLabel("foo").addParameter("param").build();
+
+        assertEquals(spec.getSimilarityHash(), spec1.getSimilarityHash());
+    }
 }
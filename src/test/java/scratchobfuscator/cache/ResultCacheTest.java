@@ -0,0 +1,112 @@
+package scratchobfuscator.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ResultCacheTest
+{
+    private static ByteBuffer bytes(int length, int value)
+    {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            b[i] = (byte) value;
+        }
+        return ByteBuffer.wrap(b);
+    }
+
+    @Test
+    public void computesDistinctKeysForInputAndFingerprint()
+    {
+        ByteBuffer input = bytes(10, 1);
+
+        String key = ResultCache.key(input, "a");
+
+        assertEquals(64, key.length());
+        assertTrue(key.matches("[0-9a-f]+"));
+        assertEquals(key, ResultCache.key(bytes(10, 1), "a"));
+        assertNotEquals(key, ResultCache.key(input, "b"));
+        assertNotEquals(key, ResultCache.key(bytes(10, 2), "a"));
+        assertEquals(10, input.remaining());
+    }
+
+    @Test
+    public void storesAndRetrievesEntries(@TempDir Path temp) throws IOException
+    {
+        ResultCache obj = new ResultCache(temp.resolve("cache"), 1000);
+        String key = ResultCache.key(bytes(1, 0), "");
+
+        assertNull(obj.get(key));
+
+        ByteBuffer data = bytes(5, 7);
+        obj.put(key, data);
+
+        assertEquals(5, data.remaining());
+        assertArrayEquals(bytes(5, 7).array(), obj.get(key));
+        assertEquals(1, obj.size());
+        assertEquals(5, obj.getTotalBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries(@TempDir Path temp) throws IOException
+    {
+        ResultCache obj = new ResultCache(temp, 25);
+        String k1 = ResultCache.key(bytes(1, 1), ""), k2 = ResultCache.key(bytes(1, 2), ""),
+                k3 = ResultCache.key(bytes(1, 3), "");
+
+        obj.put(k1, bytes(10, 1));
+        obj.put(k2, bytes(10, 2));
+        obj.get(k1);
+        obj.put(k3, bytes(10, 3));
+
+        assertNotNull(obj.get(k1));
+        assertNull(obj.get(k2));
+        assertNotNull(obj.get(k3));
+        assertEquals(20, obj.getTotalBytes());
+        assertFalse(Files.exists(temp.resolve(k2)));
+    }
+
+    @Test
+    public void skipsEntriesLargerThanLimit(@TempDir Path temp) throws IOException
+    {
+        ResultCache obj = new ResultCache(temp, 5);
+        String key = ResultCache.key(bytes(1, 1), "");
+
+        obj.put(key, bytes(6, 1));
+
+        assertNull(obj.get(key));
+        assertEquals(0, obj.size());
+    }
+
+    @Test
+    public void reloadsExistingEntriesInRecencyOrder(@TempDir Path temp) throws IOException
+    {
+        String k1 = ResultCache.key(bytes(1, 1), ""), k2 = ResultCache.key(bytes(1, 2), "");
+        Files.write(temp.resolve(k1), new byte[10]);
+        Files.setLastModifiedTime(temp.resolve(k1), FileTime.fromMillis(2000));
+        Files.write(temp.resolve(k2), new byte[10]);
+        Files.setLastModifiedTime(temp.resolve(k2), FileTime.fromMillis(1000));
+        Files.write(temp.resolve("unrelated.txt"), new byte[100]);
+
+        ResultCache obj = new ResultCache(temp, 15);
+
+        assertEquals(1, obj.size());
+        assertNotNull(obj.get(k1));
+        assertFalse(Files.exists(temp.resolve(k2)));
+        assertTrue(Files.exists(temp.resolve("unrelated.txt")));
+    }
+
+    @Test
+    public void rejectsNegativeLimit(@TempDir Path temp)
+    {
+        assertThrows(IllegalArgumentException.class, () -> new ResultCache(temp, -1));
+    }
+}
@@ -0,0 +1,122 @@
+package scratchobfuscator.generator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractCollection;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractDictionary;
+import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
+import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+import scratchlib.reader.ScratchReader;
+import scratchobfuscator.manipulators.Manipulation;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ProjectGeneratorTest
+{
+    private static int countBlocks(ScratchObjectStageMorph stage)
+    {
+        final int[] count = { 0 };
+        new Manipulation(stage).forEachBlock(block -> {
+            // the manipulation also visits nested scripts (C-block bodies), which are not blocks
+            if (!(block.get(0) instanceof ScratchObjectAbstractCollection)) {
+                ++count[0];
+            }
+        }).run();
+        return count[0];
+    }
+
+    @Test
+    public void generatesRequestedSprites()
+    {
+        final ScratchProject project = new ProjectGenerator().setSpriteCount(7).generate();
+
+        assertEquals(7, project.getStage().getSpriteCount());
+    }
+
+    @Test
+    public void generatesRequestedVariables()
+    {
+        final ScratchProject project = new ProjectGenerator().setSpriteCount(2).setGlobalVariableCount(5)
+                .setSpriteVariableCount(3).generate();
+
+        final ScratchObjectStageMorph stage = project.getStage();
+        assertEquals(5, ((ScratchObjectAbstractDictionary) stage.getField(ScratchObjectScriptableMorph.FIELD_VARS))
+                .size());
+        assertEquals(3, ((ScratchObjectAbstractDictionary) stage.getSprite(1)
+                .getField(ScratchObjectScriptableMorph.FIELD_VARS)).size());
+    }
+
+    @Test
+    public void generatesCustomBlocksOnlyForByob()
+    {
+        final ProjectGenerator gen = new ProjectGenerator().setSpriteCount(1).setCustomBlocksPerMorph(4);
+
+        final ScratchProject byob = gen.setVersion(ScratchVersion.BYOB311).generate();
+        assertEquals(4, byob.getStage().getCustomBlockCount());
+        assertEquals(4, byob.getStage().getSprite(0).getCustomBlockCount());
+
+        final ScratchProject scratch = gen.setVersion(ScratchVersion.SCRATCH14).generate();
+        assertEquals(0, scratch.getStage().getCustomBlockCount());
+    }
+
+    @Test
+    public void usesBlockShapeOfVersion()
+    {
+        final ProjectGenerator gen = new ProjectGenerator().setSpriteCount(0).setScriptsPerMorph(1)
+                .setBlocksPerScript(1).setCustomBlocksPerMorph(0);
+
+        final ScratchObjectAbstractCollection byobScript = gen.setVersion(ScratchVersion.BYOB311).generate()
+                .getStage().getScriptBody(0);
+        assertEquals(6, ((ScratchObjectAbstractCollection) byobScript.get(0)).size());
+
+        final ScratchObjectAbstractCollection scratchScript = gen.setVersion(ScratchVersion.SCRATCH14).generate()
+                .getStage().getScriptBody(0);
+        assertEquals(4, ((ScratchObjectAbstractCollection) scratchScript.get(0)).size());
+    }
+
+    @Test
+    public void reportsBlockCount()
+    {
+        final ProjectGenerator gen = new ProjectGenerator().setSpriteCount(3).setCustomBlocksPerMorph(2)
+                .setScriptsPerMorph(4).setBlocksPerScript(5).setNestingDepth(2);
+
+        assertEquals(4 * (2 + 4) * 5 * 3, gen.getBlockCount());
+        assertEquals(gen.getBlockCount(), countBlocks(gen.generate().getStage()));
+    }
+
+    @Test
+    public void generatesWatchers()
+    {
+        final ScratchObjectStageMorph stage = new ProjectGenerator().setGlobalVariableCount(3).setWatcherCount(5)
+                .generate().getStage();
+
+        final List<Object> watchers = new ArrayList<>();
+        new Manipulation(stage).forEachWatcher(watchers::add).run();
+
+        assertEquals(3, watchers.size());
+    }
+
+    @Test
+    public void writesReadableProjects() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ProjectGenerator().setSpriteCount(2).setNestingDepth(1).write(out);
+
+        final ScratchProject project = new ScratchReader().read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, project.getStage().getSpriteCount());
+    }
+
+    @Test
+    public void rejectsNegativeCounts()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new ProjectGenerator().setSpriteCount(-1));
+    }
+}
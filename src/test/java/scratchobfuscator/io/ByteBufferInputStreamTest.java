@@ -0,0 +1,45 @@
+package scratchobfuscator.io;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ByteBufferInputStreamTest
+{
+    @Test
+    public void readsRemainingBytes()
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, 2, (byte) 0xFF, 4, 5, 6 });
+        buffer.position(1);
+
+        ByteBufferInputStream obj = new ByteBufferInputStream(buffer);
+        assertEquals(5, obj.available());
+        assertEquals(2, obj.read());
+        assertEquals(0xFF, obj.read());
+
+        byte[] b = new byte[4];
+        assertEquals(2, obj.read(b, 1, 3));
+        assertArrayEquals(new byte[] { 0, 4, 5, 0 }, b);
+
+        assertEquals(1, obj.skip(10));
+        assertEquals(-1, obj.read());
+        assertEquals(-1, obj.read(b, 0, 4));
+        assertEquals(0, obj.read(b, 0, 0));
+    }
+
+    @Test
+    public void readsDirectBuffers()
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3);
+        buffer.put(new byte[] { 7, 8, 9 }).flip();
+
+        ByteBufferInputStream obj = new ByteBufferInputStream(buffer);
+        byte[] b = new byte[3];
+        assertEquals(3, obj.read(b, 0, 3));
+        assertArrayEquals(new byte[] { 7, 8, 9 }, b);
+        assertFalse(buffer.hasRemaining());
+    }
+}
@@ -0,0 +1,26 @@
+package scratchobfuscator.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class CountingInputStreamTest
+{
+    @Test
+    public void countsBytesRead() throws IOException
+    {
+        CountingInputStream obj = new CountingInputStream(new ByteArrayInputStream(new byte[10]));
+
+        assertEquals(0, obj.read());
+        assertEquals(4, obj.read(new byte[4]));
+        assertEquals(2, obj.skip(2));
+        assertEquals(3, obj.read(new byte[8], 1, 7));
+        assertEquals(-1, obj.read());
+
+        assertEquals(10, obj.getCount());
+    }
+}
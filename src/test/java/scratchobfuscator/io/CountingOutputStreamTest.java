@@ -0,0 +1,26 @@
+package scratchobfuscator.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class CountingOutputStreamTest
+{
+    @Test
+    public void countsBytesWritten() throws IOException
+    {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CountingOutputStream obj = new CountingOutputStream(target);
+
+        obj.write(1);
+        obj.write(new byte[4]);
+        obj.write(new byte[8], 2, 3);
+
+        assertEquals(8, obj.getCount());
+        assertEquals(8, target.size());
+    }
+}
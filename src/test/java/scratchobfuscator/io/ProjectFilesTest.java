@@ -0,0 +1,109 @@
+package scratchobfuscator.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+public class ProjectFilesTest
+{
+    private static byte[] toArray(ByteBuffer buffer)
+    {
+        byte[] b = new byte[buffer.remaining()];
+        buffer.get(b);
+        return b;
+    }
+
+    @Test
+    public void readsSmallFilesIntoHeapBuffer(@TempDir Path temp) throws IOException
+    {
+        Path file = temp.resolve("small.sb");
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        ByteBuffer buffer = ProjectFiles.read(file);
+
+        assertTrue(buffer.hasArray());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, toArray(buffer));
+    }
+
+    @Test
+    public void mapsLargeFiles(@TempDir Path temp) throws IOException
+    {
+        byte[] data = new byte[(int) ProjectFiles.MAP_THRESHOLD + 1];
+        data[data.length - 1] = 42;
+        Path file = temp.resolve("large.sb");
+        Files.write(file, data);
+
+        ByteBuffer buffer = ProjectFiles.read(file);
+
+        assertTrue(buffer instanceof MappedByteBuffer);
+        assertArrayEquals(data, toArray(buffer));
+    }
+
+    @Test
+    public void replacesTargetWithoutLeavingTempFiles(@TempDir Path temp) throws IOException
+    {
+        Path file = temp.resolve("out.sb");
+        Files.write(file, new byte[] { 9, 9, 9, 9 });
+
+        ProjectFiles.writeAtomically(file, ByteBuffer.wrap(new byte[] { 1, 2 }));
+
+        assertArrayEquals(new byte[] { 1, 2 }, Files.readAllBytes(file));
+        try (Stream<Path> files = Files.list(temp)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void failsWithoutTouchingAnythingForMissingDirectory(@TempDir Path temp)
+    {
+        Path file = temp.resolve("missing").resolve("out.sb");
+
+        assertThrows(IOException.class, () -> ProjectFiles.writeAtomically(file, ByteBuffer.wrap(new byte[1])));
+        assertFalse(Files.exists(file.getParent()));
+    }
+
+    @Test
+    public void writesWithoutSyncing(@TempDir Path temp) throws IOException
+    {
+        Path file = temp.resolve("out.sb");
+
+        ProjectFiles.writeAtomically(file, ByteBuffer.wrap(new byte[] { 1, 2 }), false);
+
+        assertArrayEquals(new byte[] { 1, 2 }, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void createsFilesReadableByOthers(@TempDir Path temp) throws IOException
+    {
+        assumeTrue(temp.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path file = temp.resolve("out.sb");
+
+        ProjectFiles.writeAtomically(file, ByteBuffer.wrap(new byte[] { 1, 2 }));
+
+        assertEquals(PosixFilePermissions.fromString("rw-r--r--"), Files.getPosixFilePermissions(file));
+    }
+
+    @Test
+    public void keepsPermissionsOfReplacedFile(@TempDir Path temp) throws IOException
+    {
+        assumeTrue(temp.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path file = temp.resolve("out.sb");
+        Files.write(file, new byte[] { 9, 9, 9, 9 });
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-rw----"));
+
+        ProjectFiles.writeAtomically(file, ByteBuffer.wrap(new byte[] { 1, 2 }));
+
+        assertEquals(PosixFilePermissions.fromString("rw-rw----"), Files.getPosixFilePermissions(file));
+    }
+}
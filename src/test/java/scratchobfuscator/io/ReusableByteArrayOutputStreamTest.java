@@ -0,0 +1,37 @@
+package scratchobfuscator.io;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ReusableByteArrayOutputStreamTest
+{
+    @Test
+    public void exposesWrittenBytes()
+    {
+        ReusableByteArrayOutputStream obj = new ReusableByteArrayOutputStream(2);
+        obj.write(new byte[] { 1, 2, 3 }, 0, 3);
+
+        ByteBuffer view = obj.asByteBuffer();
+        assertEquals(0, view.position());
+        assertEquals(3, view.remaining());
+        assertEquals(3, view.get(2));
+        assertTrue(obj.capacity() >= 3);
+    }
+
+    @Test
+    public void keepsCapacityAfterReset()
+    {
+        ReusableByteArrayOutputStream obj = new ReusableByteArrayOutputStream(2);
+        obj.write(new byte[100], 0, 100);
+        int capacity = obj.capacity();
+
+        obj.reset();
+
+        assertEquals(0, obj.asByteBuffer().remaining());
+        assertEquals(capacity, obj.capacity());
+    }
+}
@@ -122,4 +122,53 @@ public class BlockViewTest
 
         assertFalse(view.stringEquals(1, "newList:"));
     }
+
+    @Test
+    public void getSelectorSkipsByobElements()
+    {
+        final ScratchObjectArray block = new ScratchObjectArray();
+        block.add(new ScratchObjectSymbol("byob"));
+        block.add(new ScratchObjectUtf8(""));
+        block.add(new ScratchObjectSymbol("newList:"));
+
+        assertEquals("newList:", new BlockView(block).getSelector());
+    }
+
+    @Test
+    public void retargetDetectsByobBlocks()
+    {
+        final ScratchObjectArray byob = makeByobBlock();
+        final BlockView view = new BlockView(byob);
+        assertEquals(2, view.size());
+
+        // the same marker object, as in projects read from a file
+        final ScratchObjectArray shared = new ScratchObjectArray();
+        shared.add(byob.get(0));
+        shared.add(new ScratchObjectUtf8(""));
+        shared.add(new ScratchObjectSymbol("doForever"));
+        assertEquals("doForever", view.retarget(shared).getSelector());
+
+        assertEquals("readVariable", view.retarget(makeRegularBlock()).getSelector());
+        assertEquals(2, view.size());
+
+        // an equal but distinct marker object, as in projects built in memory
+        assertEquals("readVariable", view.retarget(makeByobBlock()).getSelector());
+        assertEquals(2, view.size());
+    }
+
+    @Test
+    public void getSelectorReturnsNullForNonBlocks()
+    {
+        final ScratchObjectArray empty = new ScratchObjectArray();
+        assertNull(new BlockView(empty).getSelector());
+
+        final ScratchObjectArray byobOnly = new ScratchObjectArray();
+        byobOnly.add(new ScratchObjectSymbol("byob"));
+        byobOnly.add(new ScratchObjectUtf8(""));
+        assertNull(new BlockView(byobOnly).getSelector());
+
+        final ScratchObjectArray list = new ScratchObjectArray();
+        list.add(new ScratchObjectListMorph());
+        assertNull(new BlockView(list).getSelector());
+    }
 }
@@ -165,4 +165,72 @@ public class GlobalVariablesManipulatorTest
         assertEquals("newFoo", watcher.getTitleMorph().getContents());
         assertEquals("newFoo", watcher.getReadoutMorph().getParameter());
     }
+
+    @Test
+    public void sharesReplacementObjects()
+    {
+        // preparation
+        Map<String, String> nameMap = new HashMap<>();
+        nameMap.put("foo", "newFoo");
+
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        ScratchObjectDictionary vars = new ScratchObjectDictionary();
+        vars.put(new ScratchObjectUtf8("foo"), new ScratchObjectUtf8("hello"));
+        stage.setField(ScratchObjectScriptableMorph.FIELD_VARS, vars);
+
+        ScratchObjectArray block1 = new ScratchObjectArray();
+        block1.add(new ScratchObjectSymbol("readVariable"));
+        block1.add(new ScratchObjectUtf8("foo"));
+        ScratchObjectArray block2 = new ScratchObjectArray();
+        block2.add(new ScratchObjectSymbol("readVariable"));
+        block2.add(new ScratchObjectUtf8("foo"));
+        stage.addScript(new ScratchObjectPoint(20, 20), new ScratchObjectArray(Arrays.asList(block1, block2)));
+
+        // replacement
+        GlobalVariablesManipulator.replaceAll(stage, nameMap);
+
+        // checks
+        assertSame(block1.get(1), block2.get(1));
+        assertSame(vars.keySet().iterator().next(), block1.get(1));
+    }
+
+    @Test
+    public void appliesThroughIndex()
+    {
+        // preparation
+        Map<String, String> nameMap = new HashMap<>();
+        nameMap.put("foo", "bar");
+        nameMap.put("bar", "baz");
+
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        ScratchObjectDictionary vars = new ScratchObjectDictionary();
+        vars.put(new ScratchObjectUtf8("foo"), new ScratchObjectUtf8("hello"));
+        vars.put(new ScratchObjectUtf8("bar"), new ScratchObjectUtf8("world"));
+        stage.setField(ScratchObjectScriptableMorph.FIELD_VARS, vars);
+
+        ScratchObjectArray block1 = new ScratchObjectArray();
+        block1.add(new ScratchObjectSymbol("readVariable"));
+        block1.add(new ScratchObjectUtf8("foo"));
+        ScratchObjectArray block2 = new ScratchObjectArray();
+        block2.add(new ScratchObjectSymbol("showVariable:"));
+        block2.add(new ScratchObjectUtf8("bar"));
+        stage.addScript(new ScratchObjectPoint(20, 20), new ScratchObjectArray(Arrays.asList(block1, block2)));
+
+        ScratchObjectWatcherMorph watcher = new ScratchObjectWatcherMorph();
+        watcher.getTitleMorph().setContents("foo");
+        watcher.getReadoutMorph().setParameter("foo");
+        stage.setField(ScratchObjectMorph.FIELD_SUBMORPHS, new ScratchObjectArray(Collections.singletonList(watcher)));
+
+        // replacement
+        GlobalVariablesManipulator.apply(ProjectIndex.build(stage), nameMap);
+
+        // checks
+        List<String> newNames = vars.keySet().stream().map(obj -> ((ScratchObjectAbstractString) obj).getValue())
+                .collect(Collectors.toList());
+        assertIterableEquals(Arrays.asList("bar", "baz"), newNames);
+        assertEquals("bar", ((ScratchObjectAbstractString) block1.get(1)).getValue());
+        assertEquals("baz", ((ScratchObjectAbstractString) block2.get(1)).getValue());
+        assertEquals("bar", watcher.getTitleMorph().getContents());
+        assertEquals("bar", watcher.getReadoutMorph().getParameter());
+    }
 }
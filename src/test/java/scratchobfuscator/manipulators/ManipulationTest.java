@@ -1,7 +1,12 @@
 package scratchobfuscator.manipulators;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import org.junit.jupiter.api.Test;
@@ -16,6 +21,9 @@ import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
 import scratchlib.objects.user.morphs.ScratchObjectSpriteMorph;
 import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
 import scratchlib.objects.user.morphs.ui.ScratchObjectWatcherMorph;
+import scratchobfuscator.generator.ProjectGenerator;
+import scratchobfuscator.metrics.ObfuscationMetrics;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -122,4 +130,183 @@ public class ManipulationTest
 
         assertEquals(3, done.size());
     }
+
+    @Test
+    public void visitsBlocksInDocumentOrder()
+    {
+        ScratchObjectArray inner = new ScratchObjectArray();
+        inner.add(new ScratchObjectSymbol("inner"));
+
+        ScratchObjectArray outer = new ScratchObjectArray();
+        outer.add(new ScratchObjectSymbol("outer"));
+        outer.add(inner);
+
+        ScratchObjectArray next = new ScratchObjectArray();
+        next.add(new ScratchObjectSymbol("next"));
+
+        ScratchObjectArray script = new ScratchObjectArray();
+        script.add(outer);
+        script.add(next);
+
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        stage.addScript(new ScratchObjectPoint(20, 20), script);
+
+        List<String> selectors = new ArrayList<>();
+        new Manipulation(stage).forEachBlock(block -> {
+            selectors.add(((ScratchObjectSymbol) block.get(0)).getValue());
+        }).run();
+
+        assertIterableEquals(Arrays.asList("outer", "inner", "next"), selectors);
+    }
+
+    @Test
+    public void dispatchesBlocksBySelector()
+    {
+        ScratchObjectArray inner = new ScratchObjectArray();
+        inner.add(new ScratchObjectSymbol("readVariable"));
+        inner.add(new ScratchObjectUtf8("a"));
+
+        ScratchObjectArray outer = new ScratchObjectArray();
+        outer.add(new ScratchObjectSymbol("doRepeat"));
+        outer.add(inner);
+
+        ScratchObjectArray next = new ScratchObjectArray();
+        next.add(new ScratchObjectSymbol("byob"));
+        next.add(new ScratchObjectUtf8(""));
+        next.add(new ScratchObjectSymbol("readVariable"));
+        next.add(new ScratchObjectUtf8("b"));
+
+        ScratchObjectArray script = new ScratchObjectArray();
+        script.add(outer);
+        script.add(next);
+
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        stage.addScript(new ScratchObjectPoint(20, 20), script);
+
+        List<String> order = new ArrayList<>();
+        new Manipulation(stage).onSelector("readVariable", block -> {
+            order.add("read " + ((ScratchObjectUtf8) block.get(1)).getValue());
+        }).onSelector("doRepeat", block -> {
+            order.add("repeat");
+        }).forEachBlock(block -> {
+            order.add("any");
+        }).onSelector("readVariable", block -> {
+            order.add("read again");
+        }).run();
+
+        // generic and selector consumers run in the order in which they were bound
+        assertIterableEquals(Arrays.asList("repeat", "any", "read a", "any", "read again", "read b", "any",
+                "read again"), order);
+    }
+
+    @Test
+    public void runsSelectorConsumersInParallel()
+    {
+        ScratchObjectStageMorph stage = new ProjectGenerator().setSpriteCount(8).setGlobalVariableCount(2)
+                .generate().getStage();
+
+        AtomicInteger sequential = new AtomicInteger(), parallel = new AtomicInteger();
+        new Manipulation(stage).onSelector("readVariable", block -> sequential.incrementAndGet()).run();
+        new Manipulation(stage).onSelector("readVariable", block -> parallel.incrementAndGet()).runParallel();
+
+        assertTrue(sequential.get() > 0);
+        assertEquals(sequential.get(), parallel.get());
+    }
+
+    @Test
+    public void supportsDeeplyNestedScripts()
+    {
+        ScratchObjectStageMorph stage = new ProjectGenerator().setSpriteCount(0).setCustomBlocksPerMorph(0)
+                .setScriptsPerMorph(1).setBlocksPerScript(1).setNestingDepth(100000).generate().getStage();
+
+        int[] count = { 0 };
+        new Manipulation(stage).forEachBlock(block -> ++count[0]).run();
+
+        // every level consists of a C-block and its body
+        assertEquals(2 * 100000 + 1, count[0]);
+    }
+
+    @Test
+    public void reportsVisitCounts()
+    {
+        ProjectGenerator gen = new ProjectGenerator().setSpriteCount(3).setWatcherCount(2);
+        ScratchObjectStageMorph stage = gen.generate().getStage();
+
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+        new Manipulation(stage).withMetrics(metrics).forEachBlock(block -> {
+        }).forEachWatcher(watcher -> {
+        }).run();
+
+        assertEquals(4, metrics.getCount(Counter.MORPHS_VISITED));
+        assertEquals(4 * 10, metrics.getCount(Counter.CUSTOM_BLOCKS_VISITED));
+        assertEquals(gen.getBlockCount(), metrics.getCount(Counter.BLOCKS_VISITED));
+        assertEquals(2, metrics.getCount(Counter.WATCHERS_VISITED));
+    }
+
+    @Test
+    public void skipsTraversalWithoutConsumers()
+    {
+        ScratchObjectStageMorph stage = new ProjectGenerator().generate().getStage();
+
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+        new Manipulation(stage).withMetrics(metrics).run();
+
+        assertEquals(0, metrics.getCount(Counter.MORPHS_VISITED));
+    }
+
+    @Test
+    public void runParallelVisitsEverythingOnce()
+    {
+        ProjectGenerator gen = new ProjectGenerator().setSpriteCount(20).setNestingDepth(1).setWatcherCount(3);
+        ScratchObjectStageMorph stage = gen.generate().getStage();
+
+        Set<ScratchObjectScriptableMorph> morphs = ConcurrentHashMap.newKeySet();
+        AtomicInteger customBlocks = new AtomicInteger(), blocks = new AtomicInteger(), watchers = new AtomicInteger();
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new Manipulation(stage).withMetrics(metrics).forEachMorph(morphs::add)
+                    .forEachCustomBlock(cb -> customBlocks.incrementAndGet())
+                    .forEachBlock(block -> blocks.incrementAndGet())
+                    .forEachWatcher(watcher -> watchers.incrementAndGet()).runParallel(pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(21, morphs.size());
+        assertEquals(21 * 10, customBlocks.get());
+        assertEquals(gen.getBlockCount(), blocks.get());
+        assertEquals(3, watchers.get());
+        assertEquals(gen.getBlockCount(), metrics.getCount(Counter.BLOCKS_VISITED));
+    }
+
+    @Test
+    public void runParallelRunsWatchersAfterMorphs()
+    {
+        ScratchObjectStageMorph stage = new ProjectGenerator().setSpriteCount(8).setWatcherCount(1).generate()
+                .getStage();
+
+        AtomicInteger morphs = new AtomicInteger();
+        int[] morphsBeforeWatcher = { -1 };
+        new Manipulation(stage).forEachMorph(morph -> morphs.incrementAndGet())
+                .forEachWatcher(watcher -> morphsBeforeWatcher[0] = morphs.get()).runParallel();
+
+        assertEquals(9, morphsBeforeWatcher[0]);
+    }
+
+    @Test
+    public void runParallelRethrowsConsumerExceptions()
+    {
+        ScratchObjectStageMorph stage = new ProjectGenerator().setSpriteCount(4).generate().getStage();
+
+        Manipulation manipulation = new Manipulation(stage).forEachMorph(morph -> {
+            if (morph != stage) {
+                throw new IllegalArgumentException("test");
+            }
+        });
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, manipulation::runParallel);
+        assertEquals("test", e.getMessage());
+    }
 }
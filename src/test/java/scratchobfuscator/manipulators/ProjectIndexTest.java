@@ -0,0 +1,167 @@
+package scratchobfuscator.manipulators;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.collections.ScratchObjectDictionary;
+import scratchlib.objects.fixed.data.ScratchObjectString;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.objects.fixed.dimensions.ScratchObjectPoint;
+import scratchlib.objects.user.ScratchObjectCustomBlockDefinition;
+import scratchlib.objects.user.morphs.ScratchObjectMorph;
+import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
+import scratchlib.objects.user.morphs.ScratchObjectSpriteMorph;
+import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+import scratchlib.objects.user.morphs.ui.ScratchObjectWatcherMorph;
+import scratchobfuscator.generator.ProjectGenerator;
+import scratchobfuscator.metrics.ObfuscationMetrics;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ProjectIndexTest
+{
+    private static ScratchObjectArray makeBlock(String selector, String... args)
+    {
+        ScratchObjectArray block = new ScratchObjectArray();
+        block.add(new ScratchObjectSymbol(selector));
+        for (String arg : args) {
+            block.add(new ScratchObjectUtf8(arg));
+        }
+        return block;
+    }
+
+    private static ScratchObjectArray makeByobBlock(String selector, String... args)
+    {
+        ScratchObjectArray block = new ScratchObjectArray();
+        block.add(new ScratchObjectSymbol("byob"));
+        block.add(new ScratchObjectString(""));
+        block.add(new ScratchObjectSymbol(selector));
+        for (String arg : args) {
+            block.add(new ScratchObjectUtf8(arg));
+        }
+        return block;
+    }
+
+    @Test
+    public void indexesVariables()
+    {
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        ScratchObjectDictionary vars = new ScratchObjectDictionary();
+        vars.put(new ScratchObjectUtf8("foo"), new ScratchObjectUtf8("hello"));
+        stage.setField(ScratchObjectScriptableMorph.FIELD_VARS, vars);
+
+        ScratchObjectArray read = makeBlock("readVariable", "foo");
+        ScratchObjectArray change = makeByobBlock("changeVariable", "foo");
+        ScratchObjectArray other = makeBlock("readVariable", "bar");
+        stage.addScript(new ScratchObjectPoint(20, 20), new ScratchObjectArray(Arrays.asList(read, change, other)));
+
+        ScratchObjectSpriteMorph sprite = new ScratchObjectSpriteMorph();
+        ScratchObjectArray hide = makeBlock("hideVariable:", "foo");
+        sprite.addScript(new ScratchObjectPoint(20, 20), new ScratchObjectArray(Collections.singletonList(hide)));
+        stage.addSprite(sprite);
+
+        ProjectIndex index = ProjectIndex.build(stage);
+
+        assertEquals(Collections.singleton("foo"), index.getVariableNames());
+        assertEquals(1, index.getVariableDeclarations("foo").size());
+        assertSame(stage, index.getVariableDeclarations("foo").get(0));
+
+        List<ProjectIndex.Occurrence> refs = index.getVariableReferences("foo");
+        assertEquals(3, refs.size());
+
+        assertSame(stage, refs.get(0).getMorph());
+        assertSame(read, refs.get(0).getBlock());
+        assertEquals(1, refs.get(0).getIndex());
+
+        assertSame(change, refs.get(1).getBlock());
+        assertEquals(3, refs.get(1).getIndex());
+
+        assertSame(sprite, refs.get(2).getMorph());
+        assertSame(hide, refs.get(2).getBlock());
+
+        assertEquals(1, index.getVariableReferences("bar").size());
+        assertTrue(index.getVariableReferences("baz").isEmpty());
+    }
+
+    @Test
+    public void indexesWatchers()
+    {
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        ScratchObjectWatcherMorph watcher = new ScratchObjectWatcherMorph();
+        watcher.getTitleMorph().setContents("title");
+        watcher.getReadoutMorph().setParameter("foo");
+        stage.setField(ScratchObjectMorph.FIELD_SUBMORPHS, new ScratchObjectArray(Collections.singletonList(watcher)));
+
+        ProjectIndex index = ProjectIndex.build(stage);
+
+        assertEquals(Collections.singletonList(watcher), index.getWatcherTitles("title"));
+        assertEquals(Collections.singletonList(watcher), index.getWatcherReadouts("foo"));
+        assertTrue(index.getWatcherTitles("foo").isEmpty());
+    }
+
+    @Test
+    public void indexesCustomBlocks()
+    {
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+
+        ScratchObjectArray param = makeByobBlock("readBlockVariable", "name", "say %name");
+        ScratchObjectCustomBlockDefinition cb = new ScratchObjectCustomBlockDefinition();
+        cb.setUserSpec("say %name");
+        cb.setBody(new ScratchObjectArray(Collections.singletonList(param)));
+        stage.addCustomBlock(cb);
+
+        ScratchObjectArray invocation = makeByobBlock("doCustomBlock", "say %name");
+        stage.addScript(new ScratchObjectPoint(20, 20), new ScratchObjectArray(Collections.singletonList(invocation)));
+
+        ProjectIndex index = ProjectIndex.build(stage);
+
+        assertEquals(Collections.singleton("say %name"), index.getSpecs());
+        assertEquals(Collections.singletonList(cb), index.getCustomBlocks("say %name"));
+
+        assertEquals(1, index.getInvocations("say %name").size());
+        assertSame(invocation, index.getInvocations("say %name").get(0).getBlock());
+        assertEquals(3, index.getInvocations("say %name").get(0).getIndex());
+
+        assertEquals(1, index.getParameterReferences("say %name").size());
+        assertEquals(4, index.getParameterReferences("say %name").get(0).getIndex());
+
+        assertEquals(1, index.getParameterNames("say %name").size());
+        assertEquals("name", index.getParameterNames("say %name").get(0).getValue());
+        assertEquals(3, index.getParameterNames("say %name").get(0).getIndex());
+    }
+
+    @Test
+    public void keepsIndexedValuesAfterReplacement()
+    {
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        ScratchObjectArray read = makeBlock("readVariable", "foo");
+        stage.addScript(new ScratchObjectPoint(20, 20), new ScratchObjectArray(Collections.singletonList(read)));
+
+        ProjectIndex index = ProjectIndex.build(stage);
+        ProjectIndex.Occurrence occurrence = index.getVariableReferences("foo").get(0);
+        occurrence.set(new ScratchObjectUtf8("bar"));
+
+        assertEquals("bar", ((ScratchObjectUtf8) read.get(1)).getValue());
+        assertEquals("foo", occurrence.getValue());
+        assertEquals(1, index.getVariableReferences("foo").size());
+    }
+
+    @Test
+    public void reportsTraversal()
+    {
+        ScratchObjectStageMorph stage = new ProjectGenerator().setSpriteCount(3).generate().getStage();
+
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+        ProjectIndex index = ProjectIndex.build(stage, metrics);
+
+        assertSame(metrics, index.getMetrics());
+        assertEquals(4, metrics.getCount(Counter.MORPHS_VISITED));
+        assertTrue(metrics.getCount(Counter.BLOCKS_VISITED) > 0);
+    }
+}
@@ -195,4 +195,63 @@ public class UserSpecManipulatorTest
 
         assertEquals("%name", ((ScratchObjectAbstractString) param.get(4)).getValue());
     }
+
+    @Test
+    public void renamesParameterVariables()
+    {
+        ScratchObjectStageMorph stage = makeStage();
+
+        Map<String, Map<String, String>> parameterMap = new HashMap<>();
+        parameterMap.put("say hello to %name", Collections.singletonMap("name", "a"));
+        UserSpecManipulator.replaceAll(stage, getSpecMap(), parameterMap);
+
+        ScratchObjectAbstractCollection blocks = stage.getSprite(0).getScriptBody(0);
+        ScratchObjectAbstractCollection block = (ScratchObjectAbstractCollection) blocks.get(1);
+        ScratchObjectAbstractCollection param = (ScratchObjectAbstractCollection) block.get(1);
+
+        assertEquals("a", ((ScratchObjectAbstractString) param.get(3)).getValue());
+        assertEquals("%name", ((ScratchObjectAbstractString) param.get(4)).getValue());
+    }
+
+    @Test
+    public void keepsParameterVariablesOfOtherSpecs()
+    {
+        ScratchObjectStageMorph stage = makeStage();
+
+        Map<String, Map<String, String>> parameterMap = new HashMap<>();
+        parameterMap.put("do something with %value", Collections.singletonMap("name", "a"));
+        UserSpecManipulator.replaceAll(stage, getSpecMap(), parameterMap);
+
+        ScratchObjectAbstractCollection blocks = stage.getScriptBody(0);
+        ScratchObjectAbstractCollection block = (ScratchObjectAbstractCollection) blocks.get(1);
+        ScratchObjectAbstractCollection param = (ScratchObjectAbstractCollection) block.get(1);
+
+        assertEquals("name", ((ScratchObjectAbstractString) param.get(3)).getValue());
+    }
+
+    @Test
+    public void appliesThroughIndex()
+    {
+        ScratchObjectStageMorph stage = makeStage();
+
+        Map<String, Map<String, String>> parameterMap = new HashMap<>();
+        parameterMap.put("say hello to %name", Collections.singletonMap("name", "a"));
+        UserSpecManipulator.apply(ProjectIndex.build(stage), getSpecMap(), parameterMap);
+
+        assertEquals("%name", stage.getCustomBlock(0).getUserSpec());
+        assertEquals("%value x", stage.getSprite(0).getCustomBlock(1).getUserSpec());
+
+        ScratchObjectAbstractCollection blocks = stage.getSprite(0).getScriptBody(0);
+        ScratchObjectAbstractCollection block0 = (ScratchObjectAbstractCollection) blocks.get(0);
+        assertEquals("%name", ((ScratchObjectAbstractString) block0.get(3)).getValue());
+
+        ScratchObjectAbstractCollection block1 = (ScratchObjectAbstractCollection) blocks.get(1);
+        ScratchObjectAbstractCollection param = (ScratchObjectAbstractCollection) block1.get(1);
+        assertEquals("a", ((ScratchObjectAbstractString) param.get(3)).getValue());
+        assertEquals("%name", ((ScratchObjectAbstractString) param.get(4)).getValue());
+
+        ScratchObjectAbstractCollection block1body = (ScratchObjectAbstractCollection) block1.get(2);
+        ScratchObjectAbstractCollection block1bodyBlock = (ScratchObjectAbstractCollection) block1body.get(0);
+        assertEquals("%value x", ((ScratchObjectAbstractString) block1bodyBlock.get(3)).getValue());
+    }
 }
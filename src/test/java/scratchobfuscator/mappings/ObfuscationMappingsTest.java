@@ -0,0 +1,152 @@
+package scratchobfuscator.mappings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ObfuscationMappingsTest
+{
+    private static ObfuscationMappings makeMappings()
+    {
+        ObfuscationMappings obj = new ObfuscationMappings();
+        obj.putName("foo", " ");
+        obj.putName("bar", "  ");
+        obj.putSpec("say hello to %name", "%name");
+        obj.putSpec("\u00FCber %x", "%x x");
+        return obj;
+    }
+
+    @Test
+    public void returnsSnapshots()
+    {
+        ObfuscationMappings obj = makeMappings();
+
+        obj.getNames().clear();
+        obj.getSpecs().clear();
+
+        assertEquals(2, obj.getNames().size());
+        assertEquals(2, obj.getSpecs().size());
+        assertIterableEquals(Arrays.asList("foo", "bar"), obj.getNames().keySet());
+    }
+
+    @Test
+    public void roundTripsThroughStreams() throws IOException
+    {
+        ObfuscationMappings obj = makeMappings();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        obj.write(out);
+        ObfuscationMappings read = ObfuscationMappings.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(obj.getNames(), read.getNames());
+        assertEquals(obj.getSpecs(), read.getSpecs());
+    }
+
+    @Test
+    public void roundTripsThroughFiles(@TempDir Path temp) throws IOException
+    {
+        Path file = temp.resolve("mappings.bin");
+        assertTrue(ObfuscationMappings.loadOrCreate(file).getNames().isEmpty());
+
+        makeMappings().save(file);
+        ObfuscationMappings loaded = ObfuscationMappings.loadOrCreate(file);
+
+        assertEquals(makeMappings().getSpecs(), loaded.getSpecs());
+    }
+
+    @Test
+    public void rejectsInvalidData(@TempDir Path temp) throws IOException
+    {
+        Path file = temp.resolve("invalid.bin");
+        Files.write(file, new byte[] { 1, 2, 3, 4, 0, 0, 0, 1 });
+
+        assertThrows(IOException.class, () -> ObfuscationMappings.load(file));
+    }
+
+    @Test
+    public void assignsNamesSkippingTakenReplacements()
+    {
+        ObfuscationMappings obj = makeMappings();
+
+        assertEquals(" ", obj.assignName("foo", i -> "new" + i));
+        assertEquals("   ", obj.assignName("baz", i -> repeat(' ', i + 1)));
+        assertEquals("    ", obj.assignName("qux", i -> repeat(' ', i + 1)));
+        assertEquals("   ", obj.assignName("baz", i -> "unused"));
+    }
+
+    @Test
+    public void assignsSpecsSkippingSimilarReplacements()
+    {
+        ObfuscationMappings obj = makeMappings();
+
+        // "%a" and "%a x" are similar to the taken "%name" and "%x x"
+        assertEquals("%a xx", obj.assignSpec("greet %a", "%", i -> "%a" + (i > 0 ? " " + repeat('x', i) : "")));
+        assertEquals("%a xxx", obj.assignSpec("wave at %a", "%", i -> "%a" + (i > 0 ? " " + repeat('x', i) : "")));
+        assertEquals("%a xx", obj.assignSpec("greet %a", "%", i -> "unused"));
+    }
+
+    @Test
+    public void keepsTakenReplacementsAcrossRoundTrips() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        makeMappings().write(out);
+        ObfuscationMappings read = ObfuscationMappings.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals("   ", read.assignName("baz", i -> repeat(' ', i + 1)));
+    }
+
+    @Test
+    public void assignsUniqueNamesConcurrently() throws Exception
+    {
+        final ObfuscationMappings obj = new ObfuscationMappings();
+        final int threads = 8, namesPerThread = 500;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < namesPerThread; ++i) {
+                        // every thread also assigns the names shared by all threads
+                        obj.assignName("shared " + i, index -> "n" + index);
+                        obj.assignName("thread " + thread + " name " + i, index -> "n" + index);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final int expected = namesPerThread + threads * namesPerThread;
+        assertEquals(expected, obj.getNames().size());
+        assertEquals(expected, new HashSet<>(obj.getNames().values()).size());
+    }
+
+    private static String repeat(char c, int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
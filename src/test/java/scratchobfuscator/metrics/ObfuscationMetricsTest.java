@@ -0,0 +1,91 @@
+package scratchobfuscator.metrics;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class ObfuscationMetricsTest
+{
+    @Test
+    public void countsCounters()
+    {
+        ObfuscationMetrics obj = new ObfuscationMetrics();
+        obj.increment(Counter.BLOCKS_VISITED);
+        obj.add(Counter.BLOCKS_VISITED, 41);
+        obj.add(Counter.BYTES_READ, 1000);
+
+        assertEquals(42, obj.getCount(Counter.BLOCKS_VISITED));
+        assertEquals(1000, obj.getCount(Counter.BYTES_READ));
+        assertEquals(0, obj.getCount(Counter.BYTES_WRITTEN));
+    }
+
+    @Test
+    public void accumulatesPhaseTimes()
+    {
+        ObfuscationMetrics obj = new ObfuscationMetrics();
+        obj.recordTime("write", 5);
+        obj.recordTime("read", 10);
+        obj.recordTime("read", 20);
+
+        assertEquals(Arrays.asList("write", "read"), obj.getPhases());
+        assertEquals(30, obj.getTotalNanos("read"));
+        assertEquals(2, obj.getPhaseCount("read"));
+        assertEquals(0, obj.getTotalNanos("unknown"));
+        assertEquals(0, obj.getPhaseCount("unknown"));
+    }
+
+    @Test
+    public void disabledInstanceRecordsNothing()
+    {
+        ObfuscationMetrics obj = ObfuscationMetrics.DISABLED;
+        obj.increment(Counter.PROJECTS_PROCESSED);
+        obj.recordTime("read", 10);
+
+        assertFalse(obj.isEnabled());
+        assertEquals(0, obj.getCount(Counter.PROJECTS_PROCESSED));
+        assertTrue(obj.getPhases().isEmpty());
+    }
+
+    @Test
+    public void aggregatesConcurrentUpdates() throws InterruptedException
+    {
+        ObfuscationMetrics obj = new ObfuscationMetrics();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; ++j) {
+                    obj.increment(Counter.NAMES_REPLACED);
+                    obj.recordTime("phase", 1);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(4000, obj.getCount(Counter.NAMES_REPLACED));
+        assertEquals(4000, obj.getPhaseCount("phase"));
+        assertEquals(4000, obj.getTotalNanos("phase"));
+    }
+
+    @Test
+    public void formatsJson()
+    {
+        ObfuscationMetrics obj = new ObfuscationMetrics();
+        obj.recordTime("module:\"X\"", 1500000);
+        obj.add(Counter.SPECS_REPLACED, 3);
+
+        String json = obj.toJson();
+
+        assertTrue(json.startsWith("{\"phases\":{\"module:\\\"X\\\"\":{\"count\":1,\"millis\":1.500}},"));
+        assertTrue(json.contains("\"specsReplaced\":3"));
+        assertTrue(json.contains("\"projectsProcessed\":0"));
+        assertTrue(json.endsWith("}}"));
+    }
+}
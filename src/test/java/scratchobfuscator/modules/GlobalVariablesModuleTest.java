@@ -14,6 +14,8 @@ import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
 import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
 import scratchlib.util.ScratchNumbers;
+import scratchobfuscator.mappings.ObfuscationMappings;
+import scratchobfuscator.names.AlphabetNameGenerator;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -55,4 +57,92 @@ public class GlobalVariablesModuleTest
                 .map(obj -> ((ScratchObjectAbstractString) obj).getValue()).collect(Collectors.toList());
         assertIterableEquals(Arrays.asList(" ", "  ", "   "), spriteVarNames);
     }
+
+    @Test
+    public void usesGivenNameGenerator()
+    {
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        ScratchObjectDictionary stageVars = makeVars();
+        stage.setField(ScratchObjectScriptableMorph.FIELD_VARS, stageVars);
+
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        project.setStage(stage);
+
+        new GlobalVariablesModule(new AlphabetNameGenerator("ab")).process(project);
+
+        List<String> stageVarNames = stageVars.keySet().stream()
+                .map(obj -> ((ScratchObjectAbstractString) obj).getValue()).collect(Collectors.toList());
+        assertIterableEquals(Arrays.asList("a", "b", "aa"), stageVarNames);
+    }
+
+    @Test
+    public void numbersNamesInDocumentOrderForManySprites()
+    {
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        stage.setField(ScratchObjectScriptableMorph.FIELD_VARS, makeVars());
+        for (int i = 0; i < 4 * MorphGatherer.PARALLEL_THRESHOLD; ++i) {
+            ScratchObjectSpriteMorph sprite = new ScratchObjectSpriteMorph();
+            ScratchObjectDictionary vars = new ScratchObjectDictionary();
+            vars.put(new ScratchObjectUtf8("foo"), ScratchNumbers.of(i));
+            vars.put(new ScratchObjectUtf8("var" + i), ScratchNumbers.of(i));
+            sprite.setField(ScratchObjectScriptableMorph.FIELD_VARS, vars);
+            stage.addSprite(sprite);
+        }
+
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        project.setStage(stage);
+
+        new GlobalVariablesModule().process(project);
+
+        for (int i = 0, n = stage.getSpriteCount(); i < n; ++i) {
+            ScratchObjectDictionary vars = (ScratchObjectDictionary) stage.getSprite(i)
+                    .getField(ScratchObjectScriptableMorph.FIELD_VARS);
+            List<Integer> nameLengths = vars.keySet().stream()
+                    .map(obj -> ((ScratchObjectAbstractString) obj).getValue().length()).sorted()
+                    .collect(Collectors.toList());
+            // "foo" is the first stage variable; the sprite's own variable is
+            // numbered after the 3 stage variables and the previous sprites'
+            assertIterableEquals(Arrays.asList(1, 3 + i + 1), nameLengths);
+        }
+    }
+
+    @Test
+    public void reusesAndRecordsMappedNames()
+    {
+        ObfuscationMappings mappings = new ObfuscationMappings();
+        mappings.putName("bar", " ");
+
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        ScratchObjectDictionary stageVars = makeVars();
+        stage.setField(ScratchObjectScriptableMorph.FIELD_VARS, stageVars);
+
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        project.setStage(stage);
+
+        GlobalVariablesModule module = new GlobalVariablesModule();
+        module.setMappings(mappings);
+        module.process(project);
+
+        List<String> stageVarNames = stageVars.keySet().stream()
+                .map(obj -> ((ScratchObjectAbstractString) obj).getValue()).collect(Collectors.toList());
+        // "foo" skips the name taken by "bar"
+        assertIterableEquals(Arrays.asList("  ", " ", "   "), stageVarNames);
+
+        assertEquals(3, mappings.getNames().size());
+        assertEquals("  ", mappings.getNames().get("foo"));
+        assertEquals("   ", mappings.getNames().get("baz"));
+    }
+
+    @Test
+    public void fingerprintExcludesMappings()
+    {
+        GlobalVariablesModule module = new GlobalVariablesModule();
+        String withoutMappings = module.getFingerprint();
+
+        ObfuscationMappings mappings = new ObfuscationMappings();
+        mappings.putName("foo", " ");
+        module.setMappings(mappings);
+
+        assertEquals(withoutMappings, module.getFingerprint());
+    }
 }
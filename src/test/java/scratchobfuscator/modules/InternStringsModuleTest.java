@@ -0,0 +1,88 @@
+package scratchobfuscator.modules;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.data.ScratchObjectString;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
+import scratchlib.objects.fixed.dimensions.ScratchObjectPoint;
+import scratchlib.objects.user.morphs.ScratchObjectSpriteMorph;
+import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+import scratchlib.project.ScratchProject;
+import scratchlib.project.ScratchVersion;
+import scratchobfuscator.manipulators.Manipulation;
+import scratchobfuscator.metrics.ObfuscationMetrics;
+import scratchobfuscator.metrics.ObfuscationMetrics.Counter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class InternStringsModuleTest
+{
+    private static ScratchObjectArray makeBlock(String selector, String argument)
+    {
+        ScratchObjectArray block = new ScratchObjectArray();
+        block.add(new ScratchObjectSymbol(selector));
+        block.add(new ScratchObjectUtf8(argument));
+        return block;
+    }
+
+    @Test
+    public void sharesEqualStringsAcrossMorphs()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+        ScratchObjectStageMorph stage = project.getStage();
+
+        ScratchObjectArray block1 = makeBlock("readVariable", "foo");
+        ScratchObjectArray block2 = makeBlock("readVariable", "foo");
+        ScratchObjectArray block3 = makeBlock("readVariable", "bar");
+        stage.addScript(new ScratchObjectPoint(0, 0), new ScratchObjectArray(Arrays.asList(block1, block2)));
+
+        ScratchObjectSpriteMorph sprite = new ScratchObjectSpriteMorph();
+        sprite.addScript(new ScratchObjectPoint(0, 0), new ScratchObjectArray(Arrays.asList(block3)));
+        stage.addSprite(sprite);
+
+        new InternStringsModule().process(project);
+
+        assertSame(block1.get(0), block2.get(0));
+        assertSame(block1.get(0), block3.get(0));
+        assertSame(block1.get(1), block2.get(1));
+        assertNotSame(block1.get(1), block3.get(1));
+    }
+
+    @Test
+    public void keepsStringTypesApart()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+
+        ScratchObjectArray block = new ScratchObjectArray();
+        block.add(new ScratchObjectSymbol("say:"));
+        block.add(new ScratchObjectUtf8("say:"));
+        block.add(new ScratchObjectString("say:"));
+        project.getStage().addScript(new ScratchObjectPoint(0, 0),
+                new ScratchObjectArray(Arrays.asList(block)));
+
+        new InternStringsModule().process(project);
+
+        assertTrue(block.get(0) instanceof ScratchObjectSymbol);
+        assertTrue(block.get(1) instanceof ScratchObjectUtf8);
+        assertTrue(block.get(2) instanceof ScratchObjectString);
+    }
+
+    @Test
+    public void countsInternedStrings()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.SCRATCH14);
+        project.getStage().addScript(new ScratchObjectPoint(0, 0), new ScratchObjectArray(
+                Arrays.asList(makeBlock("readVariable", "foo"), makeBlock("readVariable", "foo"))));
+
+        ObfuscationMetrics metrics = new ObfuscationMetrics();
+        Manipulation manipulation = new Manipulation(project.getStage()).withMetrics(metrics);
+        new InternStringsModule().register(project, manipulation);
+        manipulation.run();
+
+        assertEquals(2, metrics.getCount(Counter.STRINGS_INTERNED));
+    }
+}
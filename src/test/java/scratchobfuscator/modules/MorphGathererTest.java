@@ -0,0 +1,50 @@
+package scratchobfuscator.modules;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
+import scratchlib.objects.user.morphs.ScratchObjectSpriteMorph;
+import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class MorphGathererTest
+{
+    private static ScratchObjectStageMorph makeStage(int spriteCount)
+    {
+        ScratchObjectStageMorph stage = new ScratchObjectStageMorph();
+        for (int i = 0; i < spriteCount; ++i) {
+            stage.addSprite(new ScratchObjectSpriteMorph());
+        }
+        return stage;
+    }
+
+    @Test
+    public void returnsStageOnlyWithoutSprites()
+    {
+        ScratchObjectStageMorph stage = makeStage(0);
+
+        List<ScratchObjectScriptableMorph> result = MorphGatherer.gather(stage, morph -> morph);
+
+        assertEquals(1, result.size());
+        assertSame(stage, result.get(0));
+    }
+
+    @Test
+    public void returnsResultsInDocumentOrder()
+    {
+        for (int count : new int[] { 1, MorphGatherer.PARALLEL_THRESHOLD, 10 * MorphGatherer.PARALLEL_THRESHOLD }) {
+            ScratchObjectStageMorph stage = makeStage(count);
+
+            List<ScratchObjectScriptableMorph> result = MorphGatherer.gather(stage, morph -> morph);
+
+            assertEquals(count + 1, result.size());
+            assertSame(stage, result.get(0));
+            for (int i = 0; i < count; ++i) {
+                assertSame(stage.getSprite(i), result.get(i + 1));
+            }
+        }
+    }
+}
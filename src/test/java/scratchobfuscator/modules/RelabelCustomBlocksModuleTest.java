@@ -1,12 +1,26 @@
 package scratchobfuscator.modules;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
 import org.junit.jupiter.api.Test;
+import scratchlib.objects.ScratchObject;
+import scratchlib.objects.fixed.collections.ScratchObjectAbstractCollection;
+import scratchlib.objects.fixed.collections.ScratchObjectArray;
+import scratchlib.objects.fixed.collections.ScratchObjectDictionary;
+import scratchlib.objects.fixed.data.ScratchObjectAbstractString;
+import scratchlib.objects.fixed.data.ScratchObjectString;
+import scratchlib.objects.fixed.data.ScratchObjectSymbol;
+import scratchlib.objects.fixed.data.ScratchObjectUtf8;
 import scratchlib.objects.user.ScratchObjectCustomBlockDefinition;
 import scratchlib.objects.user.morphs.ScratchObjectScriptableMorph;
 import scratchlib.objects.user.morphs.ScratchObjectSpriteMorph;
 import scratchlib.objects.user.morphs.ScratchObjectStageMorph;
 import scratchlib.project.ScratchProject;
 import scratchlib.project.ScratchVersion;
+import scratchobfuscator.manipulators.ProjectIndex;
+import scratchobfuscator.mappings.ObfuscationMappings;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -72,4 +86,201 @@ public class RelabelCustomBlocksModuleTest
         assertEquals("%n xx", sprite.getCustomBlock(2).getUserSpec());
         assertEquals("%a %b", sprite.getCustomBlock(3).getUserSpec());
     }
+
+    @Test
+    public void appendsIncreasingSuffixesForSameShape()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        ScratchObjectStageMorph stage = project.getStage();
+        for (int i = 0; i < 20; ++i) {
+            ScratchObjectCustomBlockDefinition cb = new ScratchObjectCustomBlockDefinition();
+            cb.setUserSpec("block " + i + " %a");
+            stage.addCustomBlock(cb);
+        }
+        ScratchObjectCustomBlockDefinition other = new ScratchObjectCustomBlockDefinition();
+        other.setUserSpec("no params");
+        stage.addCustomBlock(other);
+
+        new RelabelCustomBlocksModule().process(project);
+
+        assertEquals("%a", stage.getCustomBlock(0).getUserSpec());
+        assertEquals("%a x", stage.getCustomBlock(1).getUserSpec());
+        assertEquals("%a xxxxxxxxxxxxxxxxxxx", stage.getCustomBlock(19).getUserSpec());
+        assertEquals("", stage.getCustomBlock(20).getUserSpec());
+    }
+
+    @Test
+    public void assignsSuffixesInDocumentOrderForManySprites()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        ScratchObjectStageMorph stage = project.getStage();
+        for (int i = 0; i < 4 * MorphGatherer.PARALLEL_THRESHOLD; ++i) {
+            ScratchObjectSpriteMorph sprite = new ScratchObjectSpriteMorph();
+            ScratchObjectCustomBlockDefinition cb = new ScratchObjectCustomBlockDefinition();
+            cb.setUserSpec("sprite " + i + " block %a");
+            sprite.addCustomBlock(cb);
+            stage.addSprite(sprite);
+        }
+
+        new RelabelCustomBlocksModule().process(project);
+
+        StringBuilder expected = new StringBuilder("%a");
+        for (int i = 0, n = stage.getSpriteCount(); i < n; ++i) {
+            assertEquals(expected.toString(), stage.getSprite(i).getCustomBlock(0).getUserSpec());
+            expected.append(i == 0 ? " x" : "x");
+        }
+    }
+
+    @Test
+    public void reusesAndRecordsMappedSpecs()
+    {
+        ObfuscationMappings mappings = new ObfuscationMappings();
+        mappings.putSpec("do something with %value", "%value");
+
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        project.setStage(makeStage());
+
+        RelabelCustomBlocksModule module = new RelabelCustomBlocksModule();
+        module.setMappings(mappings);
+        module.process(project);
+
+        ScratchObjectStageMorph stage = project.getStage();
+        // the new spec avoids the previously assigned "%value"
+        assertEquals("%name x", stage.getCustomBlock(0).getUserSpec());
+        assertEquals("%value", stage.getCustomBlock(1).getUserSpec());
+        assertEquals("%n xx", stage.getCustomBlock(2).getUserSpec());
+        assertEquals("%a %b", stage.getCustomBlock(3).getUserSpec());
+
+        assertEquals(4, mappings.getSpecs().size());
+        assertEquals("%name x", mappings.getSpecs().get("say hello to %name"));
+    }
+
+    @Test
+    public void minimizesParameterNames()
+    {
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        project.setStage(makeStage());
+
+        ScratchObjectCustomBlockDefinition cb = new ScratchObjectCustomBlockDefinition();
+        cb.setUserSpec("move %distance steps then %distance again or %other");
+        cb.setBody(new ScratchObjectArray(Collections.singletonList(
+                makeParameterVariable("distance", "move %distance steps then %distance again or %other"))));
+        project.getStage().addCustomBlock(cb);
+
+        new RelabelCustomBlocksModule(true).process(project);
+
+        ScratchObjectStageMorph stage = project.getStage();
+        assertEquals("%a", stage.getCustomBlock(0).getUserSpec());
+        assertEquals("%a x", stage.getCustomBlock(1).getUserSpec());
+        assertEquals("%a xx", stage.getCustomBlock(2).getUserSpec());
+        assertEquals("%a %b", stage.getCustomBlock(3).getUserSpec());
+        assertEquals("%a %a %b", stage.getCustomBlock(4).getUserSpec());
+
+        ScratchObjectAbstractCollection param = (ScratchObjectAbstractCollection) cb.getBody().get(0);
+        assertEquals("a", ((ScratchObjectAbstractString) param.get(3)).getValue());
+        assertEquals("%a %a %b", ((ScratchObjectAbstractString) param.get(4)).getValue());
+    }
+
+    @Test
+    public void minimizedParameterNamesAvoidOtherBlockVariables()
+    {
+        final String spec = "move %distance steps";
+
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        ScratchObjectCustomBlockDefinition cb = new ScratchObjectCustomBlockDefinition();
+        cb.setUserSpec(spec);
+        // "a" is a script variable declared in the definition, not a parameter
+        cb.setBody(new ScratchObjectArray(Arrays.asList(makeParameterVariable("distance", spec),
+                makeParameterVariable("a", spec))));
+        project.getStage().addCustomBlock(cb);
+
+        new RelabelCustomBlocksModule(true).process(project);
+
+        assertEquals("%b", project.getStage().getCustomBlock(0).getUserSpec());
+
+        ScratchObjectAbstractCollection param = (ScratchObjectAbstractCollection) cb.getBody().get(0);
+        assertEquals("b", ((ScratchObjectAbstractString) param.get(3)).getValue());
+        ScratchObjectAbstractCollection variable = (ScratchObjectAbstractCollection) cb.getBody().get(1);
+        assertEquals("a", ((ScratchObjectAbstractString) variable.get(3)).getValue());
+    }
+
+    @Test
+    public void renamesParameterDeclarationsWithParameters()
+    {
+        for (boolean indexed : new boolean[] { false, true }) {
+            ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+            ScratchObjectCustomBlockDefinition cb = new ScratchObjectCustomBlockDefinition();
+            cb.setUserSpec("move %b by %a");
+            // minimizing swaps the names, and the types must move along
+            ScratchObjectDictionary declarations = new ScratchObjectDictionary();
+            declarations.put(new ScratchObjectUtf8("b"), new ScratchObjectSymbol("number"));
+            declarations.put(new ScratchObjectUtf8("a"), new ScratchObjectSymbol("list"));
+            cb.setField("declarations", declarations);
+            ScratchObjectDictionary defaults = new ScratchObjectDictionary();
+            defaults.put(new ScratchObjectUtf8("b"), new ScratchObjectUtf8("10"));
+            cb.setField("defaults", defaults);
+            project.getStage().addCustomBlock(cb);
+
+            RelabelCustomBlocksModule module = new RelabelCustomBlocksModule(true);
+            if (!indexed || !module.apply(project, ProjectIndex.build(project.getStage()))) {
+                module.process(project);
+            }
+
+            assertEquals("%a %b", cb.getUserSpec());
+            assertEquals("number", getValue(declarations, "a"));
+            assertEquals("list", getValue(declarations, "b"));
+            assertEquals("10", getValue(defaults, "a"));
+            assertNull(getValue(defaults, "b"));
+        }
+    }
+
+    @Test
+    public void keepsParameterNamesOfMappedSpecs()
+    {
+        ObfuscationMappings mappings = new ObfuscationMappings();
+        mappings.putSpec("say hello to %name", "%name");
+
+        ScratchProject project = new ScratchProject(ScratchVersion.BYOB311);
+        ScratchObjectCustomBlockDefinition cb = new ScratchObjectCustomBlockDefinition();
+        cb.setUserSpec("say hello to %name");
+        cb.setBody(new ScratchObjectArray(Collections.singletonList(
+                makeParameterVariable("name", "say hello to %name"))));
+        project.getStage().addCustomBlock(cb);
+
+        RelabelCustomBlocksModule module = new RelabelCustomBlocksModule(true);
+        module.setMappings(mappings);
+        module.process(project);
+
+        assertEquals("%name", cb.getUserSpec());
+        ScratchObjectAbstractCollection param = (ScratchObjectAbstractCollection) cb.getBody().get(0);
+        assertEquals("name", ((ScratchObjectAbstractString) param.get(3)).getValue());
+    }
+
+    @Test
+    public void includesParameterMinimizationInFingerprint()
+    {
+        assertNotEquals(new RelabelCustomBlocksModule().getFingerprint(),
+                new RelabelCustomBlocksModule(true).getFingerprint());
+    }
+
+    private String getValue(ScratchObjectDictionary dict, String key)
+    {
+        for (Map.Entry<ScratchObject, ScratchObject> entry : dict.entrySet()) {
+            if (((ScratchObjectAbstractString) entry.getKey()).getValue().equals(key)) {
+                return ((ScratchObjectAbstractString) entry.getValue()).getValue();
+            }
+        }
+        return null;
+    }
+
+    private ScratchObjectArray makeParameterVariable(String name, String spec)
+    {
+        ScratchObjectArray block = new ScratchObjectArray();
+        block.add(new ScratchObjectSymbol("byob"));
+        block.add(new ScratchObjectString(""));
+        block.add(new ScratchObjectSymbol("readBlockVariable"));
+        block.add(new ScratchObjectUtf8(name));
+        block.add(new ScratchObjectUtf8(spec));
+        return block;
+    }
 }
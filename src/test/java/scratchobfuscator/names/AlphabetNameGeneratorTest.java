@@ -0,0 +1,68 @@
+package scratchobfuscator.names;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class AlphabetNameGeneratorTest
+{
+    @Test
+    public void countsInBijectiveBase()
+    {
+        NameGenerator gen = new AlphabetNameGenerator("ab");
+
+        assertEquals("a", gen.generate(0));
+        assertEquals("b", gen.generate(1));
+        assertEquals("aa", gen.generate(2));
+        assertEquals("ab", gen.generate(3));
+        assertEquals("ba", gen.generate(4));
+        assertEquals("bb", gen.generate(5));
+        assertEquals("aaa", gen.generate(6));
+    }
+
+    @Test
+    public void generatesUniqueNames()
+    {
+        NameGenerator gen = new AlphabetNameGenerator(AlphabetNameGenerator.INVISIBLE);
+
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < 5000; ++i) {
+            assertTrue(names.add(gen.generate(i)));
+        }
+    }
+
+    @Test
+    public void growsLogarithmically()
+    {
+        NameGenerator gen = new AlphabetNameGenerator("0123456789");
+
+        assertEquals(4, gen.generate(9999).length());
+        assertEquals(5, gen.generate(Integer.MAX_VALUE / 100000).length());
+    }
+
+    @Test
+    public void supportsSingleCharacterAlphabet()
+    {
+        NameGenerator gen = new AlphabetNameGenerator(" ");
+
+        assertEquals(new RepeatedCharacterNameGenerator(' ').generate(7), gen.generate(7));
+    }
+
+    @Test
+    public void rejectsInvalidAlphabets()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new AlphabetNameGenerator(""));
+        assertThrows(IllegalArgumentException.class, () -> new AlphabetNameGenerator("aba"));
+    }
+
+    @Test
+    public void describesAlphabetInToString()
+    {
+        assertEquals(new AlphabetNameGenerator("ab").toString(), new AlphabetNameGenerator("ab").toString());
+        assertNotEquals(new AlphabetNameGenerator("ab").toString(), new AlphabetNameGenerator("ba").toString());
+    }
+}
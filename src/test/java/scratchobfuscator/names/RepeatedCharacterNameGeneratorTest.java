@@ -0,0 +1,28 @@
+package scratchobfuscator.names;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class RepeatedCharacterNameGeneratorTest
+{
+    @Test
+    public void repeatsCharacter()
+    {
+        NameGenerator gen = new RepeatedCharacterNameGenerator(' ');
+
+        assertEquals(" ", gen.generate(0));
+        assertEquals("  ", gen.generate(1));
+        assertEquals("     ", gen.generate(4));
+    }
+
+    @Test
+    public void describesCharacterInToString()
+    {
+        assertEquals(new RepeatedCharacterNameGenerator(' ').toString(),
+                new RepeatedCharacterNameGenerator(' ').toString());
+        assertNotEquals(new RepeatedCharacterNameGenerator(' ').toString(),
+                new RepeatedCharacterNameGenerator('\u00A0').toString());
+    }
+}